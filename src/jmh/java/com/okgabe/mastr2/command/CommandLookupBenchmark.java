@@ -0,0 +1,57 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.command;
+
+import com.okgabe.mastr2.Mastr;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Looks up commands the way CommandHandler.searchForCommand does, using the real command classes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandLookupBenchmark {
+
+    @Param({"help", "MSW", "notacommand"})
+    public String alias;
+
+    private AliasIndex aliasIndex;
+    private String message;
+
+    @Setup
+    public void setup() throws Exception {
+        List<CommandBase> commands = new ArrayList<>();
+        // Commands only use the bot instance once they run, so none is needed to register them
+        for(Function<Mastr, CommandBase> factory : CommandRegistry.FACTORIES){
+            commands.add(factory.apply(null));
+        }
+
+        aliasIndex = new AliasIndex(commands);
+        message = "mas " + alias + " some arguments";
+    }
+
+    @Benchmark
+    public CommandBase searchForCommand() {
+        return aliasIndex.get(alias);
+    }
+
+    @Benchmark
+    public CommandBase searchInMessage() {
+        return aliasIndex.get(message, 4, 4 + alias.length());
+    }
+}
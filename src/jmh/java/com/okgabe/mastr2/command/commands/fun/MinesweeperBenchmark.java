@@ -0,0 +1,42 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.command.commands.fun;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MinesweeperBenchmark {
+
+    private MinesweeperCommand command;
+    private String[][] field;
+
+    @Setup
+    public void setup() {
+        // Mentions shaped like the real custom emotes, without needing a shard to look them up
+        command = new MinesweeperCommand(null, id -> "<:emote:" + id + ">");
+        field = command.generateMinesweeper(10);
+    }
+
+    @Benchmark
+    public String[][] generateMinesweeper() {
+        return command.generateMinesweeper(10);
+    }
+
+    @Benchmark
+    public String minesweeperToString() {
+        return command.minesweeperToString(field);
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.command.commands.moderation;
+
+import com.okgabe.mastr2.command.CommandEvent;
+import com.okgabe.mastr2.util.TokenizedString;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PurgeSettingsBenchmark {
+
+    @Param({"50", "100 users bots embeds <@!123456789012345678> \"some quote\"", "25 links images `[a-z]+` upto:https://discord.com/channels/1/2/123456789012345678"})
+    public String arguments;
+
+    private CommandEvent event;
+
+    // Tokenized the way the command handler does it, the benchmark only covers reading the settings
+    @Setup
+    public void setup() {
+        event = new CommandEvent(null, null, null, null, null, null, TokenizedString.split("purge " + arguments, 0, true), 1);
+    }
+
+    @Benchmark
+    public PurgeCommand.PurgeSettings parse() {
+        return new PurgeCommand.PurgeSettings(event);
+    }
+}
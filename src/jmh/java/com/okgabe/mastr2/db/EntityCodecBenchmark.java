@@ -0,0 +1,103 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.db;
+
+import com.okgabe.mastr2.entity.BotGuild;
+import com.okgabe.mastr2.entity.BotUser;
+import com.okgabe.mastr2.entity.EntityAdaptor;
+import com.okgabe.mastr2.permission.BotRole;
+import com.okgabe.mastr2.util.GuildTier;
+import com.okgabe.mastr2.util.SuspensionCode;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding entities from the BSON the driver receives through Documents and EntityAdaptor against the entity codecs.
+ * Run with "-Djmh.args='EntityCodecBenchmark -prof gc'" to see the bytes allocated per decode (gc.alloc.rate.norm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityCodecBenchmark {
+
+    private final DecoderContext decoderContext = DecoderContext.builder().build();
+    private DocumentCodec documentCodec;
+    private Codec<BotUser> userCodec;
+    private Codec<BotGuild> guildCodec;
+    private Codec<GuildPrefix> prefixCodec;
+
+    private byte[] userBytes;
+    private byte[] guildBytes;
+    private byte[] prefixBytes;
+
+    @Setup
+    public void setup() {
+        documentCodec = new DocumentCodec(EntityCodecs.REGISTRY);
+        userCodec = EntityCodecs.REGISTRY.get(BotUser.class);
+        guildCodec = EntityCodecs.REGISTRY.get(BotGuild.class);
+        prefixCodec = EntityCodecs.REGISTRY.get(GuildPrefix.class);
+
+        userBytes = toBytes(EntityAdaptor.fromBotUser(new BotUser(123456789012345678L, BotRole.BOT_STAFF, 42, SuspensionCode.UNSUSPENDED, 0L)));
+        guildBytes = toBytes(EntityAdaptor.fromBotGuild(new BotGuild(876543210987654321L, "mas", 1337, GuildTier.DEFAULT, SuspensionCode.UNSUSPENDED)));
+        prefixBytes = toBytes(new Document("_id", 876543210987654321L).append("prefix", "mas"));
+    }
+
+    private byte[] toBytes(Document document){
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        documentCodec.encode(new BsonBinaryWriter(buffer), document, EncoderContext.builder().build());
+        return buffer.toByteArray();
+    }
+
+    private static BsonBinaryReader reader(byte[] bytes){
+        return new BsonBinaryReader(ByteBuffer.wrap(bytes));
+    }
+
+    @Benchmark
+    public BotUser userAdaptor() {
+        return EntityAdaptor.toBotUser(documentCodec.decode(reader(userBytes), decoderContext));
+    }
+
+    @Benchmark
+    public BotUser userCodec() {
+        return userCodec.decode(reader(userBytes), decoderContext);
+    }
+
+    @Benchmark
+    public BotGuild guildAdaptor() {
+        return EntityAdaptor.toBotGuild(documentCodec.decode(reader(guildBytes), decoderContext));
+    }
+
+    @Benchmark
+    public BotGuild guildCodec() {
+        return guildCodec.decode(reader(guildBytes), decoderContext);
+    }
+
+    @Benchmark
+    public String prefixDocument() {
+        return documentCodec.decode(reader(prefixBytes), decoderContext).getString("prefix");
+    }
+
+    @Benchmark
+    public String prefixProjection() {
+        return prefixCodec.decode(reader(prefixBytes), decoderContext).prefix;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.entity;
+
+import com.okgabe.mastr2.permission.BotRole;
+import com.okgabe.mastr2.util.GuildTier;
+import com.okgabe.mastr2.util.SuspensionCode;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityAdaptorBenchmark {
+
+    private BotUser user;
+    private BotGuild guild;
+    private Document userDocument;
+    private Document guildDocument;
+
+    @Setup
+    public void setup() {
+        user = new BotUser(123456789012345678L, BotRole.BOT_STAFF, 42, SuspensionCode.UNSUSPENDED, 0L);
+        guild = new BotGuild(876543210987654321L, "mas", 1337, GuildTier.DEFAULT, SuspensionCode.UNSUSPENDED);
+        userDocument = EntityAdaptor.fromBotUser(user);
+        guildDocument = EntityAdaptor.fromBotGuild(guild);
+    }
+
+    @Benchmark
+    public Document fromBotUser() {
+        return EntityAdaptor.fromBotUser(user);
+    }
+
+    @Benchmark
+    public BotUser toBotUser() {
+        return EntityAdaptor.toBotUser(userDocument);
+    }
+
+    @Benchmark
+    public BotUser botUserRoundTrip() {
+        return EntityAdaptor.toBotUser(EntityAdaptor.fromBotUser(user));
+    }
+
+    @Benchmark
+    public Document fromBotGuild() {
+        return EntityAdaptor.fromBotGuild(guild);
+    }
+
+    @Benchmark
+    public BotGuild toBotGuild() {
+        return EntityAdaptor.toBotGuild(guildDocument);
+    }
+
+    @Benchmark
+    public BotGuild botGuildRoundTrip() {
+        return EntityAdaptor.toBotGuild(EntityAdaptor.fromBotGuild(guild));
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.util;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringUtilBenchmark {
+
+    @Param({"mas ping", "mas purge 50 users bots \"some quoted text\" <@!123456789012345678>", "mas say \\\"escaped\\\" words   with  extra   spaces"})
+    public String message;
+
+    @Benchmark
+    public Object splitBySpaces() {
+        return StringUtil.splitBySpaces(message, true);
+    }
+
+    @Benchmark
+    public Object splitBySpacesIgnoringQuotes() {
+        return StringUtil.splitBySpaces(message, false);
+    }
+
+    @Benchmark
+    public void tokenize(Blackhole blackhole) {
+        // Only offsets, the way CommandHandler parses messages before arguments are used
+        TokenizedString tokens = TokenizedString.split(message, 0, true);
+        blackhole.consume(tokens.size());
+        blackhole.consume(tokens.start(0));
+    }
+}
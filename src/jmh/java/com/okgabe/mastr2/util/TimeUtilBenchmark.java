@@ -0,0 +1,49 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeUtilBenchmark {
+
+    // Parameters live in separate states, so each benchmark only runs with the ones it uses
+    @State(Scope.Benchmark)
+    public static class Durations {
+        @Param({"1s", "1d 6 hours 1 sec", "2 month 1 year 6   h"})
+        public String time;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Seconds {
+        @Param({"61", "36741600"})
+        public long seconds;
+    }
+
+    @Benchmark
+    public int toSeconds(Durations durations) {
+        return TimeUtil.toSeconds(durations.time);
+    }
+
+    @Benchmark
+    public String toStringLong(Seconds seconds) {
+        return TimeUtil.toStringLong(seconds.seconds);
+    }
+
+    @Benchmark
+    public String toStringShort(Seconds seconds) {
+        return TimeUtil.toStringShort(seconds.seconds);
+    }
+}
@@ -12,9 +12,15 @@ import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.LoggerContext;
 import com.mongodb.MongoException;
 import com.okgabe.mastr2.cache.CacheManager;
+import com.okgabe.mastr2.cache.MemberNameIndex;
+import com.okgabe.mastr2.command.CommandExecutor;
 import com.okgabe.mastr2.command.CommandHandler;
 import com.okgabe.mastr2.command.commands.mastr.HelpCommand;
 import com.okgabe.mastr2.db.DatabaseManager;
+import com.okgabe.mastr2.db.FileDatabaseManager;
+import com.okgabe.mastr2.db.MemoryDatabaseManager;
+import com.okgabe.mastr2.db.MongoDatabaseManager;
+import com.okgabe.mastr2.db.UsageCounter;
 import com.okgabe.mastr2.dm.DirectMessageHandler;
 import com.okgabe.mastr2.event.EventManager;
 import com.okgabe.mastr2.event.ReactionHandler;
@@ -24,11 +30,12 @@ import com.okgabe.mastr2.permission.PermissionManager;
 import com.okgabe.mastr2.util.Checks;
 import com.okgabe.mastr2.util.EmoteConstants;
 import com.okgabe.mastr2.util.MastrThreadFactory;
+import com.okgabe.mastr2.util.MemoryProfile;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.Activity;
+import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.events.ReadyEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
-import net.dv8tion.jda.api.sharding.DefaultShardManagerBuilder;
 import net.dv8tion.jda.api.sharding.ShardManager;
 import org.hjson.JsonObject;
 import org.hjson.JsonValue;
@@ -40,18 +47,23 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class Mastr extends ListenerAdapter {
 
     private static String VERSION;
     private static final Logger logger = LoggerFactory.getLogger(Mastr.class);
 
+    private final JsonObject config;
     private ShardManager shardManager;
     private EventManager eventManager;
     private DatabaseManager databaseManager;
@@ -62,6 +74,12 @@ public class Mastr extends ListenerAdapter {
     private ResponseHandler responseHandler;
     private ReactionHandler reactionHandler;
     private ScheduledExecutorService scheduler;
+    private UsageCounter usageCounter;
+    private CommandExecutor commandExecutor;
+    private ShutdownCoordinator shutdownCoordinator;
+    private StartupOrchestrator startup;
+    private MemoryProfile memoryProfile;
+    private MemberNameIndex memberNameIndex;
 
     public static void main(String[] args) {
         System.out.println("Starting up Mastr");
@@ -122,6 +140,15 @@ public class Mastr extends ListenerAdapter {
             return;
         }
 
+        /* LOAD MEMORY PROFILE */
+        MemoryProfile memoryProfile = MemoryProfile.parse(file.getString("memory profile", "balanced"));
+        if(memoryProfile == null){
+            logger.error("Malformed configuration file for \"memory profile\"!" +
+                    " Refer to the default configuration file found at the GitHub page https://github.com/okgabe/MastrV2.");
+            System.exit(-1);
+            return;
+        }
+
         /* GET BOT VERSION */
         VERSION = checkValue(file.getString("version", "null"), "version");
         if(Checks.isEmptyString(VERSION)){
@@ -132,7 +159,9 @@ public class Mastr extends ListenerAdapter {
         }
 
         /* Other strings and info */
-        String dbConnectionString = checkValue(file.getString("mongodb connection string", "null"), "mongodb connection string");
+        // Only MongoDB needs a connection string
+        boolean usesMongo = file.getString("storage backend", "mongodb").equalsIgnoreCase("mongodb");
+        String dbConnectionString = usesMongo ? checkValue(file.getString("mongodb connection string", "null"), "mongodb connection string") : null;
         String token = checkValue(file.getString("bot token", "null"), "bot token");
 
         Iterator<JsonValue> managerIter = file.get("managers").asArray().iterator();
@@ -145,36 +174,126 @@ public class Mastr extends ListenerAdapter {
             }
         }
 
-        new Mastr(token, dbConnectionString, botMode, managerList);
+        new Mastr(file, token, dbConnectionString, botMode, managerList, memoryProfile);
     }
 
-    private Mastr(String token, String dbConnectionString, BotRole botMode, Collection<String> managers){
-        logger.info("Connecting to database");
-        try{
-            databaseManager = new DatabaseManager(dbConnectionString);
-        }
-        catch(MongoException ex){
-            logger.error("Unable to log into the database! Please provide a valid connection-string.");
-            ex.printStackTrace();
-            System.exit(-1);
-        }
+    private Mastr(JsonObject config, String token, String dbConnectionString, BotRole botMode, Collection<String> managers, MemoryProfile memoryProfile){
+        this.config = config;
+        this.memoryProfile = memoryProfile;
+        scheduler = Executors.newScheduledThreadPool(2, new MastrThreadFactory("Mastr-Scheduler"));
+        cacheManager = new CacheManager(this);
+        long memberIndexTtl = config.getLong("member index ttl", 300L);
+        memberNameIndex = new MemberNameIndex(memberIndexTtl, TimeUnit.SECONDS, config.getInt("member index guild size", 25000));
+        scheduler.scheduleWithFixedDelay(memberNameIndex::cleanUp, memberIndexTtl, memberIndexTtl, TimeUnit.SECONDS);
+        responseHandler = new ResponseHandler(this);
+        reactionHandler = new ReactionHandler(this);
+        usageCounter = new UsageCounter(this);
+        commandExecutor = new CommandExecutor(config.getInt("command threads", 4), config.getInt("command queue size", 50));
+        eventManager = new EventManager(this);
+
+        // Stopping the process finishes running commands and writes everything buffered before disconnecting
+        shutdownCoordinator = new ShutdownCoordinator(this);
+        Runtime.getRuntime().addShutdownHook(new Thread(shutdownCoordinator::shutdown, "Mastr-Shutdown-Hook"));
+
+        // Steps run as soon as what they need is there, and events are ignored until all of them are done
+        startup = new StartupOrchestrator()
+                .task("cache snapshot", cacheManager::loadSnapshot)
+                .task("storage", () -> connectStorage(dbConnectionString))
+                .task("permissions", () -> permissionManager = new PermissionManager(this), "storage")
+                .task("commands", () -> {
+                    commandHandler = new CommandHandler(this);
+                    directMessageHandler = new DirectMessageHandler(this);
+                })
+                .task("help pages", () -> {
+                    HelpCommand helpCmd = commandHandler.getCommand(HelpCommand.class);
+                    helpCmd.buildCommandPages();
+                    helpCmd.buildIndividualCommandPages();
+                }, "commands")
+                // A command which can't work with what the shards cache should fail now, not when someone uses it
+                .task("memory profile", () -> {
+                    List<String> missing = memoryProfile.findMissing(commandHandler.getCommands());
+                    if(!missing.isEmpty()) throw new IllegalStateException("Memory profile " + memoryProfile + " doesn't provide what is needed: " + String.join(", ", missing));
+                }, "commands")
+                // The snapshot is restored first, so the first messages after a restart are served from memory
+                .task("shard login", () -> login(token), "cache snapshot")
+                .event("shard 0")
+                .task("emotes", () -> EmoteConstants.updateEmotes(shardManager.getShardById(0)), "shard login", "shard 0")
+                .task("self user", () -> commandHandler.setSelfUser(shardManager.getShardById(0).getSelfUser().getId()), "commands", "shard login", "shard 0");
 
-        logger.info("Connection successful. Authentication will begin on the next transaction.");
         logger.info("Starting the bot");
+        ExecutorService startupExecutor = Executors.newFixedThreadPool(config.getInt("startup threads", 4), new MastrThreadFactory("Mastr-Startup"));
+        startup.start(startupExecutor).whenComplete((v, ex) -> {
+            startupExecutor.shutdown();
+            if(ex != null){
+                logger.error("Failed to start the bot, see the errors above");
+                System.exit(-1);
+            }
+        });
+    }
+
+    /**
+     * Creates a bot which doesn't start anything, used by tests which provide its parts by overriding the getters
+     *
+     * @param config Configuration
+     */
+    protected Mastr(JsonObject config){
+        this.config = config;
+    }
+
+    /**
+     * Opens the configured storage backend
+     *
+     * @param dbConnectionString MongoDB connection string, only used by the mongodb backend
+     * @throws IOException If the storage file couldn't be opened
+     * @throws MongoException If the database connection string is invalid
+     * @throws IllegalStateException If the backend in the configuration doesn't exist
+     */
+    private void connectStorage(String dbConnectionString) throws IOException {
+        String backend = config.getString("storage backend", "mongodb").toLowerCase();
+        switch(backend){
+            case "memory":
+                logger.warn("Using in-memory storage, nothing will be kept after the bot stops");
+                databaseManager = new MemoryDatabaseManager(cacheManager);
+                break;
+            case "file":
+                String storageFile = config.getString("storage file", "mastr.db");
+                try{
+                    databaseManager = new FileDatabaseManager(Paths.get(storageFile), cacheManager);
+                }
+                catch(IOException ex){
+                    logger.error("Unable to open the storage file \"" + storageFile + "\"!");
+                    throw ex;
+                }
+                break;
+            case "mongodb":
+                logger.info("Connecting to database");
+                try{
+                    databaseManager = new MongoDatabaseManager(dbConnectionString, cacheManager);
+                }
+                catch(MongoException ex){
+                    logger.error("Unable to log into the database! Please provide a valid connection-string.");
+                    throw ex;
+                }
+
+                logger.info("Connection successful. Authentication will begin on the next transaction.");
+                break;
+            default:
+                throw new IllegalStateException("Malformed configuration file for \"storage backend\"! " +
+                        "Refer to the default configuration file found at the GitHub page https://github.com/okgabe/MastrV2.");
+        }
+    }
+
+    private void login(String token) throws LoginException {
         try{
-            DefaultShardManagerBuilder builder = DefaultShardManagerBuilder.createDefault(token);
-            eventManager = new EventManager(this);
-            builder.addEventListeners(this, eventManager);
-            shardManager = builder.build();
+            logger.info("Logging in with the " + memoryProfile + " memory profile");
+            shardManager = memoryProfile.createBuilder(token)
+                    .addEventListeners(this, eventManager)
+                    .build();
         }
         catch(LoginException ex){
             logger.error("Invalid token provided! Ensure you provide a valid bot token in the configuration file.");
+            throw ex;
         }
-
-        scheduler = Executors.newScheduledThreadPool(2, new MastrThreadFactory("Mastr-Scheduler"));
-        cacheManager = new CacheManager(this);
-        responseHandler = new ResponseHandler(this);
-        reactionHandler = new ReactionHandler(this);
     }
 
     @Override
@@ -184,21 +303,38 @@ public class Mastr extends ListenerAdapter {
         logger.info("Available guilds on this shard: " + e.getGuildAvailableCount() + "/" + e.getGuildTotalCount() + " (" + e.getGuildUnavailableCount() + " unavailable)");
         e.getJDA().getPresence().setActivity(Activity.watching("for @Mastr"));
 
-        // Load up bot on first shard's completion
-        if(shardInfo.getShardId()==0){
-            permissionManager = new PermissionManager(this);
-            directMessageHandler = new DirectMessageHandler(this);
-            commandHandler = new CommandHandler(this);
+        // Load this shard's guilds up front, so their first messages don't each wait on the database
+        List<Guild> guilds = e.getJDA().getGuilds();
+        long[] guildIds = new long[guilds.size()];
+        for(int i = 0; i < guildIds.length; i++){
+            guildIds[i] = guilds.get(i).getIdLong();
+        }
+        long preloadStart = System.nanoTime();
+        startup.whenDone("storage").thenCompose(v -> cacheManager.preloadGuilds(guildIds)).whenComplete((created, ex) -> {
+            long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - preloadStart);
+            if(ex != null) logger.warn("Failed to preload guilds for shard #" + shardInfo.getShardId() + " after " + took + "ms", ex);
+            else logger.info("Preloaded " + guildIds.length + " guilds for shard #" + shardInfo.getShardId() + " in " + took + "ms (" + created + " created)");
+            logHeapPerGuild();
+        });
+
+        // Emotes and the bot's own user are taken from the first shard, the work itself happens on the startup threads
+        if(shardInfo.getShardId()==0) startup.complete("shard 0");
+    }
 
-            logger.debug("Populating emote constants");
-            EmoteConstants.updateEmotes(e.getJDA());
-            logger.debug("Completed emote constant population");
-            logger.debug("Building help command");
-            HelpCommand helpCmd = commandHandler.getCommand(HelpCommand.class);
-            helpCmd.buildCommandPages();
-            helpCmd.buildIndividualCommandPages();
-            logger.debug("Completed help page building");
+    /**
+     * Logs the heap currently used per guild, to compare memory profiles with. Includes garbage which hasn't been collected yet.
+     */
+    private void logHeapPerGuild(){
+        if(shardManager == null) return;
+
+        long guildCount = 0;
+        for(JDA shard : shardManager.getShards()){
+            guildCount += shard.getGuilds().size();
         }
+        if(guildCount == 0) return;
+
+        long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        logger.info("Heap used: " + (used >> 20) + "MB for " + guildCount + " guilds, " + (used / guildCount >> 10) + "KB per guild (" + memoryProfile + " memory profile)");
     }
 
     private static String checkValue(String value, String valueName){
@@ -213,6 +349,10 @@ public class Mastr extends ListenerAdapter {
         }
     }
 
+    public JsonObject getConfig() {
+        return config;
+    }
+
     public ShardManager getShardManager() {
         return shardManager;
     }
@@ -245,6 +385,10 @@ public class Mastr extends ListenerAdapter {
         return responseHandler;
     }
 
+    public CommandExecutor getCommandExecutor() {
+        return commandExecutor;
+    }
+
     public ScheduledExecutorService getScheduler() {
         return scheduler;
     }
@@ -252,4 +396,24 @@ public class Mastr extends ListenerAdapter {
     public ReactionHandler getReactionHandler() {
         return reactionHandler;
     }
+
+    public UsageCounter getUsageCounter() {
+        return usageCounter;
+    }
+
+    public ShutdownCoordinator getShutdownCoordinator() {
+        return shutdownCoordinator;
+    }
+
+    public StartupOrchestrator getStartup() {
+        return startup;
+    }
+
+    public MemoryProfile getMemoryProfile() {
+        return memoryProfile;
+    }
+
+    public MemberNameIndex getMemberNameIndex() {
+        return memberNameIndex;
+    }
 }
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stops the bot in an order which doesn't lose state or leave work half done:
+ * <ol>
+ *     <li>New messages are ignored</li>
+ *     <li>Queued and running commands finish, for at most "shutdown timeout" seconds</li>
+ *     <li>Response and reaction listeners time out right away, so their timeout handlers can clean up</li>
+ *     <li>Buffered usage counts and the cache snapshot are written</li>
+ *     <li>Shards disconnect, the scheduler stops and the storage backend is closed</li>
+ * </ol>
+ * This happens once, from either the JVM shutdown hook or the shutdown command. A step which fails, or takes longer than
+ * "shutdown step timeout" seconds, is logged and the next one runs anyway.
+ */
+public class ShutdownCoordinator {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShutdownCoordinator.class);
+
+    private final long stepTimeout;
+    private final List<Step> steps;
+    private final AtomicBoolean started;
+    private final CountDownLatch finished;
+
+    public ShutdownCoordinator(Mastr mastr) {
+        this(TimeUnit.SECONDS.toMillis(mastr.getConfig().getLong("shutdown step timeout", 10L)));
+        long timeout = mastr.getConfig().getLong("shutdown timeout", 30L);
+
+        // Draining has its own deadline, the step limit only applies once that has passed
+        step("drain commands", TimeUnit.SECONDS.toMillis(timeout), () -> {
+            logger.info("Waiting up to " + timeout + "s for running commands");
+            if(!mastr.getCommandExecutor().shutdown(timeout, TimeUnit.SECONDS)) logger.warn("Commands were still running after " + timeout + "s, stopping anyway");
+        });
+        step("time out listeners", () -> {
+            int timedOut = mastr.getResponseHandler().timeOutAll() + mastr.getReactionHandler().timeOutAll();
+            logger.debug("Timed out " + timedOut + " listeners");
+        });
+        // Storage is missing if the bot stops because it couldn't be opened
+        step("flush usage counters", () -> {
+            if(mastr.getDatabaseManager() != null) mastr.getUsageCounter().flush();
+        });
+        step("write cache snapshot", () -> mastr.getCacheManager().saveSnapshot());
+        step("disconnect shards", () -> {
+            if(mastr.getShardManager() != null) mastr.getShardManager().shutdown();
+        });
+        step("stop scheduler", () -> {
+            mastr.getScheduler().shutdownNow();
+            mastr.getScheduler().awaitTermination(5, TimeUnit.SECONDS);
+        });
+        step("close storage", () -> {
+            if(mastr.getDatabaseManager() != null) mastr.getDatabaseManager().close();
+        });
+    }
+
+    /**
+     * Creates a coordinator without any steps, used by tests
+     * @param stepTimeout Milliseconds each step may take before the next one is started
+     */
+    ShutdownCoordinator(long stepTimeout) {
+        this.stepTimeout = stepTimeout;
+        this.steps = new ArrayList<>();
+        this.started = new AtomicBoolean();
+        this.finished = new CountDownLatch(1);
+    }
+
+    /**
+     * Adds a step which runs after all steps added before it
+     */
+    ShutdownCoordinator step(String name, Action action){
+        return step(name, 0L, action);
+    }
+
+    /**
+     * Adds a step which runs after all steps added before it
+     * @param extraTime Milliseconds the step may take on top of the step timeout
+     */
+    ShutdownCoordinator step(String name, long extraTime, Action action){
+        steps.add(new Step(name, stepTimeout + extraTime, action));
+        return this;
+    }
+
+    /**
+     * @return True once shutting down has begun, after which no new work should be accepted
+     */
+    public boolean isShuttingDown(){
+        return started.get();
+    }
+
+    /**
+     * Shuts the bot down on a new thread and exits the JVM afterwards. Used by commands, which can't wait for themselves to be drained.
+     */
+    public void shutdownAndExit(){
+        new Thread(() -> {
+            shutdown();
+            System.exit(0);
+        }, "Mastr-Shutdown").start();
+    }
+
+    /**
+     * Shuts the bot down. If this is already happening, waits until it is done instead.
+     */
+    public void shutdown(){
+        if(!started.compareAndSet(false, true)){
+            // The JVM must not exit while another thread is still halfway through
+            try{
+                finished.await();
+            }
+            catch(InterruptedException ex){
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+
+        long start = System.nanoTime();
+        logger.info("Shutting down");
+        try{
+            for(Step step : steps) run(step);
+            logger.info("Shut down in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        }
+        finally{
+            finished.countDown();
+        }
+    }
+
+    /**
+     * Runs a step on its own thread, so one which hangs can be left behind
+     */
+    private static void run(Step step){
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try{
+                step.action.run();
+            }
+            catch(Exception ex){
+                failure.set(ex);
+            }
+        }, "Mastr-Shutdown-" + step.name.replace(' ', '-'));
+        // A step which is left behind must not keep the JVM alive
+        thread.setDaemon(true);
+        thread.start();
+
+        try{
+            thread.join(step.timeout);
+        }
+        catch(InterruptedException ex){
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while trying to " + step.name);
+            return;
+        }
+
+        if(thread.isAlive()){
+            logger.warn("Gave up trying to " + step.name + " after " + step.timeout + "ms");
+            thread.interrupt();
+        }
+        else if(failure.get() != null){
+            logger.error("Failed to " + step.name + " while shutting down", failure.get());
+        }
+    }
+
+    interface Action {
+        void run() throws Exception;
+    }
+
+    private static class Step {
+        private final String name;
+        private final long timeout;
+        private final Action action;
+
+        private Step(String name, long timeout, Action action) {
+            this.name = name;
+            this.timeout = timeout;
+            this.action = action;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the steps needed to start the bot, each as soon as the steps it depends on are done, so independent steps run at the same time.
+ * Besides tasks, which run on the given executor, there are events: steps which are completed from outside, such as a shard becoming ready.
+ * Steps must be added after the steps they depend on, which keeps the graph free of cycles.
+ * <p>
+ * The bot is ready once every step is done. If a step fails, the steps depending on it don't run and startup fails at once,
+ * without waiting for the other steps.
+ */
+public class StartupOrchestrator {
+
+    private static final Logger logger = LoggerFactory.getLogger(StartupOrchestrator.class);
+
+    public enum State {
+        STARTING, READY, FAILED
+    }
+
+    private final Map<String, Step> steps;
+    private volatile State state;
+    private volatile long startedAt;
+
+    public StartupOrchestrator() {
+        this.steps = new LinkedHashMap<>();
+        this.state = State.STARTING;
+    }
+
+    /**
+     * Adds a task
+     *
+     * @param name Name of the task, used in logs and by dependent steps
+     * @param action Work of the task
+     * @param dependencies Names of the steps which have to be done first
+     * @return This orchestrator
+     * @throws IllegalArgumentException If the name is taken or a dependency hasn't been added yet
+     */
+    public synchronized StartupOrchestrator task(String name, Action action, String... dependencies){
+        add(name, action, dependencies);
+        return this;
+    }
+
+    /**
+     * Adds an event, which is done once {@link #complete(String)} is called
+     *
+     * @param name Name of the event, used in logs and by dependent steps
+     * @return This orchestrator
+     * @throws IllegalArgumentException If the name is taken
+     */
+    public synchronized StartupOrchestrator event(String name){
+        add(name, null, new String[0]);
+        return this;
+    }
+
+    private void add(String name, Action action, String[] dependencies){
+        if(steps.containsKey(name)) throw new IllegalArgumentException("There already is a startup step called " + name);
+
+        CompletableFuture<?>[] waitFor = new CompletableFuture[dependencies.length];
+        for(int i = 0; i < dependencies.length; i++){
+            Step dependency = steps.get(dependencies[i]);
+            if(dependency == null) throw new IllegalArgumentException("Startup step " + name + " depends on " + dependencies[i] + ", which has to be added first");
+            waitFor[i] = dependency.done;
+        }
+
+        steps.put(name, new Step(name, action, waitFor));
+    }
+
+    /**
+     * Starts every task whose dependencies are done, and every other task once they are
+     *
+     * @param executor Executor the tasks run on
+     * @return Future completed once every step is done
+     */
+    public synchronized CompletableFuture<Void> start(Executor executor){
+        startedAt = System.nanoTime();
+        for(Step step : steps.values()){
+            if(step.action == null) continue;
+
+            CompletableFuture.allOf(step.waitFor).thenRunAsync(() -> run(step), executor).whenComplete((v, ex) -> {
+                if(ex != null) step.done.completeExceptionally(ex);
+                else step.done.complete(null);
+            });
+        }
+
+        // The first failure fails startup right away, events which will now never be completed mustn't keep it waiting
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        for(Step step : steps.values()){
+            step.done.whenComplete((v, ex) -> {
+                if(ex != null && settle(result, State.FAILED)) result.completeExceptionally(ex);
+            });
+        }
+
+        CompletableFuture<?>[] all = steps.values().stream().map(step -> step.done).toArray(CompletableFuture[]::new);
+        CompletableFuture.allOf(all).thenRun(() -> {
+            if(!settle(result, State.READY)) return;
+
+            logger.info("Ready " + sinceStart() + "ms after starting");
+            result.complete(null);
+        });
+        return result;
+    }
+
+    // The state is set before the result completes, so whoever waits on the result sees the final state
+    private boolean settle(CompletableFuture<Void> result, State outcome){
+        synchronized(result){
+            if(state != State.STARTING) return false;
+            state = outcome;
+            return true;
+        }
+    }
+
+    /**
+     * Marks an event as done
+     *
+     * @param name Name of the event
+     */
+    public void complete(String name){
+        Step step = get(name);
+        if(step.action != null) throw new IllegalArgumentException("Startup step " + name + " is a task, it can't be completed from outside");
+
+        if(step.done.complete(null)) logger.info("Startup: " + name + " after " + sinceStart() + "ms");
+    }
+
+    /**
+     * @param name Name of a step
+     * @return Future completed once the step is done
+     */
+    public CompletableFuture<Void> whenDone(String name){
+        return get(name).done;
+    }
+
+    public State getState(){
+        return state;
+    }
+
+    /**
+     * @return True once every step is done, before which events shouldn't be handled
+     */
+    public boolean isReady(){
+        return state == State.READY;
+    }
+
+    private synchronized Step get(String name){
+        Step step = steps.get(name);
+        if(step == null) throw new IllegalArgumentException("There is no startup step called " + name);
+        return step;
+    }
+
+    private void run(Step step){
+        long start = System.nanoTime();
+        try{
+            step.action.run();
+        }
+        catch(Exception ex){
+            logger.error("Startup: " + step.name + " failed", ex);
+            throw new CompletionException(ex);
+        }
+
+        logger.info("Startup: " + step.name + " took " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms, done after " + sinceStart() + "ms");
+    }
+
+    private long sinceStart(){
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+    }
+
+    public interface Action {
+        void run() throws Exception;
+    }
+
+    private static class Step {
+        private final String name;
+        private final Action action;
+        private final CompletableFuture<?>[] waitFor;
+        private final CompletableFuture<Void> done;
+
+        private Step(String name, Action action, CompletableFuture<?>[] waitFor) {
+            this.name = name;
+            this.action = action;
+            this.waitFor = waitFor;
+            this.done = new CompletableFuture<>();
+        }
+    }
+}
@@ -9,19 +9,125 @@
 package com.okgabe.mastr2.cache;
 
 import com.okgabe.mastr2.Mastr;
+import com.okgabe.mastr2.db.DatabaseManager;
+import com.okgabe.mastr2.entity.BotGuild;
 import com.okgabe.mastr2.entity.BotUser;
+import com.okgabe.mastr2.permission.BotRole;
+import org.hjson.JsonObject;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class CacheManager {
+    private static final Logger logger = LoggerFactory.getLogger(CacheManager.class);
+
     private Mastr mastr;
-    private HashMap<Long, String> guildPrefixes;
-    private ArrayList<BotUser> botUsers;
+    private LongObjectMap<String> guildPrefixes;
+    private EntityCache<BotUser> botUsers;
+    private EntityCache<BotGuild> botGuilds;
+    private int preloadChunkSize;
+    private int preloadParallelism;
+    private Path snapshotFile;
+    private long snapshotMaxAge;
+    private long snapshotInterval;
+    // Until the last snapshot has been read back, writing one would replace it with whatever was restored so far
+    private volatile boolean snapshotLoaded;
 
     public CacheManager(Mastr mastr) {
         this.mastr = mastr;
-        guildPrefixes = new HashMap<>();
+        guildPrefixes = new LongObjectMap<>(1024);
+
+        JsonObject config = mastr.getConfig();
+        long expiry = config.getLong("cache expiry", 600L);
+        botUsers = new EntityCache<>("users", config.getInt("user cache size", 10000), expiry, TimeUnit.SECONDS, this::revalidateUser);
+        botGuilds = new EntityCache<>("guilds", config.getInt("guild cache size", 5000), expiry, TimeUnit.SECONDS, this::revalidateGuild);
+        preloadChunkSize = config.getInt("preload chunk size", 500);
+        preloadParallelism = config.getInt("preload parallelism", 4);
+
+        mastr.getScheduler().scheduleWithFixedDelay(() -> {
+            botUsers.cleanUp();
+            botGuilds.cleanUp();
+        }, 1, 1, TimeUnit.MINUTES);
+
+        String snapshot = config.getString("cache snapshot file", "cache.snapshot");
+        snapshotMaxAge = TimeUnit.SECONDS.toMillis(config.getLong("cache snapshot max age", 86400L));
+        if(!snapshot.isEmpty()){
+            snapshotFile = Paths.get(snapshot);
+            snapshotInterval = config.getLong("cache snapshot interval", 300L);
+        }
+    }
+
+    /**
+     * Restores the caches from the snapshot file, if there is one. Should be called before any shard connects.
+     * Restored users and guilds are reloaded in the background the first time they're used, and guilds are also reloaded by {@link #preloadGuilds(long[])}.
+     * Snapshots are only written, periodically and when the bot stops, once this is done.
+     */
+    public void loadSnapshot(){
+        if(snapshotFile == null) return;
+
+        long start = System.nanoTime();
+        try{
+            int restored = CacheSnapshot.load(snapshotFile, guildPrefixes, botUsers, botGuilds, System.currentTimeMillis() - snapshotMaxAge);
+            logger.info("Restored " + restored + " cache entries from " + snapshotFile + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        }
+        catch(IOException ex){
+            logger.warn("Ignoring the cache snapshot, starting with empty caches", ex);
+        }
+
+        snapshotLoaded = true;
+        mastr.getScheduler().scheduleWithFixedDelay(this::saveSnapshot, snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Writes the caches to the snapshot file. Called periodically, and when the bot stops.
+     * Does nothing if the previous snapshot hasn't been loaded yet, such as when startup failed before loading it.
+     */
+    public void saveSnapshot(){
+        if(snapshotFile == null) return;
+        if(!snapshotLoaded){
+            logger.debug("Not writing the cache snapshot, the previous one hasn't been loaded");
+            return;
+        }
+
+        try{
+            int written = CacheSnapshot.write(snapshotFile, guildPrefixes, botUsers, botGuilds);
+            logger.debug("Wrote " + written + " cache entries to " + snapshotFile);
+        }
+        catch(IOException | RuntimeException ex){
+            logger.warn("Failed to write the cache snapshot", ex);
+        }
+    }
+
+    // Restored entities are served as they are while a fresh copy loads
+    private void revalidateUser(long id){
+        mastr.getDatabaseManager().getBotUserAsync(id, false).whenComplete((user, ex) -> {
+            if(ex != null) logger.debug("Failed to revalidate user " + id, ex);
+            if(ex != null || user.getRole() == BotRole.UNKNOWN) botUsers.invalidate(id);
+            else botUsers.put(id, user);
+        });
+    }
+
+    private void revalidateGuild(long id){
+        mastr.getDatabaseManager().getBotGuildAsync(id, false).whenComplete((guild, ex) -> {
+            if(ex != null) logger.debug("Failed to revalidate guild " + id, ex);
+            if(ex != null || guild == null){
+                botGuilds.invalidate(id);
+            }
+            else{
+                setPrefix(id, guild.getPrefix());
+                botGuilds.put(id, guild);
+            }
+        });
     }
 
     public String getPrefix(long guildId){
@@ -29,9 +135,199 @@ public class CacheManager {
     }
 
     public void setPrefix(long guildId, String prefix){
-        guildPrefixes.remove(guildId);
-        guildPrefixes.put(guildId, prefix);
+        guildPrefixes.put(guildId, dedupe(prefix));
+    }
+
+    /**
+     * Loads the given guilds into the guild and prefix caches without blocking, so their first messages don't wait on the database.
+     * Guilds are queried in chunks, with a bounded amount of chunks loading at once.
+     * Guilds which aren't in the database yet are created together, one write per chunk.
+     *
+     * @param guildIds IDs of the guilds to load
+     * @return Future completed with the amount of guilds which had to be created
+     */
+    public CompletableFuture<Integer> preloadGuilds(long[] guildIds){
+        int chunks = (guildIds.length + preloadChunkSize - 1) / preloadChunkSize;
+        AtomicInteger nextChunk = new AtomicInteger();
+        AtomicInteger created = new AtomicInteger();
+
+        CompletableFuture<?>[] workers = new CompletableFuture[Math.min(preloadParallelism, chunks)];
+        for(int i = 0; i < workers.length; i++){
+            workers[i] = preloadNext(guildIds, nextChunk, created);
+        }
+
+        return CompletableFuture.allOf(workers).thenApply(v -> created.get());
+    }
+
+    // Each worker loads one chunk at a time and takes the next one once it's done
+    private CompletableFuture<Void> preloadNext(long[] guildIds, AtomicInteger nextChunk, AtomicInteger created){
+        int from = nextChunk.getAndIncrement() * preloadChunkSize;
+        if(from >= guildIds.length) return CompletableFuture.completedFuture(null);
+
+        long[] chunk = Arrays.copyOfRange(guildIds, from, Math.min(from + preloadChunkSize, guildIds.length));
+        return preloadChunk(chunk).thenCompose(count -> {
+            created.addAndGet(count);
+            return preloadNext(guildIds, nextChunk, created);
+        });
     }
 
+    private CompletableFuture<Integer> preloadChunk(long[] chunk){
+        DatabaseManager db = mastr.getDatabaseManager();
+        return db.getBotGuildsAsync(chunk).thenCompose(found -> {
+            Set<Long> foundIds = new HashSet<>(found.size() * 2);
+            for(BotGuild guild : found){
+                foundIds.add(guild.getGuildId());
+                preloaded(guild);
+            }
+            if(foundIds.size() == chunk.length) return CompletableFuture.completedFuture(0);
+
+            long[] missing = Arrays.stream(chunk).filter(id -> !foundIds.contains(id)).toArray();
+            return db.createBotGuildsAsync(missing).thenApply(created -> {
+                created.forEach(this::preloaded);
+                return created.size();
+            });
+        });
+    }
+
+    private void preloaded(BotGuild guild){
+        // Restored copies are replaced, since this one is fresh from the database
+        if(botGuilds.takeUnverified(guild.getGuildId())){
+            setPrefix(guild.getGuildId(), guild.getPrefix());
+            botGuilds.put(guild.getGuildId(), guild);
+            return;
+        }
+
+        // Otherwise preloading never replaces a prefix which was changed or loaded in the meantime
+        guildPrefixes.putIfAbsent(guild.getGuildId(), dedupe(guild.getPrefix()));
+        // and fills free space only, it never evicts guilds which are in use or replaces newer copies
+        if(botGuilds.size() < botGuilds.getMaximumSize()) botGuilds.putIfAbsent(guild.getGuildId(), guild);
+    }
+
+    // Most guilds share a handful of prefixes, so only one copy of each is kept
+    static String dedupe(String prefix){
+        if(prefix.equals(BotGuild.DEFAULT_PREFIX)) return BotGuild.DEFAULT_PREFIX;
+        return prefix.intern();
+    }
 
+    public BotUser getBotUser(long id){
+        return getBotUser(id, true);
+    }
+
+    /**
+     * Gets a user from the cache, loading it from the database if it isn't cached
+     *
+     * @param id User ID
+     * @param makeIfNotExist Whether to create the user if it doesn't exist
+     * @return The user (a user with the role {@link BotRole#UNKNOWN} if it doesn't exist and makeIfNotExist is false)
+     */
+    public BotUser getBotUser(long id, boolean makeIfNotExist){
+        // Only permission checks and moderation load users this way, so restored copies with a possibly outdated role are reloaded
+        BotUser cached = botUsers.getVerified(id);
+        if(cached != null) return cached;
+
+        BotUser user = mastr.getDatabaseManager().getBotUser(id, makeIfNotExist);
+        // Placeholders for users who don't exist must not be cached
+        if(user.getRole() != BotRole.UNKNOWN) botUsers.put(id, user);
+        return user;
+    }
+
+    public BotGuild getBotGuild(long id){
+        return getBotGuild(id, true);
+    }
+
+    /**
+     * Gets a guild from the cache, loading it from the database if it isn't cached
+     *
+     * @param id Guild ID
+     * @param makeIfNotExist Whether to create the guild if it doesn't exist
+     * @return The guild (null if it doesn't exist and makeIfNotExist is false)
+     */
+    public BotGuild getBotGuild(long id, boolean makeIfNotExist){
+        BotGuild cached = botGuilds.get(id);
+        if(cached != null) return cached;
+
+        BotGuild guild = mastr.getDatabaseManager().getBotGuild(id, makeIfNotExist);
+        if(guild != null) botGuilds.put(id, guild);
+        return guild;
+    }
+
+    /**
+     * Gets a user from the cache, loading it from the database without blocking if it isn't cached.
+     * Users which don't exist yet are created.
+     *
+     * @param id User ID
+     * @return Future of the user, already completed if the user was cached
+     */
+    public CompletableFuture<BotUser> getBotUserAsync(long id){
+        return getBotUserAsync(id, false);
+    }
+
+    /**
+     * Gets a user from the cache, loading it from the database without blocking if it isn't cached.
+     * Users which don't exist yet are created.
+     *
+     * @param id User ID
+     * @param verified Whether a copy restored from the snapshot has to be reloaded first, for checks which depend on the user's role
+     * @return Future of the user, already completed if the user was cached
+     */
+    public CompletableFuture<BotUser> getBotUserAsync(long id, boolean verified){
+        BotUser cached = verified ? botUsers.getVerified(id) : botUsers.get(id);
+        if(cached != null) return CompletableFuture.completedFuture(cached);
+
+        return mastr.getDatabaseManager().getBotUserAsync(id, true).thenApply(user -> {
+            botUsers.put(id, user);
+            return user;
+        });
+    }
+
+    /**
+     * Gets a guild from the cache, loading it from the database without blocking if it isn't cached.
+     * Guilds which don't exist yet are created.
+     *
+     * @param id Guild ID
+     * @return Future of the guild, already completed if the guild was cached
+     */
+    public CompletableFuture<BotGuild> getBotGuildAsync(long id){
+        BotGuild cached = botGuilds.get(id);
+        if(cached != null) return CompletableFuture.completedFuture(cached);
+
+        return mastr.getDatabaseManager().getBotGuildAsync(id, true).thenApply(guild -> {
+            botGuilds.put(id, guild);
+            return guild;
+        });
+    }
+
+    /**
+     * Replaces the cached copy of a user after it was written to the database
+     *
+     * @param user Written user
+     */
+    public void updateBotUser(BotUser user){
+        botUsers.put(user.getUserId(), user);
+    }
+
+    /**
+     * Replaces the cached copy of a guild after it was written to the database
+     *
+     * @param guild Written guild
+     */
+    public void updateBotGuild(BotGuild guild){
+        botGuilds.put(guild.getGuildId(), guild);
+    }
+
+    public void invalidateBotUser(long id){
+        botUsers.invalidate(id);
+    }
+
+    public void invalidateBotGuild(long id){
+        botGuilds.invalidate(id);
+    }
+
+    public EntityCache<BotUser> getUserCache() {
+        return botUsers;
+    }
+
+    public EntityCache<BotGuild> getGuildCache() {
+        return botGuilds;
+    }
 }
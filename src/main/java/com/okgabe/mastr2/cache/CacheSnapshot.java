@@ -0,0 +1,232 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.cache;
+
+import com.okgabe.mastr2.entity.BotGuild;
+import com.okgabe.mastr2.entity.BotUser;
+import com.okgabe.mastr2.permission.BotRole;
+import com.okgabe.mastr2.util.GuildTier;
+import com.okgabe.mastr2.util.SuspensionCode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Binary file holding the contents of the caches, so a restarted bot can serve its first commands without waiting on the database.
+ * Every user and guild is stored with the time it was loaded from the database. Restored entities which are too old are dropped,
+ * the others are cached as unverified and reloaded in the background once they're used.
+ * <p>
+ * Layout: magic (int), version (int), time written (long), prefix table, guild prefixes, guilds, users, CRC32 of everything before it (int).
+ * Every prefix is only written once in the prefix table, everything else refers to its index.
+ */
+final class CacheSnapshot {
+
+    private static final int MAGIC = 0x4D534E50;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+
+    private CacheSnapshot(){}
+
+    /**
+     * Writes the caches to a file, replacing it only once the new one is complete
+     *
+     * @param file File of the snapshot
+     * @param prefixes Guild prefixes
+     * @param users User cache
+     * @param guilds Guild cache
+     * @return Amount of prefixes, guilds and users written
+     * @throws IOException If the file couldn't be written
+     */
+    static int write(Path file, LongObjectMap<String> prefixes, EntityCache<BotUser> users, EntityCache<BotGuild> guilds) throws IOException {
+        Map<String, Integer> table = new HashMap<>();
+        List<String> tableOrder = new ArrayList<>();
+
+        ByteArrayOutputStream prefixBytes = new ByteArrayOutputStream();
+        DataOutputStream prefixOut = new DataOutputStream(prefixBytes);
+        int[] prefixCount = new int[1];
+        prefixes.forEach((guildId, prefix) -> {
+            try{
+                prefixOut.writeLong(guildId);
+                prefixOut.writeInt(indexOf(prefix, table, tableOrder));
+            }
+            catch(IOException ex){
+                throw new UncheckedIOException(ex);
+            }
+            prefixCount[0]++;
+        });
+
+        List<BotGuild> guildList = new ArrayList<>();
+        List<Long> guildLoaded = new ArrayList<>();
+        guilds.forEach((id, guild, loadedAt) -> {
+            guildList.add(guild);
+            guildLoaded.add(loadedAt);
+        });
+        List<BotUser> userList = new ArrayList<>();
+        List<Long> userLoaded = new ArrayList<>();
+        users.forEach((id, user, loadedAt) -> {
+            userList.add(user);
+            userLoaded.add(loadedAt);
+        });
+        for(BotGuild guild : guildList){
+            indexOf(guild.getPrefix(), table, tableOrder);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + prefixBytes.size() + guildList.size() * 32 + userList.size() * 36);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(System.currentTimeMillis());
+
+        out.writeInt(tableOrder.size());
+        for(String prefix : tableOrder){
+            byte[] encoded = prefix.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(encoded.length);
+            out.write(encoded);
+        }
+
+        out.writeInt(prefixCount[0]);
+        prefixBytes.writeTo(out);
+
+        out.writeInt(guildList.size());
+        for(int i = 0; i < guildList.size(); i++){
+            BotGuild guild = guildList.get(i);
+            out.writeLong(guild.getGuildId());
+            out.writeLong(guildLoaded.get(i));
+            out.writeInt(table.get(guild.getPrefix()));
+            out.writeInt(guild.getTimesUsed());
+            out.writeInt(guild.getGuildTier().getLevel());
+            out.writeInt(guild.getSuspensionCode().getCode());
+        }
+
+        out.writeInt(userList.size());
+        for(int i = 0; i < userList.size(); i++){
+            BotUser user = userList.get(i);
+            out.writeLong(user.getUserId());
+            out.writeLong(userLoaded.get(i));
+            out.writeInt(user.getRole().getLevel());
+            out.writeInt(user.getTimesUsed());
+            out.writeInt(user.getSuspensionCode().getCode());
+            out.writeLong(user.getSuspensionEnd());
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+        out.flush();
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+            ByteBuffer content = ByteBuffer.wrap(bytes.toByteArray());
+            while(content.hasRemaining()){
+                channel.write(content);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        return prefixCount[0] + guildList.size() + userList.size();
+    }
+
+    /**
+     * Restores a snapshot into the caches. Entries which are already cached are left as they are.
+     *
+     * @param file File of the snapshot
+     * @param prefixes Guild prefixes
+     * @param users User cache
+     * @param guilds Guild cache
+     * @param oldest Epoch milliseconds before which entities are too old to be restored
+     * @return Amount of prefixes, guilds and users restored, 0 if there is no snapshot
+     * @throws IOException If the file couldn't be read, is damaged or was written by an incompatible version
+     */
+    static int load(Path file, LongObjectMap<String> prefixes, EntityCache<BotUser> users, EntityCache<BotGuild> guilds, long oldest) throws IOException {
+        if(!Files.exists(file)) return 0;
+
+        MappedByteBuffer buffer;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            if(channel.size() < HEADER_SIZE + 4 || channel.size() > Integer.MAX_VALUE) throw new IOException("Snapshot " + file + " has an invalid size");
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        int end = buffer.capacity() - 4;
+        ByteBuffer covered = buffer.duplicate();
+        covered.limit(end);
+        CRC32 crc = new CRC32();
+        crc.update(covered);
+        if(buffer.getInt(end) != (int) crc.getValue()) throw new IOException("Snapshot " + file + " is damaged");
+        buffer.limit(end);
+        if(buffer.getInt() != MAGIC) throw new IOException(file + " is not a snapshot");
+        if(buffer.getInt() != VERSION) throw new IOException("Snapshot " + file + " was written by another version");
+        // Prefixes don't have their own timestamps, they are as old as the whole snapshot
+        boolean prefixesCurrent = buffer.getLong() >= oldest;
+
+        try{
+            String[] table = new String[buffer.getInt()];
+            for(int i = 0; i < table.length; i++){
+                byte[] encoded = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(encoded);
+                table[i] = CacheManager.dedupe(new String(encoded, StandardCharsets.UTF_8));
+            }
+
+            int restored = 0;
+            int prefixCount = buffer.getInt();
+            for(int i = 0; i < prefixCount; i++){
+                long guildId = buffer.getLong();
+                String prefix = table[buffer.getInt()];
+                if(prefixesCurrent && !prefixes.containsKey(guildId)){
+                    prefixes.put(guildId, prefix);
+                    restored++;
+                }
+            }
+
+            int guildCount = buffer.getInt();
+            for(int i = 0; i < guildCount; i++){
+                long id = buffer.getLong();
+                long loadedAt = buffer.getLong();
+                BotGuild guild = new BotGuild(id, table[buffer.getInt()], buffer.getInt(), GuildTier.parse(buffer.getInt()), SuspensionCode.parse(buffer.getInt()));
+                if(loadedAt >= oldest && guilds.restore(id, guild, loadedAt)) restored++;
+            }
+
+            int userCount = buffer.getInt();
+            for(int i = 0; i < userCount; i++){
+                long id = buffer.getLong();
+                long loadedAt = buffer.getLong();
+                BotUser user = new BotUser(id, BotRole.parse(buffer.getInt()), buffer.getInt(), SuspensionCode.parse(buffer.getInt()), buffer.getLong());
+                if(loadedAt >= oldest && users.restore(id, user, loadedAt)) restored++;
+            }
+
+            return restored;
+        }
+        catch(BufferUnderflowException | IndexOutOfBoundsException ex){
+            throw new IOException("Snapshot " + file + " is damaged", ex);
+        }
+    }
+
+    private static int indexOf(String prefix, Map<String, Integer> table, List<String> tableOrder){
+        return table.computeIfAbsent(prefix, p -> {
+            tableOrder.add(p);
+            return tableOrder.size() - 1;
+        });
+    }
+}
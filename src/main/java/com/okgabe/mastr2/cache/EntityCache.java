@@ -0,0 +1,286 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.cache;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+
+/**
+ * Concurrent, size-bounded cache of entities keyed by their Discord ID.
+ * Entries expire a fixed amount of time after being written. When the cache grows past its maximum size, expired entries
+ * are dropped first, followed by the least recently used ones.
+ * Entities restored from an earlier run are served right away, and handed to the revalidator the first time they're read.
+ *
+ * @param <V> Cached entity type
+ */
+public class EntityCache<V> {
+
+    // Fraction of the cache evicted at once when it's full, so the eviction cost is spread over many insertions
+    private static final int EVICTION_DIVISOR = 10;
+
+    private final String name;
+    private final int maximumSize;
+    private final long expiryNanos;
+    private final ConcurrentHashMap<Long, Entry<V>> entries;
+    private final ReentrantLock evictionLock;
+    private final LongConsumer revalidator;
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+
+    public EntityCache(String name, int maximumSize, long expiry, TimeUnit unit) {
+        this(name, maximumSize, expiry, unit, null);
+    }
+
+    /**
+     * @param name Name of the cache
+     * @param maximumSize Maximum amount of entries
+     * @param expiry Time after which entries expire
+     * @param unit Unit of the expiry time
+     * @param revalidator Called with the ID of a restored entity the first time it is read, may be null
+     */
+    public EntityCache(String name, int maximumSize, long expiry, TimeUnit unit, LongConsumer revalidator) {
+        if(maximumSize < 1) throw new IllegalArgumentException("Cache " + name + " must be able to hold at least one entry");
+
+        this.name = name;
+        this.maximumSize = maximumSize;
+        this.expiryNanos = unit.toNanos(expiry);
+        this.entries = new ConcurrentHashMap<>();
+        this.evictionLock = new ReentrantLock();
+        this.revalidator = revalidator;
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+    }
+
+    /**
+     * Gets a cached entity
+     *
+     * @param id ID of the entity
+     * @return Cached entity, or null if it isn't cached or has expired
+     */
+    public V get(long id){
+        Entry<V> entry = entries.get(id);
+        if(entry == null){
+            misses.increment();
+            return null;
+        }
+
+        long now = System.nanoTime();
+        if(now - entry.written >= expiryNanos){
+            if(entries.remove(id, entry)) evictions.increment();
+            misses.increment();
+            return null;
+        }
+
+        entry.lastAccess = now;
+        hits.increment();
+        if(entry.unverified && revalidator != null && verify(id, entry)) revalidator.accept(id);
+        return entry.value;
+    }
+
+    /**
+     * Gets a cached entity, treating restored entities which haven't been reloaded yet as missing.
+     * Used where a stale copy must not be trusted, the caller loads a fresh one instead.
+     *
+     * @param id ID of the entity
+     * @return Cached entity, or null if it isn't cached, has expired or is still unverified
+     */
+    public V getVerified(long id){
+        Entry<V> entry = entries.get(id);
+        if(entry != null && entry.unverified){
+            misses.increment();
+            return null;
+        }
+
+        return get(id);
+    }
+
+    public void put(long id, V value){
+        entries.put(id, new Entry<>(value, System.nanoTime(), System.currentTimeMillis(), false));
+
+        if(entries.size() > maximumSize) evict();
+    }
+
+    /**
+     * Caches an entity unless one is already cached, so a newer copy is never replaced
+     *
+     * @param id ID of the entity
+     * @param value Entity
+     * @return True if the entity was cached
+     */
+    public boolean putIfAbsent(long id, V value){
+        if(entries.putIfAbsent(id, new Entry<>(value, System.nanoTime(), System.currentTimeMillis(), false)) != null) return false;
+
+        if(entries.size() > maximumSize) evict();
+        return true;
+    }
+
+    /**
+     * Caches an entity restored from an earlier run, unless one is already cached.
+     * The entity is served like any other, but stays unverified until it is first read or {@link #takeUnverified(long)} claims it.
+     *
+     * @param id ID of the entity
+     * @param value Entity
+     * @param loadedAt When the entity was loaded from the database, in epoch milliseconds
+     * @return True if the entity was cached
+     */
+    public boolean restore(long id, V value, long loadedAt){
+        if(entries.putIfAbsent(id, new Entry<>(value, System.nanoTime(), loadedAt, true)) != null) return false;
+
+        if(entries.size() > maximumSize) evict();
+        return true;
+    }
+
+    /**
+     * Marks a restored entity as verified. Only one caller gets true for each restored entity, which is then responsible for reloading it.
+     *
+     * @param id ID of the entity
+     * @return True if the entity was restored and hadn't been claimed yet
+     */
+    public boolean takeUnverified(long id){
+        Entry<V> entry = entries.get(id);
+        return entry != null && entry.unverified && verify(id, entry);
+    }
+
+    private boolean verify(long id, Entry<V> entry){
+        Entry<V> verified = new Entry<>(entry.value, entry.written, entry.loadedAt, false);
+        verified.lastAccess = entry.lastAccess;
+        return entries.replace(id, entry, verified);
+    }
+
+    /**
+     * Calls the visitor with every entry which hasn't expired
+     *
+     * @param visitor Visitor of the entries
+     */
+    public void forEach(Visitor<V> visitor){
+        long now = System.nanoTime();
+        for(Map.Entry<Long, Entry<V>> e : entries.entrySet()){
+            Entry<V> entry = e.getValue();
+            if(now - entry.written < expiryNanos) visitor.visit(e.getKey(), entry.value, entry.loadedAt);
+        }
+    }
+
+    public void invalidate(long id){
+        entries.remove(id);
+    }
+
+    public void invalidateAll(){
+        entries.clear();
+    }
+
+    /**
+     * Removes every expired entry. Called periodically so that entries which are never read again don't linger.
+     */
+    public void cleanUp(){
+        long now = System.nanoTime();
+        for(Map.Entry<Long, Entry<V>> e : entries.entrySet()){
+            if(now - e.getValue().written >= expiryNanos && entries.remove(e.getKey(), e.getValue())){
+                evictions.increment();
+            }
+        }
+    }
+
+    private void evict(){
+        // Only one thread has to do the work, the others can carry on
+        if(!evictionLock.tryLock()) return;
+        try{
+            cleanUp();
+            if(entries.size() <= maximumSize) return;
+
+            List<Map.Entry<Long, Entry<V>>> snapshot = new ArrayList<>(entries.entrySet());
+            snapshot.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+
+            int toRemove = snapshot.size() - maximumSize + maximumSize / EVICTION_DIVISOR;
+            for(int i = 0; i < toRemove && i < snapshot.size(); i++){
+                Map.Entry<Long, Entry<V>> e = snapshot.get(i);
+                if(entries.remove(e.getKey(), e.getValue())) evictions.increment();
+            }
+        }
+        finally{
+            evictionLock.unlock();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int size(){
+        return entries.size();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getHits(){
+        return hits.sum();
+    }
+
+    public long getMisses(){
+        return misses.sum();
+    }
+
+    public long getEvictions(){
+        return evictions.sum();
+    }
+
+    public double getHitRatio(){
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0D : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return "EntityCache{" +
+                "name='" + name + '\'' +
+                ", size=" + entries.size() + "/" + maximumSize +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() +
+                '}';
+    }
+
+    public interface Visitor<V> {
+        /**
+         * @param id ID of the entity
+         * @param value Entity
+         * @param loadedAt When the entity was loaded from the database, in epoch milliseconds
+         */
+        void visit(long id, V value, long loadedAt);
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long written;
+        // Wall clock time, since it has to stay meaningful across restarts
+        private final long loadedAt;
+        private final boolean unverified;
+        private volatile long lastAccess;
+
+        private Entry(V value, long written, long loadedAt, boolean unverified) {
+            this.value = value;
+            this.written = written;
+            this.loadedAt = loadedAt;
+            this.unverified = unverified;
+            this.lastAccess = written;
+        }
+    }
+}
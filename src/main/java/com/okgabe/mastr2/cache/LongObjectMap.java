@@ -0,0 +1,302 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.cache;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Concurrent hash map from primitive longs to objects, so Discord IDs can be used as keys without boxing.
+ * The map is split into segments, each an open-addressing table with linear probing guarded by its own {@link StampedLock}.
+ * Reads are optimistic and only fall back to locking if a write happened at the same time.
+ * Null values are not supported.
+ *
+ * @param <V> Type of the values
+ */
+public final class LongObjectMap<V> {
+
+    private static final int SEGMENT_COUNT = 16;
+    private static final int SEGMENT_MASK = SEGMENT_COUNT - 1;
+
+    private final Segment<V>[] segments;
+
+    public LongObjectMap(){
+        this(64);
+    }
+
+    /**
+     * @param expectedSize Amount of entries the map should be able to hold before resizing
+     */
+    @SuppressWarnings("unchecked")
+    public LongObjectMap(int expectedSize){
+        int perSegment = Math.max(expectedSize / SEGMENT_COUNT, 4);
+        segments = new Segment[SEGMENT_COUNT];
+        for(int i = 0; i < SEGMENT_COUNT; i++){
+            segments[i] = new Segment<>(perSegment);
+        }
+    }
+
+    /**
+     * @param key Key to look up
+     * @return The value for the key, or null if there is none
+     */
+    public V get(long key){
+        int hash = mix(key);
+        return segments[hash & SEGMENT_MASK].get(key, hash >>> 4);
+    }
+
+    /**
+     * @param key Key to store the value under
+     * @param value Value to store
+     * @return The previous value for the key, or null if there was none
+     */
+    public V put(long key, V value){
+        if(value == null) throw new NullPointerException("LongObjectMap does not support null values");
+        int hash = mix(key);
+        return segments[hash & SEGMENT_MASK].put(key, hash >>> 4, value, false);
+    }
+
+    /**
+     * @param key Key to store the value under
+     * @param value Value to store if the key has none yet
+     * @return The value already stored for the key, or null if the given value was stored
+     */
+    public V putIfAbsent(long key, V value){
+        if(value == null) throw new NullPointerException("LongObjectMap does not support null values");
+        int hash = mix(key);
+        return segments[hash & SEGMENT_MASK].put(key, hash >>> 4, value, true);
+    }
+
+    /**
+     * @param key Key to remove
+     * @return The removed value, or null if there was none
+     */
+    public V remove(long key){
+        int hash = mix(key);
+        return segments[hash & SEGMENT_MASK].remove(key, hash >>> 4);
+    }
+
+    public boolean containsKey(long key){
+        return get(key) != null;
+    }
+
+    public int size(){
+        int size = 0;
+        for(Segment<V> segment : segments){
+            size += segment.size();
+        }
+
+        return size;
+    }
+
+    public boolean isEmpty(){
+        return size() == 0;
+    }
+
+    public void clear(){
+        for(Segment<V> segment : segments){
+            segment.clear();
+        }
+    }
+
+    /**
+     * Calls the consumer with every entry. Each segment is locked while it is visited, so the consumer must not change the map.
+     *
+     * @param consumer Consumer of the entries
+     */
+    public void forEach(EntryConsumer<V> consumer){
+        for(Segment<V> segment : segments){
+            segment.forEach(consumer);
+        }
+    }
+
+    public interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    // Snowflakes have timestamps in their upper bits and mostly zeroes in their lower bits, so they need mixing before use
+    private static int mix(long key){
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (int)(h ^ (h >>> 16));
+    }
+
+    private static final class Table<V> {
+        final long[] keys;
+        final Object[] values;
+        final int mask;
+
+        Table(int capacity){
+            keys = new long[capacity];
+            values = new Object[capacity];
+            mask = capacity - 1;
+        }
+    }
+
+    private static final class Segment<V> {
+        private final StampedLock lock = new StampedLock();
+        // Keys and values are swapped together on resize, so an optimistic reader always sees arrays of the same length
+        private volatile Table<V> table;
+        private int size;
+
+        Segment(int expectedSize){
+            table = new Table<>(capacityFor(expectedSize));
+        }
+
+        V get(long key, int hash){
+            long stamp = lock.tryOptimisticRead();
+            V value = find(table, key, hash);
+            if(lock.validate(stamp)) return value;
+
+            stamp = lock.readLock();
+            try{
+                return find(table, key, hash);
+            }
+            finally{
+                lock.unlockRead(stamp);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <V> V find(Table<V> t, long key, int hash){
+            int slot = hash & t.mask;
+            // Bounded by the capacity, since a concurrent writer could otherwise leave an optimistic read probing forever
+            for(int i = 0; i <= t.mask; i++){
+                Object value = t.values[slot];
+                if(value == null) return null;
+                if(t.keys[slot] == key) return (V)value;
+                slot = (slot + 1) & t.mask;
+            }
+
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        V put(long key, int hash, V value, boolean onlyIfAbsent){
+            long stamp = lock.writeLock();
+            try{
+                Table<V> t = table;
+                int slot = hash & t.mask;
+                while(t.values[slot] != null){
+                    if(t.keys[slot] == key){
+                        V previous = (V)t.values[slot];
+                        if(!onlyIfAbsent) t.values[slot] = value;
+                        return previous;
+                    }
+                    slot = (slot + 1) & t.mask;
+                }
+
+                t.keys[slot] = key;
+                t.values[slot] = value;
+                if(++size > (t.mask + 1) / 2) resize(t);
+                return null;
+            }
+            finally{
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        V remove(long key, int hash){
+            long stamp = lock.writeLock();
+            try{
+                Table<V> t = table;
+                int slot = hash & t.mask;
+                while(t.values[slot] != null){
+                    if(t.keys[slot] == key){
+                        V previous = (V)t.values[slot];
+                        shiftBack(t, slot);
+                        size--;
+                        return previous;
+                    }
+                    slot = (slot + 1) & t.mask;
+                }
+
+                return null;
+            }
+            finally{
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        // Moves later entries of the probe sequence into the freed slot, so no tombstones are needed
+        private void shiftBack(Table<V> t, int freed){
+            int slot = freed;
+            while(true){
+                slot = (slot + 1) & t.mask;
+                if(t.values[slot] == null) break;
+
+                int home = mix(t.keys[slot]) >>> 4 & t.mask;
+                // Only move the entry if its home slot isn't between the freed slot and its current slot
+                if(((slot - home) & t.mask) >= ((slot - freed) & t.mask)){
+                    t.keys[freed] = t.keys[slot];
+                    t.values[freed] = t.values[slot];
+                    freed = slot;
+                }
+            }
+
+            t.keys[freed] = 0;
+            t.values[freed] = null;
+        }
+
+        private void resize(Table<V> old){
+            Table<V> t = new Table<>((old.mask + 1) * 2);
+            for(int i = 0; i <= old.mask; i++){
+                if(old.values[i] == null) continue;
+
+                int slot = mix(old.keys[i]) >>> 4 & t.mask;
+                while(t.values[slot] != null){
+                    slot = (slot + 1) & t.mask;
+                }
+                t.keys[slot] = old.keys[i];
+                t.values[slot] = old.values[i];
+            }
+
+            table = t;
+        }
+
+        int size(){
+            long stamp = lock.readLock();
+            try{
+                return size;
+            }
+            finally{
+                lock.unlockRead(stamp);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        void forEach(EntryConsumer<V> consumer){
+            long stamp = lock.readLock();
+            try{
+                Table<V> t = table;
+                for(int i = 0; i <= t.mask; i++){
+                    if(t.values[i] != null) consumer.accept(t.keys[i], (V)t.values[i]);
+                }
+            }
+            finally{
+                lock.unlockRead(stamp);
+            }
+        }
+
+        void clear(){
+            long stamp = lock.writeLock();
+            try{
+                table = new Table<>(table.mask + 1);
+                size = 0;
+            }
+            finally{
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private static int capacityFor(int expectedSize){
+            return Integer.highestOneBit(Math.max(expectedSize, 2) * 2 - 1) << 1;
+        }
+    }
+}
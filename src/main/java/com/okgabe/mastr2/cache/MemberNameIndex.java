@@ -0,0 +1,467 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.cache;
+
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.User;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Per-guild index of member usernames and nicknames, so member searches can be answered without a gateway request.
+ * <p>
+ * The index only knows the members it has been given, so it also remembers which prefixes it knows completely: a gateway search
+ * which returned fewer than {@link #SEARCH_LIMIT} members covers its prefix, and a guild whose members are all loaded covers every prefix.
+ * Searches for a covered prefix are answered here, anything else is a miss and goes to the gateway.
+ * Coverage and members expire after a fixed time, since without the GUILD_MEMBERS intent nothing tells the bot about joins and renames.
+ */
+public class MemberNameIndex {
+
+    /**
+     * Most members the gateway returns for one search, and the most a search here returns
+     */
+    public static final int SEARCH_LIMIT = 100;
+
+    private final long ttlNanos;
+    private final int maximumGuildSize;
+    private final LongSupplier clock;
+    private final LongObjectMap<GuildIndex> guilds;
+
+    /**
+     * @param ttl Time after which indexed members and covered prefixes expire
+     * @param unit Unit of the time
+     * @param maximumGuildSize Most members indexed per guild, past which the guild's index is cleared
+     */
+    public MemberNameIndex(long ttl, TimeUnit unit, int maximumGuildSize) {
+        this(ttl, unit, maximumGuildSize, System::nanoTime);
+    }
+
+    MemberNameIndex(long ttl, TimeUnit unit, int maximumGuildSize, LongSupplier clock) {
+        if(maximumGuildSize < 1) throw new IllegalArgumentException("Member name index must be able to hold at least one member per guild");
+
+        this.ttlNanos = unit.toNanos(ttl);
+        this.maximumGuildSize = maximumGuildSize;
+        this.clock = clock;
+        this.guilds = new LongObjectMap<>();
+    }
+
+    /**
+     * Searches a guild's members by the start of their username or nickname, or by their exact tag ({@code name#1234})
+     *
+     * @param guild Guild to search in
+     * @param search Search, case is ignored
+     * @return Matching members, at most {@link #SEARCH_LIMIT}, or null if the index doesn't know every possible match
+     */
+    public List<Member> search(Guild guild, String search){
+        // A guild with every member loaded can be indexed without asking the gateway
+        List<Entry> found = find(guild.getIdLong(), search);
+        if(found == null && guild.isLoaded()){
+            addLoadedGuild(guild);
+            found = find(guild.getIdLong(), search);
+        }
+
+        return toMembers(found);
+    }
+
+    /**
+     * Searches the members indexed for a guild by any part of their username or nickname. Unlike {@link #search(Guild, String)},
+     * this only knows the members which have been indexed, so it's meant for when the gateway had nothing either.
+     *
+     * @param guildId ID of the guild
+     * @param search Search, case is ignored
+     * @return Matching members, at most {@link #SEARCH_LIMIT}
+     */
+    public List<Member> searchSubstring(long guildId, String search){
+        return toMembers(findSubstring(guildId, search));
+    }
+
+    /**
+     * Indexes the result of a gateway search. If the gateway returned every match, searches starting with the same text are answered here.
+     *
+     * @param guild Guild which was searched
+     * @param query Prefix sent to the gateway
+     * @param members Members the gateway returned
+     */
+    public void addSearchResult(Guild guild, String query, List<Member> members){
+        GuildIndex index = getOrCreate(guild.getIdLong());
+        long now = clock.getAsLong();
+        synchronized(index){
+            for(Member member : members){
+                index.put(member.getIdLong(), member.getUser().getName(), member.getNickname(), member.getUser().getDiscriminator(), member, now);
+            }
+            if(members.size() < SEARCH_LIMIT){
+                index.removeStale(normalize(query), now);
+                index.cover(normalize(query), now);
+            }
+        }
+    }
+
+    /**
+     * Indexes every member of a guild whose members are all loaded, so every search in it is answered here
+     *
+     * @param guild Guild with every member loaded
+     */
+    public void addLoadedGuild(Guild guild){
+        List<Member> members = guild.getMembers();
+        if(members.size() > maximumGuildSize) return;
+
+        GuildIndex index = getOrCreate(guild.getIdLong());
+        long now = clock.getAsLong();
+        synchronized(index){
+            for(Member member : members){
+                index.put(member.getIdLong(), member.getUser().getName(), member.getNickname(), member.getUser().getDiscriminator(), member, now);
+            }
+            index.removeStale("", now);
+            index.cover("", now);
+        }
+    }
+
+    /**
+     * Indexes a member which joined or changed nickname. Guilds which haven't been searched yet are left alone.
+     *
+     * @param member Member to index
+     */
+    public void update(Member member){
+        GuildIndex index = guilds.get(member.getGuild().getIdLong());
+        if(index == null) return;
+
+        synchronized(index){
+            index.put(member.getIdLong(), member.getUser().getName(), member.getNickname(), member.getUser().getDiscriminator(), member, clock.getAsLong());
+        }
+    }
+
+    /**
+     * Reindexes a user whose name or discriminator changed, in every guild they're indexed in
+     *
+     * @param user User with their new name
+     */
+    public void update(User user){
+        long now = clock.getAsLong();
+        List<GuildIndex> indexes = new ArrayList<>();
+        guilds.forEach((guildId, index) -> indexes.add(index));
+
+        for(GuildIndex index : indexes){
+            synchronized(index){
+                Entry entry = index.entries.get(user.getIdLong());
+                if(entry != null) index.put(entry.id, user.getName(), entry.nickname, user.getDiscriminator(), entry.member, now);
+            }
+        }
+    }
+
+    /**
+     * @param guildId ID of the guild the member left
+     * @param memberId ID of the member
+     */
+    public void remove(long guildId, long memberId){
+        GuildIndex index = guilds.get(guildId);
+        if(index == null) return;
+
+        synchronized(index){
+            index.remove(memberId);
+        }
+    }
+
+    /**
+     * @param guildId ID of a guild the bot left
+     */
+    public void removeGuild(long guildId){
+        guilds.remove(guildId);
+    }
+
+    /**
+     * Drops expired members and coverage, and guilds left without either
+     */
+    public void cleanUp(){
+        long now = clock.getAsLong();
+        List<Long> empty = new ArrayList<>();
+        List<Long> ids = new ArrayList<>();
+        List<GuildIndex> indexes = new ArrayList<>();
+        guilds.forEach((guildId, index) -> {
+            ids.add(guildId);
+            indexes.add(index);
+        });
+
+        for(int i = 0; i < indexes.size(); i++){
+            GuildIndex index = indexes.get(i);
+            synchronized(index){
+                index.removeExpired(now);
+                if(index.entries.isEmpty() && index.covered.isEmpty()) empty.add(ids.get(i));
+            }
+        }
+        for(long guildId : empty){
+            guilds.remove(guildId);
+        }
+    }
+
+    /**
+     * @return Amount of members indexed over every guild
+     */
+    public int size(){
+        List<GuildIndex> indexes = new ArrayList<>();
+        guilds.forEach((guildId, index) -> indexes.add(index));
+
+        int size = 0;
+        for(GuildIndex index : indexes){
+            synchronized(index){
+                size += index.entries.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @param search Search as given to {@link #search(Guild, String)}
+     * @return What to send to the gateway for the search: the name of a tag, or the search itself
+     */
+    public static String gatewayQuery(String search){
+        return Query.parse(search).gatewayQuery;
+    }
+
+    /**
+     * @param search Search as given to {@link #search(Guild, String)}
+     * @return True if the search is a tag ({@code name#1234})
+     */
+    public static boolean isTag(String search){
+        return Query.parse(search).discriminator != null;
+    }
+
+    void put(long guildId, long memberId, String name, String nickname, String discriminator, Member member){
+        GuildIndex index = getOrCreate(guildId);
+        synchronized(index){
+            index.put(memberId, name, nickname, discriminator, member, clock.getAsLong());
+        }
+    }
+
+    void cover(long guildId, String prefix){
+        GuildIndex index = getOrCreate(guildId);
+        synchronized(index){
+            index.cover(normalize(prefix), clock.getAsLong());
+        }
+    }
+
+    List<Entry> find(long guildId, String search){
+        GuildIndex index = guilds.get(guildId);
+        if(index == null) return null;
+
+        Query query = Query.parse(search);
+        long now = clock.getAsLong();
+        synchronized(index){
+            if(!index.isCovered(query.name, now)) return null;
+            return index.withPrefix(query, now);
+        }
+    }
+
+    List<Entry> findSubstring(long guildId, String search){
+        GuildIndex index = guilds.get(guildId);
+        if(index == null) return new ArrayList<>();
+
+        Query query = Query.parse(search);
+        synchronized(index){
+            return index.containing(query, clock.getAsLong());
+        }
+    }
+
+    private GuildIndex getOrCreate(long guildId){
+        GuildIndex index = guilds.get(guildId);
+        if(index != null) return index;
+
+        synchronized(guilds){
+            index = guilds.get(guildId);
+            if(index == null){
+                index = new GuildIndex();
+                guilds.put(guildId, index);
+            }
+            return index;
+        }
+    }
+
+    private static List<Member> toMembers(List<Entry> entries){
+        if(entries == null) return null;
+
+        List<Member> members = new ArrayList<>(entries.size());
+        for(Entry entry : entries){
+            members.add(entry.member);
+        }
+        return members;
+    }
+
+    private static String normalize(String name){
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private final class GuildIndex {
+        private NameTrie names = new NameTrie();
+        private final Map<Long, Entry> entries = new HashMap<>();
+        // Normalized prefix to the time it stops being covered
+        private final Map<String, Long> covered = new HashMap<>();
+
+        private void put(long id, String name, String nickname, String discriminator, Member member, long now){
+            Entry old = entries.get(id);
+            if(old != null) unindex(old);
+            else if(entries.size() >= maximumGuildSize){
+                removeExpired(now);
+                // Still full, so start over rather than track which members were used last
+                if(entries.size() >= maximumGuildSize) clear();
+            }
+
+            Entry entry = new Entry(id, normalize(name), nickname == null ? null : normalize(nickname), discriminator, member, now);
+            entries.put(id, entry);
+            names.add(entry.name, id);
+            if(entry.nickname != null) names.add(entry.nickname, id);
+        }
+
+        private void remove(long id){
+            Entry entry = entries.remove(id);
+            if(entry != null) unindex(entry);
+        }
+
+        private void unindex(Entry entry){
+            names.remove(entry.name, entry.id);
+            if(entry.nickname != null) names.remove(entry.nickname, entry.id);
+        }
+
+        private void clear(){
+            entries.clear();
+            covered.clear();
+            names = new NameTrie();
+        }
+
+        private void cover(String prefix, long now){
+            covered.put(prefix, now + ttlNanos);
+        }
+
+        // Every current member under the prefix was just indexed, so anyone else under it has left or was renamed
+        private void removeStale(String prefix, long now){
+            List<Long> stale = new ArrayList<>();
+            names.forEachWithPrefix(prefix, id -> {
+                if(entries.get(id).indexedAt != now) stale.add(id);
+                return true;
+            });
+
+            for(long id : stale){
+                remove(id);
+            }
+        }
+
+        private boolean isCovered(String name, long now){
+            for(int length = name.length(); length >= 0; length--){
+                Long until = covered.get(name.substring(0, length));
+                if(until != null && until - now > 0) return true;
+            }
+
+            return false;
+        }
+
+        private List<Entry> withPrefix(Query query, long now){
+            Map<Long, Entry> found = new LinkedHashMap<>();
+            List<Entry> expired = new ArrayList<>();
+            names.forEachWithPrefix(query.name, id -> {
+                Entry entry = entries.get(id);
+                if(isExpired(entry, now)) expired.add(entry);
+                else if(query.matches(entry)) found.put(id, entry);
+                return found.size() < SEARCH_LIMIT;
+            });
+
+            for(Entry entry : expired){
+                remove(entry.id);
+            }
+            return new ArrayList<>(found.values());
+        }
+
+        private List<Entry> containing(Query query, long now){
+            List<Entry> found = new ArrayList<>();
+            for(Entry entry : entries.values()){
+                if(found.size() == SEARCH_LIMIT) break;
+                if(isExpired(entry, now)) continue;
+                if(entry.name.contains(query.name) || (entry.nickname != null && entry.nickname.contains(query.name))) found.add(entry);
+            }
+
+            return found;
+        }
+
+        private void removeExpired(long now){
+            Iterator<Entry> entryIter = entries.values().iterator();
+            while(entryIter.hasNext()){
+                Entry entry = entryIter.next();
+                if(!isExpired(entry, now)) continue;
+
+                entryIter.remove();
+                unindex(entry);
+            }
+            covered.values().removeIf(until -> until - now <= 0);
+        }
+
+        private boolean isExpired(Entry entry, long now){
+            return now - entry.indexedAt >= ttlNanos;
+        }
+    }
+
+    static final class Entry {
+        final long id;
+        final String name;
+        final String nickname;
+        final String discriminator;
+        final Member member;
+        final long indexedAt;
+
+        private Entry(long id, String name, String nickname, String discriminator, Member member, long indexedAt) {
+            this.id = id;
+            this.name = name;
+            this.nickname = nickname;
+            this.discriminator = discriminator;
+            this.member = member;
+            this.indexedAt = indexedAt;
+        }
+    }
+
+    private static final class Query {
+        private final String name;
+        private final String discriminator;
+        private final String gatewayQuery;
+
+        private Query(String name, String discriminator, String gatewayQuery) {
+            this.name = name;
+            this.discriminator = discriminator;
+            this.gatewayQuery = gatewayQuery;
+        }
+
+        private static Query parse(String search){
+            String trimmed = search.trim();
+            int hash = trimmed.lastIndexOf('#');
+            if(hash > 0 && trimmed.length() - hash == 5 && isDigits(trimmed, hash + 1)){
+                String name = trimmed.substring(0, hash);
+                return new Query(normalize(name), trimmed.substring(hash + 1), name);
+            }
+
+            return new Query(normalize(trimmed), null, trimmed);
+        }
+
+        private static boolean isDigits(String s, int from){
+            for(int i = from; i < s.length(); i++){
+                if(!Character.isDigit(s.charAt(i))) return false;
+            }
+            return true;
+        }
+
+        // Prefix queries match everything found under their prefix, tags only the member with that exact name and discriminator
+        private boolean matches(Entry entry){
+            if(discriminator == null) return true;
+            return discriminator.equals(entry.discriminator) && (name.equals(entry.name) || name.equals(entry.nickname));
+        }
+    }
+}
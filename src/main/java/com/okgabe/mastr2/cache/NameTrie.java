@@ -0,0 +1,182 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.cache;
+
+import java.util.Arrays;
+
+/**
+ * Prefix tree from names to the IDs carrying them. A name can belong to several IDs, and an ID can be stored under several names.
+ * Children are kept in sorted arrays instead of maps, which keeps the nodes small enough to index every member of large guilds.
+ * Not thread-safe.
+ */
+final class NameTrie {
+
+    private static final char[] NO_KEYS = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+    private static final long[] NO_IDS = new long[0];
+
+    private final Node root;
+    private int size;
+
+    NameTrie() {
+        this.root = new Node();
+    }
+
+    /**
+     * @param name Name, already normalized
+     * @param id ID to store under the name
+     * @return False if the ID was already stored under this name
+     */
+    boolean add(String name, long id){
+        Node node = root;
+        for(int i = 0; i < name.length(); i++){
+            node = node.childOrCreate(name.charAt(i));
+        }
+
+        if(!node.addId(id)) return false;
+        size++;
+        return true;
+    }
+
+    /**
+     * @param name Name, already normalized
+     * @param id ID stored under the name
+     * @return False if the ID wasn't stored under this name
+     */
+    boolean remove(String name, long id){
+        if(!remove(root, name, 0, id)) return false;
+        size--;
+        return true;
+    }
+
+    private static boolean remove(Node node, String name, int depth, long id){
+        if(depth == name.length()) return node.removeId(id);
+
+        Node child = node.child(name.charAt(depth));
+        if(child == null || !remove(child, name, depth + 1, id)) return false;
+        // Branches left without any ID are cut off, so renamed members don't leave their old names behind
+        if(child.isEmpty()) node.removeChild(name.charAt(depth));
+        return true;
+    }
+
+    /**
+     * Visits the IDs stored under every name starting with a prefix, shortest names first along each branch.
+     * An ID stored under several matching names is visited once for each.
+     *
+     * @param prefix Prefix, already normalized
+     * @param visitor Called with every ID until it returns false
+     */
+    void forEachWithPrefix(String prefix, IdVisitor visitor){
+        Node node = root;
+        for(int i = 0; i < prefix.length() && node != null; i++){
+            node = node.child(prefix.charAt(i));
+        }
+
+        if(node != null) visit(node, visitor);
+    }
+
+    private static boolean visit(Node node, IdVisitor visitor){
+        for(int i = 0; i < node.idCount; i++){
+            if(!visitor.visit(node.ids[i])) return false;
+        }
+        for(int i = 0; i < node.childCount; i++){
+            if(!visit(node.children[i], visitor)) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return Amount of name and ID pairs stored
+     */
+    int size(){
+        return size;
+    }
+
+    boolean isEmpty(){
+        return size == 0;
+    }
+
+    interface IdVisitor {
+        /**
+         * @param id Stored ID
+         * @return False to stop visiting
+         */
+        boolean visit(long id);
+    }
+
+    private static final class Node {
+        private char[] keys = NO_KEYS;
+        private Node[] children = NO_CHILDREN;
+        private int childCount;
+        private long[] ids = NO_IDS;
+        private int idCount;
+
+        private Node child(char key){
+            int index = Arrays.binarySearch(keys, 0, childCount, key);
+            return index >= 0 ? children[index] : null;
+        }
+
+        private Node childOrCreate(char key){
+            int index = Arrays.binarySearch(keys, 0, childCount, key);
+            if(index >= 0) return children[index];
+
+            int insertAt = -index - 1;
+            if(childCount == keys.length){
+                int capacity = Math.max(2, childCount * 2);
+                keys = Arrays.copyOf(keys, capacity);
+                children = Arrays.copyOf(children, capacity);
+            }
+            System.arraycopy(keys, insertAt, keys, insertAt + 1, childCount - insertAt);
+            System.arraycopy(children, insertAt, children, insertAt + 1, childCount - insertAt);
+
+            Node child = new Node();
+            keys[insertAt] = key;
+            children[insertAt] = child;
+            childCount++;
+            return child;
+        }
+
+        private void removeChild(char key){
+            int index = Arrays.binarySearch(keys, 0, childCount, key);
+            if(index < 0) return;
+
+            System.arraycopy(keys, index + 1, keys, index, childCount - index - 1);
+            System.arraycopy(children, index + 1, children, index, childCount - index - 1);
+            childCount--;
+            children[childCount] = null;
+        }
+
+        private boolean addId(long id){
+            for(int i = 0; i < idCount; i++){
+                if(ids[i] == id) return false;
+            }
+
+            if(idCount == ids.length) ids = Arrays.copyOf(ids, Math.max(1, idCount * 2));
+            ids[idCount++] = id;
+            return true;
+        }
+
+        private boolean removeId(long id){
+            for(int i = 0; i < idCount; i++){
+                if(ids[i] != id) continue;
+
+                ids[i] = ids[--idCount];
+                if(idCount == 0) ids = NO_IDS;
+                return true;
+            }
+
+            return false;
+        }
+
+        private boolean isEmpty(){
+            return idCount == 0 && childCount == 0;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.command;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable lookup table from command names and aliases to commands, built once when commands are registered.
+ * Lookups are case-insensitive and hash the characters of the searched region directly, so looking up a command
+ * straight out of a message doesn't allocate.
+ */
+public final class AliasIndex {
+
+    private final String[] keys;
+    private final CommandBase[] values;
+    private final int mask;
+    private final int size;
+    private final Map<Class<? extends CommandBase>, CommandBase> byClass;
+
+    /**
+     * Builds the index
+     *
+     * @param commands Commands to index
+     * @throws IllegalStateException If two commands share a name or alias
+     */
+    public AliasIndex(Collection<? extends CommandBase> commands) throws IllegalStateException {
+        int aliasCount = 0;
+        for(CommandBase cmd : commands){
+            aliasCount += 1 + cmd.getAliases().length;
+        }
+
+        // Keep the table at most half full so probe sequences stay short
+        int capacity = Integer.highestOneBit(Math.max(aliasCount, 1) * 2 - 1) << 1;
+        keys = new String[capacity];
+        values = new CommandBase[capacity];
+        mask = capacity - 1;
+
+        Map<Class<? extends CommandBase>, CommandBase> classes = new HashMap<>();
+        int added = 0;
+        for(CommandBase cmd : commands){
+            for(int i = -1; i < cmd.getAliases().length; i++){
+                // Loop through command and all aliases in command
+                String alias = (i == -1 ? cmd.getCommand() : cmd.getAliases()[i]);
+                insert(lowerCase(alias), cmd);
+                added++;
+            }
+
+            classes.put(cmd.getClass(), cmd);
+        }
+
+        size = added;
+        byClass = Collections.unmodifiableMap(classes);
+    }
+
+    private void insert(String alias, CommandBase cmd){
+        int slot = hash(alias, 0, alias.length()) & mask;
+        while(keys[slot] != null){
+            if(keys[slot].equals(alias)){
+                throw new IllegalStateException("Duplicate command alias \"" + alias + "\" registered by both " +
+                        values[slot].getClass().getSimpleName() + " and " + cmd.getClass().getSimpleName());
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = alias;
+        values[slot] = cmd;
+    }
+
+    public CommandBase get(CharSequence alias){
+        return get(alias, 0, alias.length());
+    }
+
+    /**
+     * Finds the command with the given name or alias, ignoring case
+     *
+     * @param text Text containing the alias
+     * @param start Index of the first character of the alias
+     * @param end Index after the last character of the alias
+     * @return The command, or null if none matches
+     */
+    public CommandBase get(CharSequence text, int start, int end){
+        int slot = hash(text, start, end) & mask;
+        String key;
+        while((key = keys[slot]) != null){
+            if(regionEquals(key, text, start, end)) return values[slot];
+            slot = (slot + 1) & mask;
+        }
+
+        return null;
+    }
+
+    public <T extends CommandBase> T get(Class<T> clazz){
+        return clazz.cast(byClass.get(clazz));
+    }
+
+    /**
+     * @return Total amount of names and aliases in the index
+     */
+    public int size() {
+        return size;
+    }
+
+    private static boolean regionEquals(String key, CharSequence text, int start, int end){
+        if(key.length() != end - start) return false;
+        for(int i = 0; i < key.length(); i++){
+            if(key.charAt(i) != Character.toLowerCase(text.charAt(start + i))) return false;
+        }
+
+        return true;
+    }
+
+    private static int hash(CharSequence text, int start, int end){
+        int h = 0;
+        for(int i = start; i < end; i++){
+            h = 31 * h + Character.toLowerCase(text.charAt(i));
+        }
+
+        return h ^ (h >>> 16);
+    }
+
+    // Lower-cases character by character, to exactly match how lookups are compared
+    private static String lowerCase(String alias){
+        char[] chars = alias.toCharArray();
+        for(int i = 0; i < chars.length; i++){
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+
+        return new String(chars);
+    }
+}
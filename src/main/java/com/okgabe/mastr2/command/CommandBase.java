@@ -10,9 +10,14 @@ package com.okgabe.mastr2.command;
 
 import com.okgabe.mastr2.Mastr;
 import com.okgabe.mastr2.permission.BotRole;
+import net.dv8tion.jda.api.requests.GatewayIntent;
+import net.dv8tion.jda.api.utils.cache.CacheFlag;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 public abstract class CommandBase {
 
     protected Mastr mastr;
@@ -29,6 +34,9 @@ public abstract class CommandBase {
     protected String[] examples = new String[] {};
     protected BotRole minimumRole = BotRole.DEFAULT;
     protected boolean shownInHelp = true;
+    // What the command can't work without, checked against the memory profile at startup
+    protected Set<GatewayIntent> requiredIntents = EnumSet.noneOf(GatewayIntent.class);
+    protected Set<CacheFlag> requiredCacheFlags = EnumSet.noneOf(CacheFlag.class);
 
     public CommandBase(Mastr mastr){
         this.mastr = mastr;
@@ -70,4 +78,12 @@ public abstract class CommandBase {
     public boolean isShownInHelp() {
         return shownInHelp;
     }
+
+    public Set<GatewayIntent> getRequiredIntents() {
+        return requiredIntents;
+    }
+
+    public Set<CacheFlag> getRequiredCacheFlags() {
+        return requiredCacheFlags;
+    }
 }
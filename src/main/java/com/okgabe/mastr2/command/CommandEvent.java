@@ -12,6 +12,7 @@ import com.okgabe.mastr2.Mastr;
 import com.okgabe.mastr2.entity.BotGuild;
 import com.okgabe.mastr2.entity.BotUser;
 import com.okgabe.mastr2.util.EmoteConstants;
+import com.okgabe.mastr2.util.TokenizedString;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.*;
 import net.dv8tion.jda.api.requests.restaction.MessageAction;
@@ -28,6 +29,8 @@ public class CommandEvent {
     private MessageChannel channel;
     private Message message;
     private String[] args;
+    private TokenizedString tokens;
+    private int firstArg;
 
     public CommandEvent(Mastr mastr, Member author, BotGuild botGuild, BotUser botUser, MessageChannel channel, Message message, String[] args) {
         this.mastr = mastr;
@@ -39,6 +42,18 @@ public class CommandEvent {
         this.args = args;
     }
 
+    /**
+     * Creates a CommandEvent whose arguments are only turned into Strings once a command asks for them
+     *
+     * @param tokens Tokenized message content
+     * @param firstArg Index of the token holding the first argument
+     */
+    public CommandEvent(Mastr mastr, Member author, BotGuild botGuild, BotUser botUser, MessageChannel channel, Message message, TokenizedString tokens, int firstArg) {
+        this(mastr, author, botGuild, botUser, channel, message, null);
+        this.tokens = tokens;
+        this.firstArg = firstArg;
+    }
+
     public Member getAuthor() {
         return author;
     }
@@ -80,6 +95,7 @@ public class CommandEvent {
     }
 
     public String[] getArgs() {
+        if(args == null) args = tokens.toArray(firstArg);
         return args;
     }
 
@@ -87,6 +103,25 @@ public class CommandEvent {
         this.args = args;
     }
 
+    public int getArgCount(){
+        if(args != null) return args.length;
+        return Math.max(tokens.size() - firstArg, 0);
+    }
+
+    public String getArg(int index){
+        if(args != null) return args[index];
+        return tokens.get(firstArg + index);
+    }
+
+    /**
+     * @param index Argument index
+     * @return True if the argument was wrapped in quotes in the message. Its quotes are already removed from {@link #getArg(int)}.
+     */
+    public boolean isArgQuoted(int index){
+        if(tokens == null) return false;
+        return tokens.isQuoted(firstArg + index);
+    }
+
     public Guild getGuild(){
         return message.getGuild();
     }
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.command;
+
+import com.okgabe.mastr2.util.MastrThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs commands off of JDA's event threads.
+ * Work is split into lanes with one thread each, and every guild is always assigned to the same lane. Commands from one
+ * guild therefore run in the order they were sent, while other guilds keep running on the other lanes. Each lane has a
+ * bounded queue, so a flood of commands is rejected instead of piling up.
+ */
+public class CommandExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(CommandExecutor.class);
+
+    private final ThreadPoolExecutor[] lanes;
+
+    /**
+     * @param threads Amount of lanes, each with its own thread
+     * @param queueSize Maximum amount of commands waiting in a single lane
+     */
+    public CommandExecutor(int threads, int queueSize) {
+        if(threads < 1) throw new IllegalArgumentException("At least one command thread is required");
+        if(queueSize < 1) throw new IllegalArgumentException("Command queue size must be positive");
+
+        MastrThreadFactory threadFactory = new MastrThreadFactory("Mastr-Command");
+        lanes = new ThreadPoolExecutor[threads];
+        for(int i = 0; i < threads; i++){
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize), threadFactory);
+            // Start the threads here, since the thread factory isn't meant to be used from multiple threads
+            lanes[i].prestartCoreThread();
+        }
+
+        logger.debug("Started " + threads + " command lanes with room for " + queueSize + " queued commands each");
+    }
+
+    /**
+     * Queues a task on the lane of the given key
+     *
+     * @param key ID of the guild, or of the user for commands outside of guilds
+     * @param task Task to run
+     * @return False if the lane's queue is full or the executor was shut down, meaning the task won't run
+     */
+    public boolean submit(long key, Runnable task){
+        try{
+            lanes[laneOf(key)].execute(() -> {
+                try{
+                    task.run();
+                }
+                catch(Exception ex){
+                    logger.error("Uncaught exception in command lane", ex);
+                }
+            });
+            return true;
+        }
+        catch(RejectedExecutionException ex){
+            return false;
+        }
+    }
+
+    /**
+     * @return Total amount of tasks waiting to be run across all lanes
+     */
+    public int getQueuedCount(){
+        int queued = 0;
+        for(ThreadPoolExecutor lane : lanes){
+            queued += lane.getQueue().size();
+        }
+
+        return queued;
+    }
+
+    public int getLaneCount(){
+        return lanes.length;
+    }
+
+    /**
+     * Stops accepting new tasks and waits for queued ones to finish
+     *
+     * @param timeout Maximum time to wait
+     * @param unit Unit of the timeout
+     * @return True if every lane finished in time
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        for(ThreadPoolExecutor lane : lanes){
+            lane.shutdown();
+        }
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for(ThreadPoolExecutor lane : lanes){
+            if(!lane.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) return false;
+        }
+
+        return true;
+    }
+
+    private int laneOf(long key){
+        // Snowflakes are mostly timestamp, so mix the bits before picking a lane
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)((h >>> 32) % lanes.length);
+    }
+}
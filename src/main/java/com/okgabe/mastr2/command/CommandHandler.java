@@ -11,19 +11,22 @@ package com.okgabe.mastr2.command;
 import com.okgabe.mastr2.Mastr;
 import com.okgabe.mastr2.entity.BotGuild;
 import com.okgabe.mastr2.entity.BotUser;
+import com.okgabe.mastr2.metrics.MetricsRegistry;
+import com.okgabe.mastr2.metrics.Stage;
 import com.okgabe.mastr2.util.EmoteConstants;
-import com.okgabe.mastr2.util.ReflectionUtil;
-import com.okgabe.mastr2.util.StringUtil;
+import com.okgabe.mastr2.util.TokenizedString;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.MessageChannel;
-import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.exceptions.InsufficientPermissionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 public class CommandHandler {
 
@@ -31,23 +34,28 @@ public class CommandHandler {
 
     private Mastr mastr;
     private String mastrId;
+    private String mention;
+    private String nicknameMention;
     private List<CommandBase> commands;
+    private AliasIndex aliasIndex;
+    private MetricsRegistry metrics;
 
     /**
-     * Initializes the CommandHandler and registers all commands located in the commands package
+     * Initializes the CommandHandler and registers all commands located in the commands package.
+     * Mentions of the bot are only recognized once {@link #setSelfUser(String)} was called.
      *
      * @param mastr Bot instance
+     * @throws IllegalStateException If two commands share a name or alias
      */
     public CommandHandler(Mastr mastr) {
         this.mastr = mastr;
-        mastrId = mastr.getShardManager().getShardById(0).getSelfUser().getId();
         commands = new ArrayList<>();
 
         logger.info("Registering commands...");
         try{
-            for(Class c : ReflectionUtil.getClasses("com.okgabe.mastr2.command.commands")){
-                if(c.isAnonymousClass()||c.isMemberClass()) continue;
-                commands.add((CommandBase)c.getConstructors()[0].newInstance(mastr));
+            // Generated at build time, so nothing is scanned or created through reflection here
+            for(Function<Mastr, CommandBase> factory : CommandRegistry.FACTORIES){
+                commands.add(factory.apply(mastr));
             }
         }
         catch(Exception ex){
@@ -55,91 +63,132 @@ public class CommandHandler {
             ex.printStackTrace();
         }
         logger.info("Registered " + commands.size() + " commands");
-        logger.debug("Scanning for overlapping command aliases...");
 
-        // Scan through commands to see if there are any duplicate aliases
-        List<String> commandAliases = new ArrayList<>();
-        List<String> duplicateCommands = new ArrayList<>();
+        // Fails if there are any duplicate aliases
+        aliasIndex = new AliasIndex(commands);
+        commands = Collections.unmodifiableList(commands);
+        logger.debug("Indexed " + aliasIndex.size() + " command names and aliases");
 
-        for(CommandBase cmd : commands){
-            for(int i = -1; i < cmd.getAliases().length; i++){
-                // Loop through command and all aliases in command
-                String alias = (i == -1 ? cmd.getCommand() : cmd.getAliases()[i]);
-
-                if(commandAliases.contains(alias)){
-                    duplicateCommands.add(alias);
-                }
-                else commandAliases.add(alias);
-            }
-        }
-
-        if(duplicateCommands.size() > 0){
-            logger.error("There are duplicate command aliases!");
-            logger.error(StringUtil.join(duplicateCommands.toArray(new String[0])), ", ");
-        }
-        else logger.debug("Overlap check complete");
+        metrics = new MetricsRegistry(commands, mastr.getCacheManager().getUserCache(), mastr.getCacheManager().getGuildCache());
+        metrics.registerMBeans();
 
         logger.info("CommandHandler loaded");
     }
 
+    /**
+     * Sets the ID of the bot's own user, which is only known once a shard has logged in
+     *
+     * @param mastrId ID of the bot's user
+     */
+    public void setSelfUser(String mastrId){
+        this.mastrId = mastrId;
+        mention = "<@" + mastrId + ">";
+        nicknameMention = "<@!" + mastrId + ">";
+    }
+
     /**
      * Initial handling of incoming bot messages.
-     * Looks for the guild prefix, handles pinging the bot to check the prefix, and passes on execution of commands to
-     * parseCommand()
+     * Looks for the guild prefix or a mention of the bot and resolves the command being called. This only needs the guild's
+     * prefix, so messages that aren't commands can be discarded before any user or guild data is loaded.
      *
-     * @param e Message event
+     * @param message Message to parse
+     * @param guildId ID of the guild the message was sent in
+     * @return Future of the parsed command (null if the message isn't a command), already completed if the prefix was cached
      */
-    public void handleMessage(MessageReceivedEvent e, BotUser user, BotGuild guild){
-        String content = e.getMessage().getContentRaw();
-        String contentLower = content.toLowerCase();
-        String prefix = retrievePrefix(e.getGuild().getIdLong());
+    public CompletableFuture<ParsedCommand> parseMessage(Message message, long guildId){
+        String cached = mastr.getCacheManager().getPrefix(guildId);
+        if(cached != null) return CompletableFuture.completedFuture(parseMessage(message, cached));
 
-        if(contentLower.startsWith(prefix + " ")){
-            parseCommand(e.getMember(), e.getTextChannel(), e.getMessage(), prefix + " ", user, guild);
-        }
-        else if(contentLower.startsWith(prefix)){
-            parseCommand(e.getMember(), e.getTextChannel(), e.getMessage(), prefix, user, guild);
+        return retrievePrefixAsync(guildId).thenApply(prefix -> parseMessage(message, prefix));
+    }
+
+    private ParsedCommand parseMessage(Message message, String prefix){
+        long start = System.nanoTime();
+        String content = message.getContentRaw();
+
+        if(content.regionMatches(true, 0, prefix, 0, prefix.length())){
+            return parseCommand(content, prefix.length(), prefix, start);
         }
-        else if(content.startsWith("<@" + mastrId + ">")){
-            if(content.trim().length() == 21){
-                e.getChannel().sendMessage("Hey! My prefix for this server is `" + prefix.trim() + "`. If you need help, you can use `" + prefix + "help` or DM me!" +
-                        "\nIf you don't like remembering bot prefixes, mentioning me works as a command prefix as well.").queue();
-            }
-            else parseCommand(e.getMember(), e.getTextChannel(), e.getMessage(), "<@" + mastrId + "> ", user, guild);
+
+        int mentionLength = 0;
+        if(content.startsWith(mention)) mentionLength = mention.length();
+        else if(content.startsWith(nicknameMention)) mentionLength = nicknameMention.length();
+
+        if(mentionLength > 0){
+            if(isBlank(content, mentionLength)) return ParsedCommand.mention(prefix);
+            else return parseCommand(content, mentionLength, prefix, start);
         }
-        else if(content.startsWith("<@!" + mastrId + ">")){
-            if(content.trim().length() == 22){
-                e.getChannel().sendMessage("Hey! My prefix for this server is `" + prefix.trim() + "`. If you need help, you can use `" + prefix + "help` or DM me!" +
-                        "\nIf you don't like remembering bot prefixes, mentioning me works as a command prefix as well.").queue();
-            }
-            else parseCommand(e.getMember(), e.getTextChannel(), e.getMessage(), "<@!" + mastrId + "> ", user, guild);
+
+        return null;
+    }
+
+    //  |
+    //  |
+    //  \/
+    /**
+     * Splits the content of a message into the command and its arguments.
+     * The command is looked up straight from the message content, and arguments stay offsets into it until they are used.
+     *
+     * @param content Raw content of the message
+     * @param offset Index after the prefix used to call the command
+     * @param guildPrefix Prefix of the guild
+     * @param start {@link System#nanoTime()} from when parsing started
+     * @return The parsed command, or null if no command matches
+     */
+    private ParsedCommand parseCommand(String content, int offset, String guildPrefix, long start){
+        TokenizedString tokens = TokenizedString.split(content, offset, true);
+        if(tokens.isEmpty()) return null;
+
+        CommandBase cmd = tokens.isPlain(0) ? aliasIndex.get(content, tokens.start(0), tokens.end(0)) : aliasIndex.get(tokens.get(0));
+        if(cmd == null) return null;
+
+        return new ParsedCommand(cmd, tokens, guildPrefix, start);
+    }
+
+    private static boolean isBlank(String content, int from){
+        for(int i = from; i < content.length(); i++){
+            if(content.charAt(i) > ' ') return false;
         }
+
+        return true;
     }
 
     //  |
     //  |
     //  \/
     /**
-     * Handles parsing of incoming commands triggered with the Mastr alias
+     * Handles a parsed command once the user and guild it was called by are known and allowed to use the bot.
+     * The command is queued on the {@link CommandExecutor} rather than run on the calling thread.
      *
+     * @param parsed Parsed command
      * @param author Executor of the command
      * @param channel Channel in which the command was executed in
      * @param message Message containing the command
-     * @param prefix Prefix used to execute the command
+     * @param user BotUser of the command
+     * @param guild BotGuild the command was ran in
      */
-    public void parseCommand(Member author, MessageChannel channel, Message message, String prefix, BotUser user, BotGuild guild){
-        // Get information about the command
-        String content = message.getContentRaw();
-        String contentNoPrefix = content.substring(prefix.length());
-        List<String> argsWithCommandList = StringUtil.splitBySpaces(contentNoPrefix, true);
-        CommandBase cmd = searchForCommand(argsWithCommandList.get(0));
-        if(cmd == null) return;
-
-        // Get args and execute command
-        String[] args = new String[argsWithCommandList.size()-1];
-        if(argsWithCommandList.size() != 1) args = argsWithCommandList.subList(1, argsWithCommandList.size()).toArray(args);
+    public void handleCommand(ParsedCommand parsed, Member author, MessageChannel channel, Message message, BotUser user, BotGuild guild){
+        if(parsed.isMentionOnly()){
+            String prefix = parsed.getPrefix();
+            channel.sendMessage("Hey! My prefix for this server is `" + prefix.trim() + "`. If you need help, you can use `" + prefix + "help` or DM me!" +
+                    "\nIf you don't like remembering bot prefixes, mentioning me works as a command prefix as well.").queue();
+            return;
+        }
 
-        executeCommand(cmd, author, channel, message, args, user, guild);
+        CommandBase cmd = parsed.getCommand();
+        long enqueuedAt = System.nanoTime();
+        metrics.record(cmd, Stage.PARSE, parsed.getParseNanos());
+        metrics.record(cmd, Stage.DATABASE, enqueuedAt - parsed.getParsedAt());
+
+        // Only parsing happens on the event thread, the command itself runs on its guild's lane
+        boolean queued = mastr.getCommandExecutor().submit(guild.getGuildId(), () -> {
+            metrics.record(cmd, Stage.QUEUE_WAIT, System.nanoTime() - enqueuedAt);
+            executeCommand(parsed, author, channel, message, user, guild);
+        });
+        if(!queued){
+            metrics.rejected(cmd);
+            channel.sendMessage(EmoteConstants.X_SYMBOL + " I'm handling too many commands in this server right now, please try again in a moment.").queue();
+        }
     }
 
     //  |
@@ -148,40 +197,56 @@ public class CommandHandler {
     /**
      * Executes the given command.
      *
-     * @param cmd Command to be executed
+     * @param parsed Command to be executed along with its arguments
      * @param author Member author of the command
      * @param channel Channel the command was executed in
      * @param message Message containing the command
-     * @param args Arguments of the command
      * @param user BotUser of the command
      * @param guild BotGuild the command was ran in
      */
-    public void executeCommand(CommandBase cmd, Member author, MessageChannel channel, Message message, String[] args, BotUser user, BotGuild guild)  {
-        logger.debug("Command " + cmd.getCommand() + " received from user " + author.getUser().getName() + " (" + author.getUser().getId() + ") in guild " + author.getGuild().getName() + " (" + author.getGuild().getId() + ")");
+    public void executeCommand(ParsedCommand parsed, Member author, MessageChannel channel, Message message, BotUser user, BotGuild guild)  {
+        CommandBase cmd = parsed.getCommand();
+        if(logger.isDebugEnabled()){
+            logger.debug("Command " + cmd.getCommand() + " received from user " + author.getUser().getName() + " (" + author.getUser().getId() + ") in guild " + author.getGuild().getName() + " (" + author.getGuild().getId() + ")");
+        }
+
         try{
-            if(!user.getRole().isAtOrAbove(cmd.getMinimumRole())){
+            long permissionStart = System.nanoTime();
+            boolean permitted = user.getRole().isAtOrAbove(cmd.getMinimumRole());
+            metrics.record(cmd, Stage.PERMISSION, System.nanoTime() - permissionStart);
+            if(!permitted){
                 channel.sendMessage(EmoteConstants.X_SYMBOL + " You must be a `" + cmd.getMinimumRole().getName() + "` or above to run this command.").queue();
                 return;
             }
 
-            CommandEvent e = new CommandEvent(mastr, author, guild, user, channel, message, args);
+            CommandEvent e = new CommandEvent(mastr, author, guild, user, channel, message, parsed.getTokens(), 1);
             boolean properCall = cmd.called(e);
             if(properCall){
+                // Counts are buffered and written in bulk by the UsageCounter, the local increments keep these objects accurate
                 user.incrementTimesUsed();
-                user.set(mastr.getDatabaseManager());
                 guild.incrementTimesUsed();
-                guild.set(mastr.getDatabaseManager());
+                mastr.getUsageCounter().incrementUser(user.getUserId());
+                mastr.getUsageCounter().incrementGuild(guild.getGuildId());
 
-                cmd.execute(e);
+                metrics.invoked(cmd);
+                long executionStart = System.nanoTime();
+                try{
+                    cmd.execute(e);
+                }
+                finally{
+                    metrics.record(cmd, Stage.EXECUTION, System.nanoTime() - executionStart);
+                }
             }
             else{
                 channel.sendMessage(EmoteConstants.X_SYMBOL + " Wrong command usage.").queue();
             }
         }
         catch(InsufficientPermissionException ex){
+            metrics.failed(cmd);
             channel.sendMessage(EmoteConstants.X_SYMBOL + " I need the permission: " + ex.getPermission().getName()).queue();
         }
         catch(Exception ex){
+            metrics.failed(cmd);
             channel.sendMessage(EmoteConstants.X_SYMBOL + " An error occurred.").queue();
             logger.debug("An error has occurred running " + cmd.getCommand() + ": ", ex);
         }
@@ -194,39 +259,46 @@ public class CommandHandler {
      * @return CommandBase from the search (null if not found)
      */
     public CommandBase searchForCommand(String command){
-        command = command.toLowerCase();
-        for(CommandBase cmd : commands){
-            for(int i = -1; i < cmd.getAliases().length; i++){
-                String alias = (i == -1 ? cmd.getCommand() : cmd.getAliases()[i]);
-                if(command.equals(alias)) return cmd;
-            }
-        }
-
-        return null;
+        return aliasIndex.get(command);
     }
 
     /**
-     * Attempt to get the cached prefix for a guild, or if not cached, get from the database
+     * Attempt to get the cached prefix for a guild, or if not cached, get from the database.
+     * Guilds which aren't in the database yet use the default prefix; they are only created once they run a command.
      *
      * @param guildId ID of the guild to search for
-     * @return Prefix for the guild (null if invalid guild)
+     * @return Prefix for the guild
      */
     public String retrievePrefix(long guildId){
         String cached = mastr.getCacheManager().getPrefix(guildId);
 
         if(cached != null) return cached;
 
-        String prefix = mastr.getDatabaseManager().getGuildPrefix(guildId);
+        String prefix = mastr.getDatabaseManager().getGuildPrefix(guildId, false);
+        if(prefix == null) prefix = BotGuild.DEFAULT_PREFIX;
         mastr.getCacheManager().setPrefix(guildId, prefix);
         return prefix;
     }
 
-    public <T extends CommandBase> T getCommand(Class<T> clazz){
-        for(CommandBase cmd : commands){
-            if(cmd.getClass() == clazz) return clazz.cast(cmd);
-        }
+    /**
+     * Attempt to get the cached prefix for a guild, or if not cached, get it from the database without blocking
+     *
+     * @param guildId ID of the guild to search for
+     * @return Future of the prefix for the guild
+     */
+    public CompletableFuture<String> retrievePrefixAsync(long guildId){
+        String cached = mastr.getCacheManager().getPrefix(guildId);
+        if(cached != null) return CompletableFuture.completedFuture(cached);
 
-        return null;
+        return mastr.getDatabaseManager().getGuildPrefixAsync(guildId).thenApply(prefix -> {
+            if(prefix == null) prefix = BotGuild.DEFAULT_PREFIX;
+            mastr.getCacheManager().setPrefix(guildId, prefix);
+            return prefix;
+        });
+    }
+
+    public <T extends CommandBase> T getCommand(Class<T> clazz){
+        return aliasIndex.get(clazz);
     }
 
     public List<CommandBase> getCommands() {
@@ -234,17 +306,14 @@ public class CommandHandler {
     }
 
     public CommandBase getCommand(String name){
-        name = name.toLowerCase();
-
-        for(CommandBase cmd : commands){
-            for(int i = -1; i < cmd.getAliases().length; i++){
-                // Loop through command and all aliases in command
-                String alias = (i == -1 ? cmd.getCommand() : cmd.getAliases()[i]);
+        return aliasIndex.get(name);
+    }
 
-                if(name.equals(alias.toLowerCase())) return cmd;
-            }
-        }
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
 
-        return null;
+    public AliasIndex getAliasIndex() {
+        return aliasIndex;
     }
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.command;
+
+import com.okgabe.mastr2.util.TokenizedString;
+
+/**
+ * A message which has been recognized as a command, before any user or guild data is loaded for it.
+ */
+public class ParsedCommand {
+
+    private final CommandBase command;
+    private final TokenizedString tokens;
+    private final String prefix;
+    private final long parseNanos;
+    private final long parsedAt;
+
+    /**
+     * @param command Command being called
+     * @param tokens Message content after the prefix, where the first token is the command's name or alias
+     * @param prefix Prefix of the guild
+     * @param parseStart {@link System#nanoTime()} from when parsing started
+     */
+    public ParsedCommand(CommandBase command, TokenizedString tokens, String prefix, long parseStart) {
+        this.command = command;
+        this.tokens = tokens;
+        this.prefix = prefix;
+        this.parsedAt = System.nanoTime();
+        this.parseNanos = parsedAt - parseStart;
+    }
+
+    /**
+     * Creates a ParsedCommand for a message that only mentions the bot, which is answered with the guild's prefix
+     *
+     * @param prefix Prefix of the guild
+     * @return ParsedCommand without a command
+     */
+    public static ParsedCommand mention(String prefix){
+        return new ParsedCommand(null, null, prefix, System.nanoTime());
+    }
+
+    public boolean isMentionOnly(){
+        return command == null;
+    }
+
+    public CommandBase getCommand() {
+        return command;
+    }
+
+    public TokenizedString getTokens() {
+        return tokens;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return Time spent parsing the message, in nanoseconds
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} from when parsing finished
+     */
+    public long getParsedAt() {
+        return parsedAt;
+    }
+}
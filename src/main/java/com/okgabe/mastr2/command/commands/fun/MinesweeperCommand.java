@@ -15,77 +15,60 @@ import com.okgabe.mastr2.command.CommandEvent;
 import com.okgabe.mastr2.event.ResponseListener;
 import com.okgabe.mastr2.util.StringUtil;
 import net.dv8tion.jda.api.entities.ChannelType;
-import net.dv8tion.jda.api.entities.Emote;
+import net.dv8tion.jda.api.requests.GatewayIntent;
+import net.dv8tion.jda.api.utils.cache.CacheFlag;
 
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.function.Consumer;
+import java.util.function.LongFunction;
 
 public class MinesweeperCommand extends CommandBase {
     
     private static final int COLUMNS = 9;
     private static final int ROWS = 9;
     
-    private Emote bombEmote;
-    private Emote flagEmote;
-    private Emote oneEmote;
-    private Emote twoEmote;
-    private Emote threeEmote;
-    private Emote fourEmote;
-    private Emote fiveEmote;
-    private Emote sixEmote;
-    private Emote sevenEmote;
-    private Emote eightEmote;
-    private Emote nineEmote;
-
-    private Emote aEmote;
-    private Emote bEmote;
-    private Emote cEmote;
-    private Emote dEmote;
-    private Emote eEmote;
-    private Emote fEmote;
-    private Emote gEmote;
-    private Emote hEmote;
-    private Emote iEmote;
-
-    private Emote blankTile;
-
-    private String flag;
-    private String bomb;
+    private static final long BOMB_EMOTE = 746599421764173944L;
+    private static final long FLAG_EMOTE = 746601049854574694L;
+    private static final long BLANK_EMOTE = 746647537913561128L;
+    private static final long[] NUMBER_EMOTES = {746642432728236092L, 746642432690487307L, 746642432770179173L, 746642432732561508L,
+            746642432522715178L, 746642432472514581L, 746642432342491210L, 746642432736755752L, 746642432745013308L};
+    private static final long[] LETTER_EMOTES = {746645135760293908L, 746645135671951401L, 746645135412166748L, 746645135688728606L,
+            746645135630008360L, 746645135592521769L, 746645135609036841L, 746645135328018463L, 746645135663562782L};
+
+    private final LongFunction<String> emoteResolver;
+    private volatile Emotes emotes;
 
     public MinesweeperCommand(Mastr mastr) {
+        this(mastr, id -> mastr.getShardManager().getEmoteById(id).getAsMention());
+    }
+
+    /**
+     * @param mastr Bot instance
+     * @param emoteResolver Gets the mention of an emote by its ID. Emotes are only resolved once the first board is made.
+     */
+    MinesweeperCommand(Mastr mastr, LongFunction<String> emoteResolver) {
         super(mastr);
         this.command = "minesweeper";
         this.description = "Gives you a playable game of Minesweeper!";
         this.aliases = new String[] {"msw"};
         this.category = CommandCategory.FUN;
         this.syntax = new String[] {""};
-        
-        bombEmote = mastr.getShardManager().getEmoteById(746599421764173944L);
-        flagEmote = mastr.getShardManager().getEmoteById(746601049854574694L);
-        oneEmote = mastr.getShardManager().getEmoteById(746642432728236092L);
-        twoEmote = mastr.getShardManager().getEmoteById(746642432690487307L);
-        threeEmote = mastr.getShardManager().getEmoteById(746642432770179173L);
-        fourEmote = mastr.getShardManager().getEmoteById(746642432732561508L);
-        fiveEmote = mastr.getShardManager().getEmoteById(746642432522715178L);
-        sixEmote = mastr.getShardManager().getEmoteById(746642432472514581L);
-        sevenEmote = mastr.getShardManager().getEmoteById(746642432342491210L);
-        eightEmote = mastr.getShardManager().getEmoteById(746642432736755752L);
-        nineEmote = mastr.getShardManager().getEmoteById(746642432745013308L);
-
-        aEmote = mastr.getShardManager().getEmoteById(746645135760293908L);
-        bEmote = mastr.getShardManager().getEmoteById(746645135671951401L);
-        cEmote = mastr.getShardManager().getEmoteById(746645135412166748L);
-        dEmote = mastr.getShardManager().getEmoteById(746645135688728606L);
-        eEmote = mastr.getShardManager().getEmoteById(746645135630008360L);
-        fEmote = mastr.getShardManager().getEmoteById(746645135592521769L);
-        gEmote = mastr.getShardManager().getEmoteById(746645135609036841L);
-        hEmote = mastr.getShardManager().getEmoteById(746645135328018463L);
-        iEmote = mastr.getShardManager().getEmoteById(746645135663562782L);
-
-        blankTile = mastr.getShardManager().getEmoteById(746647537913561128L);
-
-        flag = flagEmote.getAsMention();
-        bomb = bombEmote.getAsMention();
+        // Moves are read from the player's messages, and the board's emotes are looked up in the emote cache
+        this.requiredIntents = EnumSet.of(GatewayIntent.GUILD_MESSAGES);
+        this.requiredCacheFlags = EnumSet.of(CacheFlag.EMOTE);
+        this.emoteResolver = emoteResolver;
+    }
+
+    private Emotes emotes(){
+        Emotes resolved = emotes;
+        if(resolved == null){
+            // Resolving twice at the same time is harmless, both threads get the same mentions
+            resolved = new Emotes(emoteResolver);
+            emotes = resolved;
+        }
+
+        return resolved;
     }
 
     @Override
@@ -95,6 +78,7 @@ public class MinesweeperCommand extends CommandBase {
 
     @Override
     public void execute(CommandEvent e) {
+        String flag = emotes().flag;
         String[][] minesweeperOriginal = generateMinesweeper(10);
         String[][] minesweeperCopy = copy(minesweeperOriginal);
         String minesweeperString = minesweeperToString(minesweeperOriginal);
@@ -137,7 +121,7 @@ public class MinesweeperCommand extends CommandBase {
                         if (tile.equals(flag)) {
                             tile = minesweeperOriginal[row][col];
                         } else {
-                            tile = flagEmote.getAsMention();
+                            tile = flag;
                         }
                         minesweeperCopy[row][col] = tile;
 
@@ -169,6 +153,7 @@ public class MinesweeperCommand extends CommandBase {
     }
 
     public String minesweeperToString(String[][] field){
+        String flag = emotes().flag;
         // Convert to disc message
         StringBuilder message = new StringBuilder();
         for(int x = 0; x < field.length; x++){
@@ -185,7 +170,7 @@ public class MinesweeperCommand extends CommandBase {
 
         String msw = message.substring(0, message.length()-2);
         StringBuilder topRow = new StringBuilder();
-        topRow.append(blankTile.getAsMention()).append(" ");
+        topRow.append(emotes().blank).append(" ");
         for(int i = 0; i < field[0].length; i++){
             topRow.append(letterToEmoji(StringUtil.numberToAlphabet(i))).append(" ");
         }
@@ -195,6 +180,7 @@ public class MinesweeperCommand extends CommandBase {
     }
 
     public String[][] generateMinesweeper(int mines){
+        String bomb = emotes().bomb;
         String[][] field = new String[ROWS][COLUMNS];
 
         // Fill with zeroes
@@ -268,52 +254,35 @@ public class MinesweeperCommand extends CommandBase {
     }
 
     private String numberToEmoji(int x){
-        switch(x){
-            case 1:
-                return oneEmote.getAsMention();
-            case 2:
-                return twoEmote.getAsMention();
-            case 3:
-                return threeEmote.getAsMention();
-            case 4:
-                return fourEmote.getAsMention();
-            case 5:
-                return fiveEmote.getAsMention();
-            case 6:
-                return sixEmote.getAsMention();
-            case 7:
-                return sevenEmote.getAsMention();
-            case 8:
-                return eightEmote.getAsMention();
-            case 9:
-                return nineEmote.getAsMention();
-            default:
-                return null;
-        }
+        if(x < 1 || x > NUMBER_EMOTES.length) return null;
+        return emotes().numbers[x - 1];
     }
 
     private String letterToEmoji(char c){
-        switch(c){
-            case 'a':
-                return aEmote.getAsMention();
-            case 'b':
-                return bEmote.getAsMention();
-            case 'c':
-                return cEmote.getAsMention();
-            case 'd':
-                return dEmote.getAsMention();
-            case 'e':
-                return eEmote.getAsMention();
-            case 'f':
-                return fEmote.getAsMention();
-            case 'g':
-                return gEmote.getAsMention();
-            case 'h':
-                return hEmote.getAsMention();
-            case 'i':
-                return iEmote.getAsMention();
-            default:
-                return null;
+        int index = c - 'a';
+        if(index < 0 || index >= LETTER_EMOTES.length) return null;
+        return emotes().letters[index];
+    }
+
+    private static final class Emotes {
+        private final String bomb;
+        private final String flag;
+        private final String blank;
+        private final String[] numbers;
+        private final String[] letters;
+
+        private Emotes(LongFunction<String> resolver){
+            bomb = resolver.apply(BOMB_EMOTE);
+            flag = resolver.apply(FLAG_EMOTE);
+            blank = resolver.apply(BLANK_EMOTE);
+            numbers = new String[NUMBER_EMOTES.length];
+            for(int i = 0; i < numbers.length; i++){
+                numbers[i] = resolver.apply(NUMBER_EMOTES[i]);
+            }
+            letters = new String[LETTER_EMOTES.length];
+            for(int i = 0; i < letters.length; i++){
+                letters[i] = resolver.apply(LETTER_EMOTES[i]);
+            }
         }
     }
 
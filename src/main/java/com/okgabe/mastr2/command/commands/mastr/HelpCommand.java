@@ -20,6 +20,7 @@ import com.okgabe.mastr2.util.StringUtil;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.*;
+import net.dv8tion.jda.api.requests.GatewayIntent;
 import net.dv8tion.jda.api.requests.RestAction;
 
 import java.util.*;
@@ -49,6 +50,8 @@ public class HelpCommand extends CommandBase {
         this.category = CommandCategory.MASTR;
         this.syntax = new String[] {"[page] - Browse the bot's commands", "<command> - Command-specific help"};
         this.examples = new String[] {"help 4", "help kick"};
+        // Pages are turned with reactions, in the server and in the copy sent to the user's inbox
+        this.requiredIntents = EnumSet.of(GatewayIntent.GUILD_MESSAGE_REACTIONS, GatewayIntent.DIRECT_MESSAGE_REACTIONS);
 
         helpPages = new ArrayList<>();
         adminHelpPages = new ArrayList<>();
@@ -64,7 +67,7 @@ public class HelpCommand extends CommandBase {
     public void execute(CommandEvent e) {
         boolean isAdmin =  e.getBotUser().getRole().isAtOrAbove(BotRole.BOT_ADMINISTRATOR);
 
-        if(e.getArgs().length == 0){
+        if(e.getArgCount() == 0){
             sendHelpEmbed(e.getAuthor().getUser(), e.getChannel(), -1, isAdmin);
         }
         else{
@@ -33,11 +33,11 @@ public class PrefixCommand extends CommandBase {
 
     @Override
     public void execute(CommandEvent e) {
-        if(e.getArgs().length == 0){
+        if(e.getArgCount() == 0){
             e.reply("This server's prefix is `" + e.getBotGuild().getPrefix() + "`").queue();
             return;
         }
-        else if(e.getArgs().length>2){
+        else if(e.getArgCount()>2){
             e.replyError("Your prefix must not have more than one space").queue();
             return;
         }
@@ -29,7 +29,7 @@ public class SayCommand extends CommandBase {
 
     @Override
     public boolean called(CommandEvent e) {
-        return e.getArgs().length > 0;
+        return e.getArgCount() > 0;
     }
 
     @Override
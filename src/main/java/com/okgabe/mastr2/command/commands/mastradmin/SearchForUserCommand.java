@@ -28,7 +28,7 @@ public class SearchForUserCommand extends CommandBase {
 
     @Override
     public boolean called(CommandEvent e) {
-        return e.getArgs().length > 0;
+        return e.getArgCount() > 0;
     }
 
     @Override
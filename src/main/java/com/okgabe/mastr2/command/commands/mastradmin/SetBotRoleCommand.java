@@ -29,7 +29,7 @@ public class SetBotRoleCommand extends CommandBase {
 
     @Override
     public boolean called(CommandEvent e) {
-        return e.getArgs().length > 1;
+        return e.getArgCount() > 1;
     }
 
     @Override
@@ -40,7 +40,7 @@ public class SetBotRoleCommand extends CommandBase {
         }
 
         long id = Long.parseLong(e.getArgs()[0]);
-        BotUser targetUser = mastr.getDatabaseManager().getBotUser(id, false);
+        BotUser targetUser = mastr.getCacheManager().getBotUser(id, false);
         if(targetUser.getRole() == BotRole.UNKNOWN){
             e.replyError("The specified user does not exist").queue();
             return;
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.command.commands.mastradmin;
+
+import com.okgabe.mastr2.Mastr;
+import com.okgabe.mastr2.command.CommandBase;
+import com.okgabe.mastr2.command.CommandCategory;
+import com.okgabe.mastr2.command.CommandEvent;
+import com.okgabe.mastr2.permission.BotRole;
+
+public class ShutdownCommand extends CommandBase {
+
+    public ShutdownCommand(Mastr mastr) {
+        super(mastr);
+        this.command = "shutdown";
+        this.description = "Stops the bot once running commands are done. Use this before restarting it.";
+        this.category = CommandCategory.MASTR_ADMIN;
+        this.syntax = new String[] {""};
+        this.minimumRole = BotRole.BOT_MANAGER;
+    }
+
+    @Override
+    public boolean called(CommandEvent e) {
+        return e.getArgCount() == 0;
+    }
+
+    @Override
+    public void execute(CommandEvent e) {
+        // Shutting down waits for this command to finish, so it mustn't happen on this thread
+        e.reply("Shutting down...").submit().whenComplete((message, ex) -> mastr.getShutdownCoordinator().shutdownAndExit());
+    }
+}
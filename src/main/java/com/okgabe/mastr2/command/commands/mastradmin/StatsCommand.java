@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.command.commands.mastradmin;
+
+import com.okgabe.mastr2.Mastr;
+import com.okgabe.mastr2.command.CommandBase;
+import com.okgabe.mastr2.command.CommandCategory;
+import com.okgabe.mastr2.command.CommandEvent;
+import com.okgabe.mastr2.metrics.*;
+import com.okgabe.mastr2.permission.BotRole;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+public class StatsCommand extends CommandBase {
+
+    private static final int TOP_COMMANDS = 10;
+
+    public StatsCommand(Mastr mastr) {
+        super(mastr);
+        this.command = "stats";
+        this.aliases = new String[] {"metrics"};
+        this.category = CommandCategory.MASTR_ADMIN;
+        this.description = "Shows how often commands are used and how long they take.";
+        this.minimumRole = BotRole.BOT_STAFF;
+        this.syntax = new String[] {"", "<command>"};
+        this.examples = new String[] {"", "purge"};
+    }
+
+    @Override
+    public boolean called(CommandEvent e) {
+        return e.getArgCount() < 2;
+    }
+
+    @Override
+    public void execute(CommandEvent e) {
+        MetricsRegistry metrics = mastr.getCommandHandler().getMetrics();
+
+        if(e.getArgCount() == 0){
+            e.reply(overview(metrics)).queue();
+            return;
+        }
+
+        CommandBase cmd = mastr.getCommandHandler().searchForCommand(e.getArg(0));
+        if(cmd == null){
+            e.replyError("There is no command called `" + e.getArg(0) + "`.").queue();
+            return;
+        }
+
+        e.reply(details(metrics.getMetrics(cmd))).queue();
+    }
+
+    private String overview(MetricsRegistry metrics){
+        List<CommandMetrics> commands = new ArrayList<>(metrics.getCommandMetrics());
+        commands.sort(Comparator.comparingLong(CommandMetrics::getInvocations).reversed());
+
+        StringBuilder builder = new StringBuilder("```\n");
+        builder.append(String.format(Locale.ROOT, "%-14s %7s %6s %9s %9s\n", "Command", "Calls", "Errors", "p50 ms", "p99 ms"));
+        for(int i = 0; i < Math.min(TOP_COMMANDS, commands.size()); i++){
+            appendRow(builder, commands.get(i));
+        }
+
+        builder.append('\n').append(String.format(Locale.ROOT, "%-14s %7s %6s %9s %9s\n", "Category", "Calls", "Errors", "p50 ms", "p99 ms"));
+        for(CommandCategory category : CommandCategory.values()){
+            appendRow(builder, metrics.getMetrics(category));
+        }
+
+        builder.append('\n').append(String.format(Locale.ROOT, "%-14s %7s %9s %9s\n", "Cache", "Size", "Hit ratio", "Evictions"));
+        for(CacheStats cache : metrics.getCacheStats()){
+            builder.append(String.format(Locale.ROOT, "%-14s %7d %8.1f%% %9d\n", cache.getName(), cache.getSize(), cache.getHitRatio() * 100, cache.getEvictions()));
+        }
+
+        return builder.append("```").toString();
+    }
+
+    private static void appendRow(StringBuilder builder, CommandMetrics metrics){
+        LatencyHistogram execution = metrics.getHistogram(Stage.EXECUTION);
+        builder.append(String.format(Locale.ROOT, "%-14s %7d %6d %9.2f %9.2f\n", truncate(metrics.getName()), metrics.getInvocations(), metrics.getErrors(),
+                toMillis(execution.getPercentile(50)), toMillis(execution.getPercentile(99))));
+    }
+
+    private String details(CommandMetrics metrics){
+        StringBuilder builder = new StringBuilder("```\n");
+        builder.append(metrics.getName()).append(": ").append(metrics.getInvocations()).append(" calls, ").append(metrics.getErrors()).append(" errors, ")
+                .append(metrics.getRejections()).append(" rejected\n\n");
+        builder.append(String.format(Locale.ROOT, "%-11s %7s %9s %9s %9s %9s\n", "Stage", "Count", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+        for(Stage stage : Stage.values()){
+            LatencyHistogram histogram = metrics.getHistogram(stage);
+            builder.append(String.format(Locale.ROOT, "%-11s %7d %9.2f %9.2f %9.2f %9.2f\n", stage.getName(), histogram.getCount(),
+                    toMillis(histogram.getPercentile(50)), toMillis(histogram.getPercentile(90)), toMillis(histogram.getPercentile(99)), toMillis(histogram.getMax())));
+        }
+
+        return builder.append("```").toString();
+    }
+
+    private static String truncate(String name){
+        return name.length() > 14 ? name.substring(0, 13) + "…" : name;
+    }
+
+    private static double toMillis(long nanos){
+        return nanos / 1_000_000.0;
+    }
+}
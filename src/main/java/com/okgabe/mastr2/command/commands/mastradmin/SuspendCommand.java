@@ -31,7 +31,7 @@ public class SuspendCommand extends CommandBase {
 
     @Override
     public boolean called(CommandEvent e) {
-        return e.getArgs().length > 0 && e.getArgs().length < 3;
+        return e.getArgCount() > 0 && e.getArgCount() < 3;
         // suspend <userid> <time or leave blank for permanent>
     }
 
@@ -44,13 +44,13 @@ public class SuspendCommand extends CommandBase {
         }
 
         long id = Long.parseLong(e.getArgs()[0]);
-        BotUser target = mastr.getDatabaseManager().getBotUser(id);
+        BotUser target = mastr.getCacheManager().getBotUser(id);
         if(!e.getBotUser().getRole().isAtOrAbove(target.getRole())){
             e.replyError("You don't have permission to interact with this individual").queue();
             return;
         }
 
-        if(e.getArgs().length == 1){
+        if(e.getArgCount() == 1){
             boolean result = mastr.getPermissionManager().suspend(target);
             if(result){
                 e.replySuccess("That individual has been permanently suspended from use of Mastr").queue();
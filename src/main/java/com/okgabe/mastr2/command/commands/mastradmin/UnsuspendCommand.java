@@ -28,7 +28,7 @@ public class UnsuspendCommand extends CommandBase {
 
     @Override
     public boolean called(CommandEvent e) {
-        return e.getArgs().length == 1;
+        return e.getArgCount() == 1;
     }
 
     @Override
@@ -39,7 +39,7 @@ public class UnsuspendCommand extends CommandBase {
         }
 
         long id = Long.parseLong(e.getArgs()[0]);
-        BotUser target = mastr.getDatabaseManager().getBotUser(id);
+        BotUser target = mastr.getCacheManager().getBotUser(id);
         if(!e.getBotUser().getRole().isAtOrAbove(target.getRole())){
             e.replyError("You don't have permission to interact with this individual").queue();
             return;
@@ -13,16 +13,32 @@ import com.okgabe.mastr2.command.CommandBase;
 import com.okgabe.mastr2.command.CommandCategory;
 import com.okgabe.mastr2.command.CommandEvent;
 import com.okgabe.mastr2.permission.BotRole;
+import com.okgabe.mastr2.util.EmoteConstants;
 import com.okgabe.mastr2.util.StringUtil;
+import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.entities.EmbedType;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.MessageEmbed;
+import net.dv8tion.jda.api.entities.TextChannel;
+import net.dv8tion.jda.api.requests.RestAction;
+import net.dv8tion.jda.api.utils.TimeUtil;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 public class PurgeCommand extends CommandBase {
 
     public PurgeCommand(Mastr mastr) {
         super(mastr);
         this.command = "purge";
-        this.description = "Deletes up to a 100 messages in the chat.";
+        this.description = "Deletes messages in the chat, from the newest up to two weeks back.";
         this.category = CommandCategory.MODERATION;
         this.syntax = new String[] {"<amount> [users | bots | embeds | files | images | links | @user | \"quote\" | `regex` | to:id] - Specify filters for messages to purge."};
         this.aliases = new String[] {"prune", "clear"};
@@ -31,13 +47,156 @@ public class PurgeCommand extends CommandBase {
 
     @Override
     public boolean called(CommandEvent e) {
-        return e.getArgs().length > 0;
+        return e.getArgCount() > 0;
     }
 
     @Override
     public void execute(CommandEvent e) {
-        PurgeSettings settings = new PurgeSettings(e.getArgs());
+        if(!e.isInGuild()) return;
 
+        PurgeSettings settings = new PurgeSettings(e);
+        int limit = mastr.getConfig().getInt("purge limit", 5000);
+        if(settings.getAmount() < 1){
+            e.replyError("Please specify how many messages to purge.").queue();
+            return;
+        }
+        if(settings.getAmount() > limit){
+            e.replyError("I can only purge up to " + limit + " messages at once.").queue();
+            return;
+        }
+
+        TextChannel channel = e.getMessage().getTextChannel();
+        if(!e.getGuild().getSelfMember().hasPermission(channel, Permission.MESSAGE_MANAGE, Permission.MESSAGE_HISTORY)){
+            e.replyError("I need the Manage Messages and Read Message History permissions in this channel to purge it.").queue();
+            return;
+        }
+
+        Predicate<Message> filter;
+        try{
+            filter = settings.compile();
+        }
+        catch(PatternSyntaxException ex){
+            e.replyError("That regex is invalid: " + ex.getDescription()).queue();
+            return;
+        }
+
+        e.reply("Purging " + settings.getAmount() + " messages...", status ->
+                new Purge(channel, status, e.getMessage().getIdLong(), settings, filter).start());
+    }
+
+    /**
+     * Deletes the messages matching a filter, walking the channel's history from the newest message.
+     * History is read a page at a time without being kept, and matches are bulk deleted every 100 messages while the next pages load,
+     * so a purge only ever holds one page and one batch of IDs. Discord can't bulk delete messages older than two weeks, so the purge stops there.
+     */
+    private static class Purge {
+
+        private static final int PAGE_SIZE = 100;
+        private static final long BULK_DELETE_MAX_AGE = TimeUnit.DAYS.toMillis(14) - TimeUnit.MINUTES.toMillis(1);
+        private static final long STATUS_INTERVAL = TimeUnit.SECONDS.toNanos(2);
+
+        private final TextChannel channel;
+        private final Message status;
+        private final long commandId;
+        private final int amount;
+        private final long upTo;
+        private final Predicate<Message> filter;
+        private final long oldestId;
+
+        private final AtomicInteger deleted;
+        private List<Long> batch;
+        private CompletableFuture<Void> deletions;
+        private int matched;
+        private int scanned;
+        private boolean reachedAgeLimit;
+        private long lastStatus;
+
+        private Purge(TextChannel channel, Message status, long commandId, PurgeSettings settings, Predicate<Message> filter) {
+            this.channel = channel;
+            this.status = status;
+            this.commandId = commandId;
+            this.amount = settings.getAmount();
+            this.upTo = settings.getUpTo();
+            this.filter = filter;
+            this.oldestId = TimeUtil.getDiscordTimestamp(System.currentTimeMillis() - BULK_DELETE_MAX_AGE);
+            this.deleted = new AtomicInteger();
+            this.batch = new ArrayList<>(PAGE_SIZE);
+            this.deletions = CompletableFuture.completedFuture(null);
+            this.lastStatus = System.nanoTime();
+        }
+
+        private void start(){
+            channel.getIterableHistory().cache(false).limit(PAGE_SIZE).forEachAsync(this::accept).whenComplete((v, ex) -> {
+                deleteBatch();
+                deletions.whenComplete((done, deleteEx) -> finish(ex != null ? ex : deleteEx));
+            });
+        }
+
+        // Called for every message, newest first, on one thread at a time. Returning false stops the walk.
+        private boolean accept(Message message){
+            long id = message.getIdLong();
+            if(id == commandId || id == status.getIdLong()) return true;
+            if(upTo != 0 && id < upTo) return false;
+            if(id < oldestId){
+                reachedAgeLimit = true;
+                return false;
+            }
+
+            scanned++;
+            if(filter.test(message)){
+                batch.add(id);
+                matched++;
+                if(batch.size() == PAGE_SIZE) deleteBatch();
+            }
+            if(scanned % PAGE_SIZE == 0) updateStatus();
+
+            return matched < amount;
+        }
+
+        private void deleteBatch(){
+            if(batch.isEmpty()) return;
+
+            List<Long> ids = batch;
+            batch = new ArrayList<>(PAGE_SIZE);
+            // Batches go out one after another, JDA spaces them out to stay within the rate limit
+            deletions = deletions.thenCompose(v -> delete(ids).submit()).handle((v, ex) -> {
+                if(ex == null) deleted.addAndGet(ids.size());
+                return null;
+            });
+        }
+
+        private RestAction<Void> delete(List<Long> ids){
+            // Bulk deletes need at least two messages
+            if(ids.size() == 1) return channel.deleteMessageById(ids.get(0));
+
+            List<String> stringIds = new ArrayList<>(ids.size());
+            for(long id : ids){
+                stringIds.add(Long.toString(id));
+            }
+            return channel.deleteMessagesByIds(stringIds);
+        }
+
+        private void updateStatus(){
+            long now = System.nanoTime();
+            if(now - lastStatus < STATUS_INTERVAL) return;
+
+            lastStatus = now;
+            status.editMessage("Purging... " + deleted.get() + " deleted, " + matched + "/" + amount + " found in " + scanned + " messages").queue();
+        }
+
+        private void finish(Throwable ex){
+            StringBuilder sb = new StringBuilder();
+            if(ex != null){
+                sb.append(EmoteConstants.X_SYMBOL).append(" The purge was interrupted after deleting ").append(deleted.get()).append(" messages.");
+            }
+            else{
+                sb.append(EmoteConstants.CHECK_SYMBOL).append(" Deleted ").append(deleted.get()).append(" messages.");
+                if(deleted.get() < matched) sb.append(" ").append(matched - deleted.get()).append(" couldn't be deleted.");
+                if(reachedAgeLimit && matched < amount) sb.append(" Messages older than two weeks can't be purged.");
+            }
+
+            status.editMessage(sb.toString()).queue();
+        }
     }
 
     public static class PurgeSettings {
@@ -75,11 +234,18 @@ public class PurgeCommand extends CommandBase {
             amount = 0;
         }
 
-        public PurgeSettings(String[] arguments){
+        /**
+         * @param e Command event holding the arguments. Quotes are already stripped from them, so the event tells which were quoted.
+         */
+        public PurgeSettings(CommandEvent e){
+            this();
             // Regex isn't necessarily required to parse the arguments. I'm using this for speed and ease of use. I know Regex would be less verbose here, but this way is more flexible.
-            for(int i = 0; i < arguments.length; i++) {
-                String arg = arguments[i];
-                if (amount == 0 && StringUtil.isNumeric(arg)) {
+            for(int i = 0; i < e.getArgCount(); i++) {
+                String arg = e.getArg(i);
+                if (e.isArgQuoted(i)) {
+                    quote = arg;
+                // Longer numbers don't fit in an int, and are too many messages anyway
+                } else if (amount == 0 && StringUtil.isNumeric(arg) && arg.length() <= 9) {
                     amount = Integer.parseInt(arg);
                 } else if (arg.equalsIgnoreCase("users")) {
                     users = !users;
@@ -95,8 +261,6 @@ public class PurgeCommand extends CommandBase {
                     links = !links;
                 } else if(arg.equalsIgnoreCase("text")){
                     text = !text;
-                } else if (arg.startsWith("\"") && arg.endsWith("\"")) {
-                    quote = arg.substring(1, arg.length() - 1);
                 } else if (arg.startsWith("`") && arg.endsWith("`")) {
                     regex = arg.substring(1, arg.length() - 1);
                 } else if (arg.startsWith("<@!")) {
@@ -112,14 +276,14 @@ public class PurgeCommand extends CommandBase {
                 } else {
                     if(upTo != 0) continue;
                     String[] split = arg.split(":", 2);
-                    if (split[0].equalsIgnoreCase("upto") || split[0].equalsIgnoreCase("to")){
-                        if(arg.length() == 18 & StringUtil.isNumeric(arg)){
-                            upTo = Long.parseLong(arg);
+                    if (split.length == 2 && (split[0].equalsIgnoreCase("upto") || split[0].equalsIgnoreCase("to"))){
+                        String target = split[1];
+                        // Message links end with the message's ID
+                        if(target.startsWith("https://canary.discord.com/channels/") || target.startsWith("https://ptb.discord.com/channels/") || target.startsWith("https://discord.com/channels/")){
+                            target = target.substring(target.lastIndexOf('/') + 1);
                         }
-                        else if(arg.startsWith("https://canary.discord.com/channels") || arg.startsWith("https://discord.com/channels")){
-                            String potentialId = arg.substring(arg.length() - 18);
-                            if(StringUtil.isNumeric(potentialId))
-                                upTo = Long.parseLong(potentialId);
+                        if(StringUtil.isNumeric(target) && target.length() <= 19){
+                            upTo = Long.parseLong(target);
                         }
                     }
                 }
@@ -127,7 +291,63 @@ public class PurgeCommand extends CommandBase {
         }
 
         public boolean clearEverything(){
-            return !users && !bots && !embeds && !files && !images && !links && userIds.size()==0 && quote == null && regex == null;
+            return !users && !bots && !embeds && !files && !images && !links && !text && userIds.size()==0 && quote == null && regex == null;
+        }
+
+        /**
+         * Turns the settings into one filter. Author filters (users, bots, mentions) and content filters (everything else) each match
+         * if any of their options match, and a message must pass both. Checks are ordered from cheapest to most expensive, so the regex
+         * only runs on messages nothing else has decided on.
+         *
+         * @return Filter matching the messages to purge
+         * @throws PatternSyntaxException If the regex is invalid
+         */
+        public Predicate<Message> compile(){
+            // Both users and bots already means every author
+            Predicate<Message> author = null;
+            if(users != bots){
+                boolean wantBots = bots;
+                author = m -> m.getAuthor().isBot() == wantBots;
+            }
+            if(!userIds.isEmpty() && !(users && bots)){
+                long[] ids = userIds.stream().mapToLong(Long::longValue).sorted().toArray();
+                author = or(author, m -> Arrays.binarySearch(ids, m.getAuthor().getIdLong()) >= 0);
+            }
+
+            Predicate<Message> content = null;
+            if(embeds) content = or(content, m -> !m.getEmbeds().isEmpty());
+            if(files) content = or(content, m -> !m.getAttachments().isEmpty());
+            if(text) content = or(content, m -> m.getEmbeds().isEmpty() && m.getAttachments().isEmpty() && !m.getContentRaw().isEmpty());
+            if(images) content = or(content, PurgeSettings::hasImage);
+            if(links) content = or(content, m -> m.getContentRaw().contains("https://") || m.getContentRaw().contains("http://"));
+            if(quote != null){
+                String search = quote;
+                content = or(content, m -> StringUtil.containsIgnoreCase(m.getContentRaw(), search));
+            }
+            if(regex != null){
+                Pattern pattern = Pattern.compile(regex);
+                content = or(content, m -> pattern.matcher(m.getContentRaw()).find());
+            }
+
+            if(author == null && content == null) return m -> true;
+            if(author == null) return content;
+            if(content == null) return author;
+            return author.and(content);
+        }
+
+        private static Predicate<Message> or(Predicate<Message> first, Predicate<Message> second){
+            return first == null ? second : first.or(second);
+        }
+
+        private static boolean hasImage(Message message){
+            for(Message.Attachment attachment : message.getAttachments()){
+                if(attachment.isImage()) return true;
+            }
+            for(MessageEmbed embed : message.getEmbeds()){
+                if(embed.getType() == EmbedType.IMAGE) return true;
+            }
+
+            return false;
         }
 
         public ArrayList<Long> getUserIds() {
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.db;
+
+import com.okgabe.mastr2.entity.BotGuild;
+import com.okgabe.mastr2.util.GuildTier;
+import com.okgabe.mastr2.util.SuspensionCode;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+/**
+ * Reads and writes guilds straight from and to BSON, using the same fields as {@link com.okgabe.mastr2.entity.EntityAdaptor}.
+ * Fields missing from the document keep the values of a new guild.
+ */
+public class BotGuildCodec implements Codec<BotGuild> {
+
+    @Override
+    public BotGuild decode(BsonReader reader, DecoderContext decoderContext) {
+        long id = 0L;
+        String prefix = BotGuild.DEFAULT_PREFIX;
+        int timesUsed = 0;
+        GuildTier guildTier = GuildTier.DEFAULT;
+        SuspensionCode suspensionCode = SuspensionCode.UNSUSPENDED;
+
+        reader.readStartDocument();
+        while(reader.readBsonType() != BsonType.END_OF_DOCUMENT){
+            switch(reader.readName()){
+                case "_id": id = CodecUtil.readLong(reader); break;
+                case "prefix": prefix = reader.readString(); break;
+                case "timesUsed": timesUsed = CodecUtil.readInt(reader); break;
+                case "guildTier": guildTier = GuildTier.parse(CodecUtil.readInt(reader)); break;
+                case "suspensionCode": suspensionCode = SuspensionCode.parse(CodecUtil.readInt(reader)); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        return new BotGuild(id, prefix, timesUsed, guildTier, suspensionCode);
+    }
+
+    @Override
+    public void encode(BsonWriter writer, BotGuild guild, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writer.writeInt64("_id", guild.getGuildId());
+        writer.writeString("prefix", guild.getPrefix());
+        writer.writeInt32("timesUsed", guild.getTimesUsed());
+        writer.writeInt32("guildTier", guild.getGuildTier().getLevel());
+        writer.writeInt32("suspensionCode", guild.getSuspensionCode().getCode());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<BotGuild> getEncoderClass() {
+        return BotGuild.class;
+    }
+}
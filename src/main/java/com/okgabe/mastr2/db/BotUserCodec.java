@@ -0,0 +1,66 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.db;
+
+import com.okgabe.mastr2.entity.BotUser;
+import com.okgabe.mastr2.permission.BotRole;
+import com.okgabe.mastr2.util.SuspensionCode;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+/**
+ * Reads and writes users straight from and to BSON, using the same fields as {@link com.okgabe.mastr2.entity.EntityAdaptor}.
+ * Fields missing from the document keep the values of a new user.
+ */
+public class BotUserCodec implements Codec<BotUser> {
+
+    @Override
+    public BotUser decode(BsonReader reader, DecoderContext decoderContext) {
+        long id = 0L;
+        BotRole role = BotRole.DEFAULT;
+        int timesUsed = 0;
+        SuspensionCode suspensionCode = SuspensionCode.UNSUSPENDED;
+        long suspensionEnd = 0L;
+
+        reader.readStartDocument();
+        while(reader.readBsonType() != BsonType.END_OF_DOCUMENT){
+            switch(reader.readName()){
+                case "_id": id = CodecUtil.readLong(reader); break;
+                case "roleId": role = BotRole.parse(CodecUtil.readInt(reader)); break;
+                case "timesUsed": timesUsed = CodecUtil.readInt(reader); break;
+                case "suspensionCode": suspensionCode = SuspensionCode.parse(CodecUtil.readInt(reader)); break;
+                case "suspensionEnd": suspensionEnd = CodecUtil.readLong(reader); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        return new BotUser(id, role, timesUsed, suspensionCode, suspensionEnd);
+    }
+
+    @Override
+    public void encode(BsonWriter writer, BotUser user, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writer.writeInt64("_id", user.getUserId());
+        writer.writeInt32("roleId", user.getRole().getLevel());
+        writer.writeInt32("timesUsed", user.getTimesUsed());
+        writer.writeInt32("suspensionCode", user.getSuspensionCode().getCode());
+        writer.writeInt64("suspensionEnd", user.getSuspensionEnd());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<BotUser> getEncoderClass() {
+        return BotUser.class;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.db;
+
+import org.bson.BsonInvalidOperationException;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+
+/**
+ * Helpers shared by the entity codecs
+ */
+final class CodecUtil {
+
+    private CodecUtil(){}
+
+    /**
+     * Reads a number as an int. Counters changed through $inc can be stored as any numeric type.
+     *
+     * @param reader Reader positioned on the value
+     * @return Value as an int
+     */
+    static int readInt(BsonReader reader){
+        BsonType type = reader.getCurrentBsonType();
+        switch(type){
+            case INT32: return reader.readInt32();
+            case INT64: return (int) reader.readInt64();
+            case DOUBLE: return (int) reader.readDouble();
+            default: throw new BsonInvalidOperationException("Expected a number, got " + type);
+        }
+    }
+
+    /**
+     * Reads a number as a long
+     *
+     * @param reader Reader positioned on the value
+     * @return Value as a long
+     */
+    static long readLong(BsonReader reader){
+        BsonType type = reader.getCurrentBsonType();
+        switch(type){
+            case INT32: return reader.readInt32();
+            case INT64: return reader.readInt64();
+            case DOUBLE: return (long) reader.readDouble();
+            default: throw new BsonInvalidOperationException("Expected a number, got " + type);
+        }
+    }
+}
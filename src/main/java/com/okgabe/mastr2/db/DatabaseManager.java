@@ -8,111 +8,189 @@
 
 package com.okgabe.mastr2.db;
 
-import com.mongodb.MongoException;
-import com.mongodb.client.*;
 import com.okgabe.mastr2.entity.BotGuild;
 import com.okgabe.mastr2.entity.BotUser;
-import com.okgabe.mastr2.entity.EntityAdaptor;
-import org.bson.Document;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-public class DatabaseManager {
-
-    private MongoClient client;
-    private MongoDatabase mastrDatabase;
-    private MongoCollection<Document> users;
-    private MongoCollection<Document> guilds;
-    private static Logger logger = LoggerFactory.getLogger(DatabaseManager.class);
-
-    public DatabaseManager(String connectionString) throws MongoException  {
-        client = MongoClients.create(connectionString);
-        client.startSession();
-        mastrDatabase = client.getDatabase("mastr");
-        users = mastrDatabase.getCollection("users");
-        guilds = mastrDatabase.getCollection("guilds");
-    }
+import com.okgabe.mastr2.permission.BotRole;
+import com.okgabe.mastr2.permission.SuspensionIndex;
+import com.okgabe.mastr2.util.SuspensionCode;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Storage of users and guilds. The backend is picked by "storage backend" in the configuration:
+ * <ul>
+ *     <li>mongodb - {@link MongoDatabaseManager}</li>
+ *     <li>file - {@link FileDatabaseManager}, a single file for small installs</li>
+ *     <li>memory - {@link MemoryDatabaseManager}, nothing is kept after a restart</li>
+ * </ul>
+ * Every backend keeps the entity cache up to date when entities are saved.
+ */
+public interface DatabaseManager {
 
-    public BotUser getBotUser(long id){
+    default BotUser getBotUser(long id){
         return getBotUser(id, true);
     }
 
-    public BotUser getBotUser(long id, boolean makeIfNotExist){
-        Document search = new Document();
-        search.put("_id", id);
-
-        FindIterable<Document> userIter = users.find(search);
-        Document user = userIter.cursor().tryNext();
-
-        if(makeIfNotExist && user == null){
-            return createBotUser(id);
-        }
-
-        return EntityAdaptor.toBotUser(user);
-    }
+    /**
+     * @param id User ID
+     * @param makeIfNotExist Whether to create the user if it doesn't exist
+     * @return The user (see {@link #unknownUser()} if it doesn't exist and makeIfNotExist is false)
+     */
+    BotUser getBotUser(long id, boolean makeIfNotExist);
 
-    public BotGuild getBotGuild(long id){
+    default BotGuild getBotGuild(long id){
         return getBotGuild(id, true);
     }
 
-    public BotGuild getBotGuild(long id, boolean makeIfNotExist){
-        Document search = new Document();
-        search.put("_id", id);
-
-        FindIterable<Document> guildIter = guilds.find(search);
-        Document guild = guildIter.cursor().tryNext();
-
-        if(guild == null){
-            if(makeIfNotExist)  return createBotGuild(id);
-            else return null;
-        }
-
-        return EntityAdaptor.toBotGuild(guild);
+    /**
+     * @param id Guild ID
+     * @param makeIfNotExist Whether to create the guild if it doesn't exist
+     * @return The guild (null if it doesn't exist and makeIfNotExist is false)
+     */
+    BotGuild getBotGuild(long id, boolean makeIfNotExist);
+
+    /**
+     * Saves the fields of the user which were changed since it was last saved
+     *
+     * @param botUser User
+     */
+    void setBotUser(BotUser botUser);
+
+    /**
+     * Saves the fields of the guild which were changed since it was last saved
+     *
+     * @param botGuild Guild
+     */
+    void setBotGuild(BotGuild botGuild);
+
+    /**
+     * Adds the given amounts to the "timesUsed" counter of each user
+     *
+     * @param increments Amount to add for each user ID
+     * @return The increments which were not applied, empty if all of them were
+     * @throws RuntimeException If the write failed without telling which increments were applied
+     */
+    Map<Long, Integer> incrementUserTimesUsed(Map<Long, Integer> increments);
+
+    /**
+     * Adds the given amounts to the "timesUsed" counter of each guild
+     *
+     * @param increments Amount to add for each guild ID
+     * @return The increments which were not applied, empty if all of them were
+     * @throws RuntimeException If the write failed without telling which increments were applied
+     */
+    Map<Long, Integer> incrementGuildTimesUsed(Map<Long, Integer> increments);
+
+    /**
+     * Adds the given amounts to the "timesUsed" counter of each user and guild. Increments which aren't applied are dropped,
+     * {@link com.okgabe.mastr2.db.UsageCounter} retries them by writing each collection on its own instead.
+     *
+     * @param userIncrements Amount to add for each user ID
+     * @param guildIncrements Amount to add for each guild ID
+     */
+    default void incrementTimesUsed(Map<Long, Integer> userIncrements, Map<Long, Integer> guildIncrements){
+        incrementUserTimesUsed(userIncrements);
+        incrementGuildTimesUsed(guildIncrements);
     }
 
-    public void setBotUser(BotUser botUser){
-        Document oldUserSearch = new Document();
-        oldUserSearch.put("_id", botUser.getUserId());
-
-        users.replaceOne(oldUserSearch, EntityAdaptor.fromBotUser(botUser));
-    }
+    BotUser createBotUser(long id);
 
-    public void setBotGuild(BotGuild botGuild){
-        Document oldGuildSearch = new Document();
-        oldGuildSearch.put("_id", botGuild.getGuildId());
+    BotGuild createBotGuild(long id);
 
-        guilds.replaceOne(oldGuildSearch, EntityAdaptor.fromBotGuild(botGuild));
-    }
-
-    public BotUser createBotUser(long id){
-        BotUser botUser = new BotUser(id);
-        users.insertOne(EntityAdaptor.fromBotUser(botUser));
-
-        return botUser;
-    }
-
-    public BotGuild createBotGuild(long id){
-        BotGuild botGuild = new BotGuild(id);
-        guilds.insertOne(EntityAdaptor.fromBotGuild(botGuild));
-
-        return botGuild;
-    }
-
-    public String getGuildPrefix(long id){
+    default String getGuildPrefix(long id){
         return getGuildPrefix(id, true);
     }
 
-    public String getGuildPrefix(long id, boolean makeGuildIfNotExist){
-        Document search = new Document();
-        search.put("_id", id);
-
-        FindIterable<Document> guildIter = guilds.find(search);
-        Document guild = guildIter.cursor().tryNext();
-
-        if(guild==null) {
-            if(makeGuildIfNotExist) return createBotGuild(id).getPrefix();
-            else return null;
-        }
-        else return guild.getString("prefix");
+    /**
+     * @param id Guild ID
+     * @param makeGuildIfNotExist Whether to create the guild if it doesn't exist
+     * @return Prefix of the guild (null if it doesn't exist and makeGuildIfNotExist is false)
+     */
+    String getGuildPrefix(long id, boolean makeGuildIfNotExist);
+
+    /**
+     * Gets every suspended user
+     *
+     * @return Suspension end by user ID, where permanent suspensions end at {@link SuspensionIndex#PERMANENT}
+     */
+    Map<Long, Long> getSuspendedUsers();
+
+    /**
+     * Lifts every automatic and temporary suspension which ended at or before the given time
+     *
+     * @param now Current time in seconds
+     * @return Amount of users unsuspended
+     */
+    long liftExpiredSuspensions(long now);
+
+    /**
+     * Gets every suspended guild
+     *
+     * @return Suspension end by guild ID. Guild suspensions don't expire, so these are all {@link SuspensionIndex#PERMANENT}.
+     */
+    Map<Long, Long> getSuspendedGuilds();
+
+    /**
+     * Gets a user without blocking
+     *
+     * @param id User ID
+     * @param makeIfNotExist Whether to create the user if it doesn't exist
+     * @return Future of the user (see {@link #unknownUser()} if it doesn't exist and makeIfNotExist is false)
+     */
+    CompletableFuture<BotUser> getBotUserAsync(long id, boolean makeIfNotExist);
+
+    /**
+     * Gets a guild without blocking
+     *
+     * @param id Guild ID
+     * @param makeIfNotExist Whether to create the guild if it doesn't exist
+     * @return Future of the guild (null if it doesn't exist and makeIfNotExist is false)
+     */
+    CompletableFuture<BotGuild> getBotGuildAsync(long id, boolean makeIfNotExist);
+
+    CompletableFuture<Void> setBotUserAsync(BotUser botUser);
+
+    CompletableFuture<Void> setBotGuildAsync(BotGuild botGuild);
+
+    CompletableFuture<BotUser> createBotUserAsync(long id);
+
+    CompletableFuture<BotGuild> createBotGuildAsync(long id);
+
+    /**
+     * Gets multiple guilds without blocking
+     *
+     * @param ids IDs of the guilds
+     * @return Future of the guilds, without the ones that don't exist
+     */
+    CompletableFuture<List<BotGuild>> getBotGuildsAsync(long[] ids);
+
+    /**
+     * Creates multiple guilds without blocking. Guilds which were created in the meantime are left as they are.
+     *
+     * @param ids IDs of the guilds
+     * @return Future of the guilds which were actually created, without the ones that already existed
+     */
+    CompletableFuture<List<BotGuild>> createBotGuildsAsync(long[] ids);
+
+    /**
+     * Gets the prefix of a guild without blocking. Guilds are never created by this.
+     *
+     * @param id Guild ID
+     * @return Future of the prefix (null if the guild doesn't exist)
+     */
+    CompletableFuture<String> getGuildPrefixAsync(long id);
+
+    /**
+     * Releases the connections or files held by the backend. Nothing may be read or saved afterwards.
+     */
+    void close();
+
+    /**
+     * @return Placeholder returned for users which don't exist and weren't created
+     */
+    static BotUser unknownUser(){
+        return new BotUser(0L, BotRole.UNKNOWN, 0, SuspensionCode.UNSUSPENDED, 0);
     }
 }
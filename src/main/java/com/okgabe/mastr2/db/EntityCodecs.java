@@ -0,0 +1,26 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.db;
+
+import com.mongodb.MongoClientSettings;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+
+/**
+ * Codecs for Mastr's entities and partial reads of them, so collections decode straight into them instead of going through Documents
+ */
+public final class EntityCodecs {
+
+    /** Entity codecs, falling back to the driver's defaults for filters, updates and everything else */
+    public static final CodecRegistry REGISTRY = CodecRegistries.fromRegistries(
+            CodecRegistries.fromCodecs(new BotUserCodec(), new BotGuildCodec(), new Suspension.SuspensionCodec(), new GuildPrefix.GuildPrefixCodec()),
+            MongoClientSettings.getDefaultCodecRegistry());
+
+    private EntityCodecs(){}
+}
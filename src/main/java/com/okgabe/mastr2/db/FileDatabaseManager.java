@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.db;
+
+import com.okgabe.mastr2.cache.CacheManager;
+import com.okgabe.mastr2.entity.BotGuild;
+import com.okgabe.mastr2.entity.BotUser;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Stores users and guilds in a single file, for installs which don't need a database server.
+ * Everything is kept in memory like {@link MemoryDatabaseManager}, and every change is appended to a {@link LogStore}.
+ * Changes reach the file as soon as they are made, but are only guaranteed to be on the disk once the backend is closed.
+ */
+public class FileDatabaseManager extends MemoryDatabaseManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileDatabaseManager.class);
+    private static final byte USER = 1;
+    private static final byte GUILD = 2;
+
+    private final LogStore store;
+    private final Codec<BotUser> userCodec;
+    private final Codec<BotGuild> guildCodec;
+
+    /**
+     * Opens the file, creating it if it doesn't exist, and loads everything stored in it
+     *
+     * @param file Path of the file
+     * @param cacheManager Cache to update when entities are saved
+     * @throws IOException If the file can't be opened
+     */
+    public FileDatabaseManager(Path file, CacheManager cacheManager) throws IOException {
+        super(cacheManager);
+        this.userCodec = EntityCodecs.REGISTRY.get(BotUser.class);
+        this.guildCodec = EntityCodecs.REGISTRY.get(BotGuild.class);
+        this.store = new LogStore(file);
+
+        DecoderContext context = DecoderContext.builder().build();
+        int[] loaded = new int[2];
+        store.forEach(USER, payload -> {
+            load(userCodec.decode(new BsonBinaryReader(payload), context));
+            loaded[0]++;
+        });
+        store.forEach(GUILD, payload -> {
+            load(guildCodec.decode(new BsonBinaryReader(payload), context));
+            loaded[1]++;
+        });
+        logger.info("Loaded " + loaded[0] + " users and " + loaded[1] + " guilds from " + file);
+    }
+
+    @Override
+    protected void userStored(BotUser user){
+        store.append(USER, user.getUserId(), encode(userCodec, user));
+    }
+
+    @Override
+    protected void guildStored(BotGuild guild){
+        store.append(GUILD, guild.getGuildId(), encode(guildCodec, guild));
+    }
+
+    @Override
+    public void close(){
+        store.close();
+    }
+
+    private static <T> byte[] encode(Codec<T> codec, T entity){
+        BasicOutputBuffer buffer = new BasicOutputBuffer(128);
+        codec.encode(new BsonBinaryWriter(buffer), entity, EncoderContext.builder().build());
+        return buffer.toByteArray();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.db;
+
+import com.mongodb.client.model.Projections;
+import com.okgabe.mastr2.entity.BotGuild;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.conversions.Bson;
+
+/**
+ * Prefix of a guild, read without the rest of the document
+ */
+final class GuildPrefix {
+
+    static final Bson PROJECTION = Projections.include("prefix");
+
+    final long id;
+    final String prefix;
+
+    GuildPrefix(long id, String prefix) {
+        this.id = id;
+        this.prefix = prefix;
+    }
+
+    static final class GuildPrefixCodec implements Codec<GuildPrefix> {
+
+        @Override
+        public GuildPrefix decode(BsonReader reader, DecoderContext decoderContext) {
+            long id = 0L;
+            String prefix = BotGuild.DEFAULT_PREFIX;
+
+            reader.readStartDocument();
+            while(reader.readBsonType() != BsonType.END_OF_DOCUMENT){
+                switch(reader.readName()){
+                    case "_id": id = CodecUtil.readLong(reader); break;
+                    case "prefix": prefix = reader.readString(); break;
+                    default: reader.skipValue();
+                }
+            }
+            reader.readEndDocument();
+
+            return new GuildPrefix(id, prefix);
+        }
+
+        @Override
+        public void encode(BsonWriter writer, GuildPrefix guildPrefix, EncoderContext encoderContext) {
+            writer.writeStartDocument();
+            writer.writeInt64("_id", guildPrefix.id);
+            writer.writeString("prefix", guildPrefix.prefix);
+            writer.writeEndDocument();
+        }
+
+        @Override
+        public Class<GuildPrefix> getEncoderClass() {
+            return GuildPrefix.class;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.db;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Single file holding the latest state of keyed records, written by appending to a memory-mapped file.
+ * A record replaces every earlier record of the same kind and ID. When opened, the file is read from the start and the last record of each key wins.
+ * Once more than half of the file is replaced records, the current ones are copied to a new file which takes its place.
+ * <p>
+ * Record layout: payload length (int), CRC32 of everything after it (int), kind (byte), ID (long), payload.
+ * Reading stops at the first record which is incomplete or doesn't match its checksum, such as one cut off by a crash.
+ */
+final class LogStore {
+
+    static final int MAX_KINDS = 8;
+
+    private static final int HEADER_SIZE = 4 + 4 + 1 + 8;
+    private static final int INITIAL_SIZE = 1 << 20;
+    private static final int COMPACT_THRESHOLD = 4 << 20;
+
+    private final Path path;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    // Offset of the latest record of every ID, by kind
+    private Map<Long, Integer>[] latest;
+    private long liveBytes;
+
+    /**
+     * Opens or creates a store
+     *
+     * @param path File of the store
+     * @throws IOException If the file can't be opened or mapped
+     */
+    LogStore(Path path) throws IOException {
+        this.path = path;
+        Files.deleteIfExists(compactionPath());
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), INITIAL_SIZE));
+        latest = newIndex();
+
+        int position = 0;
+        while(position + HEADER_SIZE <= buffer.capacity()){
+            int length = buffer.getInt(position);
+            if(length <= 0 || length > buffer.capacity() - position - HEADER_SIZE) break;
+            if(buffer.getInt(position + 4) != checksum(buffer, position, length)) break;
+
+            byte kind = buffer.get(position + 8);
+            if(kind < 0 || kind >= MAX_KINDS) break;
+            track(kind, buffer.getLong(position + 9), position, length);
+            position += HEADER_SIZE + length;
+        }
+        buffer.position(position);
+    }
+
+    /**
+     * Calls the consumer with the payload of the latest record of every ID of a kind
+     *
+     * @param kind Kind of records
+     * @param consumer Consumer of the payloads, which are only valid during the call
+     */
+    synchronized void forEach(byte kind, Consumer<ByteBuffer> consumer){
+        for(int offset : latest[kind].values()){
+            int length = buffer.getInt(offset);
+            ByteBuffer payload = buffer.duplicate();
+            payload.position(offset + HEADER_SIZE).limit(offset + HEADER_SIZE + length);
+            consumer.accept(payload.slice());
+        }
+    }
+
+    /**
+     * Appends a record, replacing the previous record of the same kind and ID
+     *
+     * @param kind Kind of the record, below {@link #MAX_KINDS}
+     * @param id ID of the record
+     * @param payload Content of the record
+     * @throws UncheckedIOException If the file couldn't be grown or compacted
+     */
+    synchronized void append(byte kind, long id, byte[] payload){
+        int size = HEADER_SIZE + payload.length;
+        try{
+            if(buffer.remaining() < size) makeRoom(size);
+        }
+        catch(IOException ex){
+            throw new UncheckedIOException("Failed to grow " + path, ex);
+        }
+
+        int offset = buffer.position();
+        buffer.put(offset + 8, kind);
+        buffer.putLong(offset + 9, id);
+        ByteBuffer body = buffer.duplicate();
+        body.position(offset + HEADER_SIZE);
+        body.put(payload);
+        buffer.putInt(offset + 4, checksum(buffer, offset, payload.length));
+        // Written last, so a record only counts once all of it is there
+        buffer.putInt(offset, payload.length);
+        buffer.position(offset + size);
+
+        track(kind, id, offset, payload.length);
+    }
+
+    /**
+     * @return Bytes used by the latest records
+     */
+    synchronized long getLiveBytes(){
+        return liveBytes;
+    }
+
+    /**
+     * @return Bytes used by all records, including replaced ones
+     */
+    synchronized long getUsedBytes(){
+        return buffer.position();
+    }
+
+    /**
+     * Writes every change to the disk and closes the file
+     *
+     * @throws UncheckedIOException If the file couldn't be closed
+     */
+    synchronized void close(){
+        buffer.force();
+        try{
+            channel.close();
+        }
+        catch(IOException ex){
+            throw new UncheckedIOException("Failed to close " + path, ex);
+        }
+    }
+
+    private void makeRoom(int size) throws IOException {
+        if(buffer.position() >= COMPACT_THRESHOLD && liveBytes * 2 < buffer.position()){
+            compact();
+            if(buffer.remaining() >= size) return;
+        }
+
+        long grown = Math.max((long) buffer.capacity() * 2, (long) buffer.position() + size);
+        if(grown > Integer.MAX_VALUE) throw new IOException("Store is full");
+
+        int position = buffer.position();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, grown);
+        buffer.position(position);
+    }
+
+    // Copies the latest records to a new file, which then replaces the current one
+    private void compact() throws IOException {
+        Path compacted = compactionPath();
+        Map<Long, Integer>[] index = newIndex();
+        int position = 0;
+
+        try(FileChannel target = FileChannel.open(compacted, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+            MappedByteBuffer out = target.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(INITIAL_SIZE, liveBytes * 2));
+            for(int kind = 0; kind < MAX_KINDS; kind++){
+                for(Map.Entry<Long, Integer> entry : latest[kind].entrySet()){
+                    int offset = entry.getValue();
+                    int length = buffer.getInt(offset);
+                    ByteBuffer record = buffer.duplicate();
+                    record.position(offset).limit(offset + HEADER_SIZE + length);
+                    out.put(record);
+
+                    index[kind].put(entry.getKey(), position);
+                    position += HEADER_SIZE + length;
+                }
+            }
+            out.force();
+        }
+
+        channel.close();
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        buffer.position(position);
+        latest = index;
+    }
+
+    private void track(byte kind, long id, int offset, int length){
+        Integer previous = latest[kind].put(id, offset);
+        if(previous != null) liveBytes -= HEADER_SIZE + buffer.getInt(previous);
+        liveBytes += HEADER_SIZE + length;
+    }
+
+    private Path compactionPath(){
+        return path.resolveSibling(path.getFileName() + ".compact");
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset, int length){
+        ByteBuffer covered = buffer.duplicate();
+        covered.position(offset + 8).limit(offset + HEADER_SIZE + length);
+        CRC32 crc = new CRC32();
+        crc.update(covered);
+        return (int) crc.getValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Long, Integer>[] newIndex(){
+        Map<Long, Integer>[] index = new Map[MAX_KINDS];
+        for(int i = 0; i < MAX_KINDS; i++){
+            index[i] = new HashMap<>();
+        }
+        return index;
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.db;
+
+import com.okgabe.mastr2.cache.CacheManager;
+import com.okgabe.mastr2.entity.BotGuild;
+import com.okgabe.mastr2.entity.BotUser;
+import com.okgabe.mastr2.permission.SuspensionIndex;
+import com.okgabe.mastr2.util.SuspensionCode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Keeps users and guilds in memory only, for tests, benchmarks and trying out the bot.
+ * Stored entities are never handed out: callers get copies, and every change replaces the stored copy, like a database would.
+ */
+public class MemoryDatabaseManager implements DatabaseManager {
+
+    private final ConcurrentHashMap<Long, BotUser> users;
+    private final ConcurrentHashMap<Long, BotGuild> guilds;
+    private final CacheManager cacheManager;
+
+    /**
+     * @param cacheManager Cache to update when entities are saved, may be null if nothing is cached
+     */
+    public MemoryDatabaseManager(CacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+        this.users = new ConcurrentHashMap<>();
+        this.guilds = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Called with every user as it is stored, while no other change of the same user can happen
+     *
+     * @param user Stored user, which is never changed afterwards
+     */
+    protected void userStored(BotUser user){}
+
+    /**
+     * Called with every guild as it is stored, while no other change of the same guild can happen
+     *
+     * @param guild Stored guild, which is never changed afterwards
+     */
+    protected void guildStored(BotGuild guild){}
+
+    /**
+     * Stores a user as it is, such as one loaded from a file
+     *
+     * @param user User
+     */
+    protected void load(BotUser user){
+        users.put(user.getUserId(), user);
+    }
+
+    /**
+     * Stores a guild as it is, such as one loaded from a file
+     *
+     * @param guild Guild
+     */
+    protected void load(BotGuild guild){
+        guilds.put(guild.getGuildId(), guild);
+    }
+
+    @Override
+    public BotUser getBotUser(long id, boolean makeIfNotExist){
+        BotUser stored = makeIfNotExist ? users.computeIfAbsent(id, this::newUser) : users.get(id);
+        return stored == null ? DatabaseManager.unknownUser() : copy(stored);
+    }
+
+    @Override
+    public BotGuild getBotGuild(long id, boolean makeIfNotExist){
+        BotGuild stored = makeIfNotExist ? guilds.computeIfAbsent(id, this::newGuild) : guilds.get(id);
+        return stored == null ? null : copy(stored);
+    }
+
+    @Override
+    public void setBotUser(BotUser botUser){
+        int fields = botUser.takeDirtyFields();
+        if(fields != 0){
+            // Like an update without upsert, users which don't exist stay that way
+            users.computeIfPresent(botUser.getUserId(), (id, stored) -> {
+                BotUser updated = copy(stored);
+                if((fields & BotUser.ROLE) != 0) updated.setRole(botUser.getRole());
+                if((fields & BotUser.SUSPENSION_CODE) != 0) updated.setSuspensionCode(botUser.getSuspensionCode());
+                if((fields & BotUser.SUSPENSION_END) != 0) updated.setSuspensionEnd(botUser.getSuspensionEnd());
+                userStored(updated);
+                return updated;
+            });
+        }
+
+        if(cacheManager != null) cacheManager.updateBotUser(botUser);
+    }
+
+    @Override
+    public void setBotGuild(BotGuild botGuild){
+        int fields = botGuild.takeDirtyFields();
+        if(fields != 0){
+            guilds.computeIfPresent(botGuild.getGuildId(), (id, stored) -> {
+                BotGuild updated = copy(stored);
+                if((fields & BotGuild.PREFIX) != 0) updated.setPrefix(botGuild.getPrefix());
+                if((fields & BotGuild.GUILD_TIER) != 0) updated.setGuildTier(botGuild.getGuildTier());
+                if((fields & BotGuild.SUSPENSION_CODE) != 0) updated.setSuspensionCode(botGuild.getSuspensionCode());
+                guildStored(updated);
+                return updated;
+            });
+        }
+
+        if(cacheManager != null) cacheManager.updateBotGuild(botGuild);
+    }
+
+    @Override
+    public Map<Long, Integer> incrementUserTimesUsed(Map<Long, Integer> increments){
+        increments.forEach((userId, amount) -> users.computeIfPresent(userId, (id, stored) -> {
+            BotUser updated = copy(stored);
+            updated.setTimesUsed(stored.getTimesUsed() + amount);
+            userStored(updated);
+            return updated;
+        }));
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public Map<Long, Integer> incrementGuildTimesUsed(Map<Long, Integer> increments){
+        increments.forEach((guildId, amount) -> guilds.computeIfPresent(guildId, (id, stored) -> {
+            BotGuild updated = copy(stored);
+            updated.setTimesUsed(stored.getTimesUsed() + amount);
+            guildStored(updated);
+            return updated;
+        }));
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public BotUser createBotUser(long id){
+        BotUser created = users.compute(id, (key, stored) -> {
+            if(stored != null) throw new IllegalStateException("User " + id + " already exists");
+            return newUser(id);
+        });
+        return copy(created);
+    }
+
+    @Override
+    public BotGuild createBotGuild(long id){
+        BotGuild created = guilds.compute(id, (key, stored) -> {
+            if(stored != null) throw new IllegalStateException("Guild " + id + " already exists");
+            return newGuild(id);
+        });
+        return copy(created);
+    }
+
+    @Override
+    public String getGuildPrefix(long id, boolean makeGuildIfNotExist){
+        BotGuild stored = makeGuildIfNotExist ? guilds.computeIfAbsent(id, this::newGuild) : guilds.get(id);
+        return stored == null ? null : stored.getPrefix();
+    }
+
+    @Override
+    public Map<Long, Long> getSuspendedUsers(){
+        Map<Long, Long> suspended = new HashMap<>();
+        for(BotUser user : users.values()){
+            if(user.getSuspensionCode() == SuspensionCode.UNSUSPENDED) continue;
+            suspended.put(user.getUserId(), user.getSuspensionCode() == SuspensionCode.PERMANENT_SUSPENSION ? SuspensionIndex.PERMANENT : user.getSuspensionEnd());
+        }
+
+        return suspended;
+    }
+
+    @Override
+    public long liftExpiredSuspensions(long now){
+        AtomicLong lifted = new AtomicLong();
+        for(long userId : users.keySet()){
+            users.computeIfPresent(userId, (id, stored) -> {
+                if(!isExpired(stored, now)) return stored;
+
+                BotUser updated = copy(stored);
+                updated.setSuspensionCode(SuspensionCode.UNSUSPENDED);
+                updated.setSuspensionEnd(0L);
+                userStored(updated);
+                lifted.incrementAndGet();
+                return updated;
+            });
+        }
+
+        return lifted.get();
+    }
+
+    private static boolean isExpired(BotUser user, long now){
+        SuspensionCode code = user.getSuspensionCode();
+        return (code == SuspensionCode.AUTOMATIC_SUSPENSION || code == SuspensionCode.TEMPORARY_SUSPENSION) && user.getSuspensionEnd() <= now;
+    }
+
+    @Override
+    public Map<Long, Long> getSuspendedGuilds(){
+        Map<Long, Long> suspended = new HashMap<>();
+        for(BotGuild guild : guilds.values()){
+            if(guild.getSuspensionCode() != SuspensionCode.UNSUSPENDED) suspended.put(guild.getGuildId(), SuspensionIndex.PERMANENT);
+        }
+
+        return suspended;
+    }
+
+    // Nothing here blocks for long, so the asynchronous methods complete right away
+
+    @Override
+    public CompletableFuture<BotUser> getBotUserAsync(long id, boolean makeIfNotExist){
+        return completed(() -> getBotUser(id, makeIfNotExist));
+    }
+
+    @Override
+    public CompletableFuture<BotGuild> getBotGuildAsync(long id, boolean makeIfNotExist){
+        return completed(() -> getBotGuild(id, makeIfNotExist));
+    }
+
+    @Override
+    public CompletableFuture<Void> setBotUserAsync(BotUser botUser){
+        return completed(() -> {
+            setBotUser(botUser);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> setBotGuildAsync(BotGuild botGuild){
+        return completed(() -> {
+            setBotGuild(botGuild);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<BotUser> createBotUserAsync(long id){
+        return completed(() -> createBotUser(id));
+    }
+
+    @Override
+    public CompletableFuture<BotGuild> createBotGuildAsync(long id){
+        return completed(() -> createBotGuild(id));
+    }
+
+    @Override
+    public CompletableFuture<List<BotGuild>> getBotGuildsAsync(long[] ids){
+        return completed(() -> {
+            List<BotGuild> found = new ArrayList<>(ids.length);
+            for(long id : ids){
+                BotGuild stored = guilds.get(id);
+                if(stored != null) found.add(copy(stored));
+            }
+
+            return found;
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<BotGuild>> createBotGuildsAsync(long[] ids){
+        return completed(() -> {
+            List<BotGuild> created = new ArrayList<>(ids.length);
+            for(long id : ids){
+                // Guilds created in the meantime are left out, only the ones inserted here are new
+                boolean[] inserted = new boolean[1];
+                guilds.computeIfAbsent(id, key -> {
+                    inserted[0] = true;
+                    return newGuild(key);
+                });
+                if(inserted[0]) created.add(new BotGuild(id));
+            }
+
+            return created;
+        });
+    }
+
+    @Override
+    public CompletableFuture<String> getGuildPrefixAsync(long id){
+        return completed(() -> getGuildPrefix(id, false));
+    }
+
+    @Override
+    public void close(){}
+
+    private BotUser newUser(long id){
+        BotUser user = new BotUser(id);
+        userStored(user);
+        return user;
+    }
+
+    private BotGuild newGuild(long id){
+        BotGuild guild = new BotGuild(id);
+        guildStored(guild);
+        return guild;
+    }
+
+    private static BotUser copy(BotUser user){
+        return new BotUser(user.getUserId(), user.getRole(), user.getTimesUsed(), user.getSuspensionCode(), user.getSuspensionEnd());
+    }
+
+    private static BotGuild copy(BotGuild guild){
+        return new BotGuild(guild.getGuildId(), guild.getPrefix(), guild.getTimesUsed(), guild.getGuildTier(), guild.getSuspensionCode());
+    }
+
+    private static <T> CompletableFuture<T> completed(Supplier<T> supplier){
+        try{
+            return CompletableFuture.completedFuture(supplier.get());
+        }
+        catch(RuntimeException ex){
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+}
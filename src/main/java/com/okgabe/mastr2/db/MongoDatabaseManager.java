@@ -0,0 +1,440 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.db;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoServerException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.*;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.okgabe.mastr2.cache.CacheManager;
+import com.okgabe.mastr2.entity.BotGuild;
+import com.okgabe.mastr2.entity.BotUser;
+import com.okgabe.mastr2.permission.SuspensionIndex;
+import com.okgabe.mastr2.util.SuspensionCode;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentWriter;
+import org.bson.codecs.EncoderContext;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Stores users and guilds in MongoDB
+ */
+public class MongoDatabaseManager implements DatabaseManager {
+
+    private static final int DUPLICATE_KEY = 11000;
+    private static final FindOneAndUpdateOptions UPSERT = new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER);
+    private static final Bson USER_DEFAULTS = insertDefaults(BotUser.class, new BotUser(0L));
+    private static final Bson GUILD_DEFAULTS = insertDefaults(BotGuild.class, new BotGuild(0L));
+
+    private MongoClient client;
+    private MongoDatabase mastrDatabase;
+    private MongoCollection<BotUser> users;
+    private MongoCollection<BotGuild> guilds;
+    // The reactive driver backs the *Async methods, so callers don't block the thread they run on
+    private com.mongodb.reactivestreams.client.MongoClient asyncClient;
+    private com.mongodb.reactivestreams.client.MongoCollection<BotUser> asyncUsers;
+    private com.mongodb.reactivestreams.client.MongoCollection<BotGuild> asyncGuilds;
+    private CacheManager cacheManager;
+    private static Logger logger = LoggerFactory.getLogger(MongoDatabaseManager.class);
+
+    public MongoDatabaseManager(String connectionString, CacheManager cacheManager) throws MongoException  {
+        this.cacheManager = cacheManager;
+        client = MongoClients.create(connectionString);
+        // Starting a session waits for a server, so a bad connection string fails here instead of on the first command
+        try(ClientSession ignored = client.startSession()){
+            logger.debug("Reached the database");
+        }
+        // Entities are decoded straight from BSON by EntityCodecs
+        mastrDatabase = client.getDatabase("mastr").withCodecRegistry(EntityCodecs.REGISTRY);
+        users = mastrDatabase.getCollection("users", BotUser.class);
+        guilds = mastrDatabase.getCollection("guilds", BotGuild.class);
+        // Serves loading suspensions at startup and lifting the ones which ended
+        users.createIndex(Indexes.ascending("suspensionCode", "suspensionEnd"));
+        guilds.createIndex(Indexes.ascending("suspensionCode"));
+
+        asyncClient = com.mongodb.reactivestreams.client.MongoClients.create(connectionString);
+        com.mongodb.reactivestreams.client.MongoDatabase asyncDatabase = asyncClient.getDatabase("mastr").withCodecRegistry(EntityCodecs.REGISTRY);
+        asyncUsers = asyncDatabase.getCollection("users", BotUser.class);
+        asyncGuilds = asyncDatabase.getCollection("guilds", BotGuild.class);
+    }
+
+    @Override
+    public BotUser getBotUser(long id, boolean makeIfNotExist){
+        if(makeIfNotExist) return upsert(users, id, USER_DEFAULTS);
+
+        BotUser user = users.find(Filters.eq("_id", id)).first();
+        return user == null ? DatabaseManager.unknownUser() : user;
+    }
+
+    @Override
+    public BotGuild getBotGuild(long id, boolean makeIfNotExist){
+        if(makeIfNotExist) return upsert(guilds, id, GUILD_DEFAULTS);
+
+        return guilds.find(Filters.eq("_id", id)).first();
+    }
+
+    /**
+     * Finds a document, inserting it with the given defaults if it doesn't exist yet, in a single round trip
+     *
+     * @param collection Collection to search
+     * @param id Document ID
+     * @param defaults $setOnInsert of the defaults
+     * @return Found or inserted document
+     */
+    private static <T> T upsert(MongoCollection<T> collection, long id, Bson defaults){
+        try{
+            return collection.findOneAndUpdate(Filters.eq("_id", id), defaults, UPSERT);
+        }
+        catch(MongoServerException ex){
+            // Concurrent upserts of the same new document can collide on _id, the loser finds the winner's document on retry
+            if(ex.getCode() != DUPLICATE_KEY) throw ex;
+            return collection.findOneAndUpdate(Filters.eq("_id", id), defaults, UPSERT);
+        }
+    }
+
+    private static <T> CompletableFuture<T> upsertAsync(com.mongodb.reactivestreams.client.MongoCollection<T> collection, long id, Bson defaults){
+        return PublisherFutures.first(collection.findOneAndUpdate(Filters.eq("_id", id), defaults, UPSERT)).handle((document, ex) -> {
+            if(ex == null) return CompletableFuture.completedFuture(document);
+
+            Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+            if(cause instanceof MongoServerException && ((MongoServerException) cause).getCode() == DUPLICATE_KEY){
+                return PublisherFutures.first(collection.findOneAndUpdate(Filters.eq("_id", id), defaults, UPSERT));
+            }
+            return CompletableFuture.<T>failedFuture(cause);
+        }).thenCompose(future -> future);
+    }
+
+    // Every field except _id, which an upsert takes from its filter
+    private static <T> Bson insertDefaults(Class<T> type, T entity){
+        BsonDocument document = new BsonDocument();
+        EntityCodecs.REGISTRY.get(type).encode(new BsonDocumentWriter(document), entity, EncoderContext.builder().build());
+        document.remove("_id");
+        return Updates.setOnInsert(document);
+    }
+
+    /**
+     * Saves the fields of the user which were changed since it was last saved
+     *
+     * @param botUser User
+     */
+    @Override
+    public void setBotUser(BotUser botUser){
+        int fields = botUser.takeDirtyFields();
+        if(fields != 0){
+            try{
+                users.updateOne(Filters.eq("_id", botUser.getUserId()), userChanges(botUser, fields));
+            }
+            catch(RuntimeException ex){
+                botUser.markDirty(fields);
+                throw ex;
+            }
+        }
+
+        cacheManager.updateBotUser(botUser);
+    }
+
+    /**
+     * Saves the fields of the guild which were changed since it was last saved
+     *
+     * @param botGuild Guild
+     */
+    @Override
+    public void setBotGuild(BotGuild botGuild){
+        int fields = botGuild.takeDirtyFields();
+        if(fields != 0){
+            try{
+                guilds.updateOne(Filters.eq("_id", botGuild.getGuildId()), guildChanges(botGuild, fields));
+            }
+            catch(RuntimeException ex){
+                botGuild.markDirty(fields);
+                throw ex;
+            }
+        }
+
+        cacheManager.updateBotGuild(botGuild);
+    }
+
+    // Only changed fields are $set, so concurrent changes to other fields of the same document aren't overwritten
+    private static Bson userChanges(BotUser user, int fields){
+        List<Bson> changes = new ArrayList<>(3);
+        if((fields & BotUser.ROLE) != 0) changes.add(Updates.set("roleId", user.getRole().getLevel()));
+        if((fields & BotUser.SUSPENSION_CODE) != 0) changes.add(Updates.set("suspensionCode", user.getSuspensionCode().getCode()));
+        if((fields & BotUser.SUSPENSION_END) != 0) changes.add(Updates.set("suspensionEnd", user.getSuspensionEnd()));
+        return Updates.combine(changes);
+    }
+
+    private static Bson guildChanges(BotGuild guild, int fields){
+        List<Bson> changes = new ArrayList<>(3);
+        if((fields & BotGuild.PREFIX) != 0) changes.add(Updates.set("prefix", guild.getPrefix()));
+        if((fields & BotGuild.GUILD_TIER) != 0) changes.add(Updates.set("guildTier", guild.getGuildTier().getLevel()));
+        if((fields & BotGuild.SUSPENSION_CODE) != 0) changes.add(Updates.set("suspensionCode", guild.getSuspensionCode().getCode()));
+        return Updates.combine(changes);
+    }
+
+    @Override
+    public Map<Long, Integer> incrementUserTimesUsed(Map<Long, Integer> increments){
+        return increment(users, increments);
+    }
+
+    @Override
+    public Map<Long, Integer> incrementGuildTimesUsed(Map<Long, Integer> increments){
+        return increment(guilds, increments);
+    }
+
+    /**
+     * Adds the given amounts to the "timesUsed" counters of a collection with one unordered bulk write.
+     * An unordered write applies every model it can, so after a partial failure only the models named in its write errors are returned.
+     */
+    private static <T> Map<Long, Integer> increment(MongoCollection<T> collection, Map<Long, Integer> increments){
+        if(increments.isEmpty()) return Collections.emptyMap();
+
+        List<Long> ids = new ArrayList<>(increments.keySet());
+        List<WriteModel<T>> models = new ArrayList<>(ids.size());
+        for(long id : ids){
+            models.add(new UpdateOneModel<>(Filters.eq("_id", id), Updates.inc("timesUsed", increments.get(id))));
+        }
+
+        try{
+            collection.bulkWrite(models, new BulkWriteOptions().ordered(false));
+            return Collections.emptyMap();
+        }
+        catch(MongoBulkWriteException ex){
+            Map<Long, Integer> failed = new HashMap<>();
+            for(BulkWriteError error : ex.getWriteErrors()){
+                long id = ids.get(error.getIndex());
+                failed.put(id, increments.get(id));
+            }
+            return failed;
+        }
+    }
+
+    @Override
+    public BotUser createBotUser(long id){
+        BotUser botUser = new BotUser(id);
+        users.insertOne(botUser);
+
+        return botUser;
+    }
+
+    @Override
+    public BotGuild createBotGuild(long id){
+        BotGuild botGuild = new BotGuild(id);
+        guilds.insertOne(botGuild);
+
+        return botGuild;
+    }
+
+    @Override
+    public String getGuildPrefix(long id, boolean makeGuildIfNotExist){
+        GuildPrefix guild = guilds.find(Filters.eq("_id", id), GuildPrefix.class).projection(GuildPrefix.PROJECTION).first();
+
+        if(guild==null) {
+            if(makeGuildIfNotExist) return getBotGuild(id, true).getPrefix();
+            else return null;
+        }
+        else return guild.prefix;
+    }
+
+    /**
+     * Gets every suspended user, reading only their suspension fields
+     *
+     * @return Suspension end by user ID, where permanent suspensions end at {@link SuspensionIndex#PERMANENT}
+     */
+    @Override
+    public Map<Long, Long> getSuspendedUsers(){
+        Map<Long, Long> suspended = new HashMap<>();
+        FindIterable<Suspension> found = users.find(Filters.ne("suspensionCode", SuspensionCode.UNSUSPENDED.getCode()), Suspension.class)
+                .projection(Suspension.PROJECTION);
+        for(Suspension user : found){
+            suspended.put(user.id, user.code == SuspensionCode.PERMANENT_SUSPENSION ? SuspensionIndex.PERMANENT : user.end);
+        }
+
+        return suspended;
+    }
+
+    /**
+     * Lifts every automatic and temporary suspension which ended at or before the given time, in one write
+     *
+     * @param now Current time in seconds
+     * @return Amount of users unsuspended
+     */
+    @Override
+    public long liftExpiredSuspensions(long now){
+        Bson ended = Filters.and(Filters.in("suspensionCode", SuspensionCode.AUTOMATIC_SUSPENSION.getCode(), SuspensionCode.TEMPORARY_SUSPENSION.getCode()),
+                Filters.lte("suspensionEnd", now));
+        return users.updateMany(ended, Updates.combine(Updates.set("suspensionCode", SuspensionCode.UNSUSPENDED.getCode()), Updates.set("suspensionEnd", 0L)))
+                .getModifiedCount();
+    }
+
+    /**
+     * Gets every suspended guild, reading only their suspension fields
+     *
+     * @return Suspension end by guild ID. Guild suspensions don't expire, so these are all {@link SuspensionIndex#PERMANENT}.
+     */
+    @Override
+    public Map<Long, Long> getSuspendedGuilds(){
+        Map<Long, Long> suspended = new HashMap<>();
+        FindIterable<Suspension> found = guilds.find(Filters.ne("suspensionCode", SuspensionCode.UNSUSPENDED.getCode()), Suspension.class)
+                .projection(Suspension.PROJECTION);
+        for(Suspension guild : found){
+            suspended.put(guild.id, SuspensionIndex.PERMANENT);
+        }
+
+        return suspended;
+    }
+
+    /**
+     * Gets a user without blocking
+     *
+     * @param id User ID
+     * @param makeIfNotExist Whether to create the user if it doesn't exist
+     * @return Future of the user (a user with the role UNKNOWN if it doesn't exist and makeIfNotExist is false)
+     */
+    @Override
+    public CompletableFuture<BotUser> getBotUserAsync(long id, boolean makeIfNotExist){
+        if(makeIfNotExist) return upsertAsync(asyncUsers, id, USER_DEFAULTS);
+
+        return PublisherFutures.first(asyncUsers.find(Filters.eq("_id", id)).first()).thenApply(user -> user == null ? DatabaseManager.unknownUser() : user);
+    }
+
+    /**
+     * Gets a guild without blocking
+     *
+     * @param id Guild ID
+     * @param makeIfNotExist Whether to create the guild if it doesn't exist
+     * @return Future of the guild (null if it doesn't exist and makeIfNotExist is false)
+     */
+    @Override
+    public CompletableFuture<BotGuild> getBotGuildAsync(long id, boolean makeIfNotExist){
+        if(makeIfNotExist) return upsertAsync(asyncGuilds, id, GUILD_DEFAULTS);
+
+        return PublisherFutures.first(asyncGuilds.find(Filters.eq("_id", id)).first());
+    }
+
+    @Override
+    public CompletableFuture<Void> setBotUserAsync(BotUser botUser){
+        int fields = botUser.takeDirtyFields();
+        if(fields == 0){
+            cacheManager.updateBotUser(botUser);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return PublisherFutures.first(asyncUsers.updateOne(Filters.eq("_id", botUser.getUserId()), userChanges(botUser, fields)))
+                .whenComplete((result, ex) -> {
+                    if(ex != null) botUser.markDirty(fields);
+                })
+                .thenRun(() -> cacheManager.updateBotUser(botUser));
+    }
+
+    @Override
+    public CompletableFuture<Void> setBotGuildAsync(BotGuild botGuild){
+        int fields = botGuild.takeDirtyFields();
+        if(fields == 0){
+            cacheManager.updateBotGuild(botGuild);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return PublisherFutures.first(asyncGuilds.updateOne(Filters.eq("_id", botGuild.getGuildId()), guildChanges(botGuild, fields)))
+                .whenComplete((result, ex) -> {
+                    if(ex != null) botGuild.markDirty(fields);
+                })
+                .thenRun(() -> cacheManager.updateBotGuild(botGuild));
+    }
+
+    @Override
+    public CompletableFuture<BotUser> createBotUserAsync(long id){
+        BotUser botUser = new BotUser(id);
+        return PublisherFutures.first(asyncUsers.insertOne(botUser)).thenApply(result -> botUser);
+    }
+
+    @Override
+    public CompletableFuture<BotGuild> createBotGuildAsync(long id){
+        BotGuild botGuild = new BotGuild(id);
+        return PublisherFutures.first(asyncGuilds.insertOne(botGuild)).thenApply(result -> botGuild);
+    }
+
+    /**
+     * Gets multiple guilds in a single query without blocking
+     *
+     * @param ids IDs of the guilds
+     * @return Future of the guilds, without the ones that aren't in the database
+     */
+    @Override
+    public CompletableFuture<List<BotGuild>> getBotGuildsAsync(long[] ids){
+        List<Long> idList = new ArrayList<>(ids.length);
+        for(long id : ids){
+            idList.add(id);
+        }
+
+        return PublisherFutures.all(asyncGuilds.find(Filters.in("_id", idList)));
+    }
+
+    /**
+     * Creates multiple guilds in a single unordered write without blocking.
+     * Guilds which were created in the meantime are left as they are.
+     *
+     * @param ids IDs of the guilds
+     * @return Future of the created guilds
+     */
+    @Override
+    public CompletableFuture<List<BotGuild>> createBotGuildsAsync(long[] ids){
+        List<WriteModel<BotGuild>> models = new ArrayList<>(ids.length);
+        for(long id : ids){
+            models.add(new UpdateOneModel<>(Filters.eq("_id", id), GUILD_DEFAULTS, new UpdateOptions().upsert(true)));
+        }
+
+        // Upserts which matched a guild created in the meantime didn't insert anything, so only the reported upserts are new
+        return PublisherFutures.first(asyncGuilds.bulkWrite(models, new BulkWriteOptions().ordered(false))).thenApply(result -> {
+            List<BotGuild> created = new ArrayList<>(result.getUpserts().size());
+            for(BulkWriteUpsert upsert : result.getUpserts()){
+                created.add(new BotGuild(ids[upsert.getIndex()]));
+            }
+            return created;
+        });
+    }
+
+    /**
+     * Gets the prefix of a guild without blocking. Guilds are never created by this.
+     *
+     * @param id Guild ID
+     * @return Future of the prefix (null if the guild doesn't exist)
+     */
+    @Override
+    public CompletableFuture<String> getGuildPrefixAsync(long id){
+        return PublisherFutures.first(asyncGuilds.find(Filters.eq("_id", id), GuildPrefix.class).projection(GuildPrefix.PROJECTION).first())
+                .thenApply(guild -> guild == null ? null : guild.prefix);
+    }
+
+    @Override
+    public void close(){
+        client.close();
+        asyncClient.close();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.db;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Adapts the Publishers returned by the reactive MongoDB driver to CompletableFutures
+ */
+final class PublisherFutures {
+
+    private PublisherFutures(){}
+
+    /**
+     * @param publisher Publisher to subscribe to
+     * @param <T> Type of the published items
+     * @return Future completed with the first published item, or null if the publisher completes without any
+     */
+    static <T> CompletableFuture<T> first(Publisher<T> publisher){
+        CompletableFuture<T> future = new CompletableFuture<>();
+        publisher.subscribe(new Subscriber<T>() {
+            private Subscription subscription;
+
+            @Override
+            public void onSubscribe(Subscription s) {
+                subscription = s;
+                s.request(1);
+            }
+
+            @Override
+            public void onNext(T t) {
+                // Only one item is needed, so the rest of the results aren't fetched
+                subscription.cancel();
+                future.complete(t);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                future.completeExceptionally(t);
+            }
+
+            @Override
+            public void onComplete() {
+                future.complete(null);
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * @param publisher Publisher to subscribe to
+     * @param <T> Type of the published items
+     * @return Future completed with every published item once the publisher completes
+     */
+    static <T> CompletableFuture<List<T>> all(Publisher<T> publisher){
+        CompletableFuture<List<T>> future = new CompletableFuture<>();
+        publisher.subscribe(new Subscriber<T>() {
+            private final List<T> items = new ArrayList<>();
+
+            @Override
+            public void onSubscribe(Subscription s) {
+                s.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(T t) {
+                items.add(t);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                future.completeExceptionally(t);
+            }
+
+            @Override
+            public void onComplete() {
+                future.complete(items);
+            }
+        });
+
+        return future;
+    }
+}
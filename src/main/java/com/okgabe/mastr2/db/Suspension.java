@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.db;
+
+import com.mongodb.client.model.Projections;
+import com.okgabe.mastr2.util.SuspensionCode;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.conversions.Bson;
+
+/**
+ * Suspension fields of a user or guild, read without the rest of the document
+ */
+final class Suspension {
+
+    static final Bson PROJECTION = Projections.include("suspensionCode", "suspensionEnd");
+
+    final long id;
+    final SuspensionCode code;
+    final long end;
+
+    Suspension(long id, SuspensionCode code, long end) {
+        this.id = id;
+        this.code = code;
+        this.end = end;
+    }
+
+    static final class SuspensionCodec implements Codec<Suspension> {
+
+        @Override
+        public Suspension decode(BsonReader reader, DecoderContext decoderContext) {
+            long id = 0L;
+            SuspensionCode code = SuspensionCode.UNSUSPENDED;
+            long end = 0L;
+
+            reader.readStartDocument();
+            while(reader.readBsonType() != BsonType.END_OF_DOCUMENT){
+                switch(reader.readName()){
+                    case "_id": id = CodecUtil.readLong(reader); break;
+                    case "suspensionCode": code = SuspensionCode.parse(CodecUtil.readInt(reader)); break;
+                    case "suspensionEnd": end = CodecUtil.readLong(reader); break;
+                    default: reader.skipValue();
+                }
+            }
+            reader.readEndDocument();
+
+            return new Suspension(id, code, end);
+        }
+
+        @Override
+        public void encode(BsonWriter writer, Suspension suspension, EncoderContext encoderContext) {
+            writer.writeStartDocument();
+            writer.writeInt64("_id", suspension.id);
+            writer.writeInt32("suspensionCode", suspension.code.getCode());
+            writer.writeInt64("suspensionEnd", suspension.end);
+            writer.writeEndDocument();
+        }
+
+        @Override
+        public Class<Suspension> getEncoderClass() {
+            return Suspension.class;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.db;
+
+import com.okgabe.mastr2.Mastr;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Aggregates "times used" increments for users and guilds in memory and writes them to the database in batches.
+ * Commands only touch these counters, so running a command no longer costs a database round trip, and concurrent
+ * commands from the same guild can't overwrite each other's counts.
+ */
+public class UsageCounter {
+
+    private static final Logger logger = LoggerFactory.getLogger(UsageCounter.class);
+    private static final long FLUSH_INTERVAL = 15L;
+
+    private final Supplier<DatabaseManager> database;
+    private final ConcurrentHashMap<Long, Integer> userIncrements;
+    private final ConcurrentHashMap<Long, Integer> guildIncrements;
+
+    public UsageCounter(Mastr mastr) {
+        this(mastr::getDatabaseManager);
+        mastr.getScheduler().scheduleWithFixedDelay(() -> {
+            // An exception would cancel the schedule, and every count after it would be lost
+            try{
+                flush();
+            }
+            catch(RuntimeException ex){
+                logger.error("Failed to flush usage counters", ex);
+            }
+        }, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Creates a counter which is only flushed when {@link #flush()} is called
+     *
+     * @param database Supplies the database to write to
+     */
+    UsageCounter(Supplier<DatabaseManager> database) {
+        this.database = database;
+        this.userIncrements = new ConcurrentHashMap<>();
+        this.guildIncrements = new ConcurrentHashMap<>();
+    }
+
+    public void incrementUser(long userId){
+        userIncrements.merge(userId, 1, Integer::sum);
+    }
+
+    public void incrementGuild(long guildId){
+        guildIncrements.merge(guildId, 1, Integer::sum);
+    }
+
+    /**
+     * Writes all pending increments to the database as one bulk write per collection.
+     * Safe to call from any thread; increments made during a flush are kept for the next one.
+     * Each collection is written and retried on its own, and only increments which weren't applied are retried, so nothing is counted twice.
+     * Until the storage has started, increments are kept for a later flush.
+     */
+    public synchronized void flush(){
+        DatabaseManager db = database.get();
+        if(db == null) return;
+
+        flush("users", userIncrements, db::incrementUserTimesUsed);
+        flush("guilds", guildIncrements, db::incrementGuildTimesUsed);
+    }
+
+    private static void flush(String name, ConcurrentHashMap<Long, Integer> counters, Function<Map<Long, Integer>, Map<Long, Integer>> write){
+        Map<Long, Integer> drained = drain(counters);
+        if(drained.isEmpty()) return;
+
+        Map<Long, Integer> failed;
+        try{
+            failed = write.apply(drained);
+        }
+        catch(Exception ex){
+            logger.error("Failed to flush usage counters for " + name + ", will retry", ex);
+            failed = drained;
+        }
+
+        // Put the counts back so they are retried on the next flush
+        failed.forEach((id, amount) -> counters.merge(id, amount, Integer::sum));
+        if(!failed.isEmpty() && failed != drained) logger.warn(failed.size() + " usage counters for " + name + " weren't written, will retry");
+        logger.debug("Flushed usage counters for " + (drained.size() - failed.size()) + " " + name);
+    }
+
+    /**
+     * @return Amount of users and guilds with increments waiting to be written
+     */
+    int pending(){
+        return userIncrements.size() + guildIncrements.size();
+    }
+
+    private static Map<Long, Integer> drain(ConcurrentHashMap<Long, Integer> counters){
+        Map<Long, Integer> drained = new HashMap<>();
+        for(Long id : counters.keySet()){
+            // remove() is atomic, so an increment either lands in this batch or creates a fresh entry for the next one
+            Integer amount = counters.remove(id);
+            if(amount != null) drained.put(id, amount);
+        }
+
+        return drained;
+    }
+}
@@ -12,23 +12,34 @@ import com.okgabe.mastr2.db.DatabaseManager;
 import com.okgabe.mastr2.util.GuildTier;
 import com.okgabe.mastr2.util.SuspensionCode;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class BotGuild {
+    public static final String DEFAULT_PREFIX = "mas";
+
+    // Fields which can be changed and saved. timesUsed isn't one of them, it is only ever saved by UsageCounter.
+    public static final int PREFIX = 1;
+    public static final int GUILD_TIER = 1 << 1;
+    public static final int SUSPENSION_CODE = 1 << 2;
+
     private final long guildId;
-    private String prefix;
-    private int timesUsed;
-    private GuildTier guildTier;
-    private SuspensionCode suspensionCode;
+    // Cached copies are shared by every command lane and the scheduler, so changes must be visible to all of them at once
+    private volatile String prefix;
+    private final AtomicInteger timesUsed;
+    private volatile GuildTier guildTier;
+    private volatile SuspensionCode suspensionCode;
+    private int dirtyFields;
 
     public BotGuild(long guildId, String prefix, int timesUsed, GuildTier guildTier, SuspensionCode suspensionCode) {
         this.guildId = guildId;
         this.prefix = prefix;
-        this.timesUsed = timesUsed;
+        this.timesUsed = new AtomicInteger(timesUsed);
         this.guildTier = guildTier;
         this.suspensionCode = suspensionCode;
     }
 
     public BotGuild(long guildId){
-        this(guildId, "mas", 0, GuildTier.DEFAULT, SuspensionCode.UNSUSPENDED);
+        this(guildId, DEFAULT_PREFIX, 0, GuildTier.DEFAULT, SuspensionCode.UNSUSPENDED);
     }
 
     /**
@@ -51,18 +62,19 @@ public class BotGuild {
 
     public void setPrefix(String prefix) {
         this.prefix = prefix;
+        markDirty(PREFIX);
     }
 
     public int getTimesUsed() {
-        return timesUsed;
+        return timesUsed.get();
     }
 
     public void setTimesUsed(int timesUsed) {
-        this.timesUsed = timesUsed;
+        this.timesUsed.set(timesUsed);
     }
 
     public void incrementTimesUsed(){
-        timesUsed++;
+        timesUsed.incrementAndGet();
     }
 
     public GuildTier getGuildTier() {
@@ -71,6 +83,7 @@ public class BotGuild {
 
     public void setGuildTier(GuildTier guildTier) {
         this.guildTier = guildTier;
+        markDirty(GUILD_TIER);
     }
 
     public SuspensionCode getSuspensionCode() {
@@ -79,6 +92,27 @@ public class BotGuild {
 
     public void setSuspensionCode(SuspensionCode suspensionCode) {
         this.suspensionCode = suspensionCode;
+        markDirty(SUSPENSION_CODE);
+    }
+
+    /**
+     * Takes the fields changed since the last save, so only those are written
+     *
+     * @return Changed fields as a combination of the field flags, 0 if nothing changed
+     */
+    public synchronized int takeDirtyFields(){
+        int fields = dirtyFields;
+        dirtyFields = 0;
+        return fields;
+    }
+
+    /**
+     * Marks fields as changed, such as when a save of them failed
+     *
+     * @param fields Combination of the field flags
+     */
+    public synchronized void markDirty(int fields){
+        dirtyFields |= fields;
     }
 
     @Override
@@ -86,7 +120,7 @@ public class BotGuild {
         return "BotGuild{" +
                 "guildId=" + guildId +
                 ", prefix='" + prefix + '\'' +
-                ", timesUsed=" + timesUsed +
+                ", timesUsed=" + timesUsed.get() +
                 ", guildTier=" + guildTier +
                 ", suspensionCode=" + suspensionCode +
                 '}';
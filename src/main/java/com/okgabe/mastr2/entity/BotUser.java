@@ -12,12 +12,21 @@ import com.okgabe.mastr2.db.DatabaseManager;
 import com.okgabe.mastr2.permission.BotRole;
 import com.okgabe.mastr2.util.SuspensionCode;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class BotUser {
+    // Fields which can be changed and saved. timesUsed isn't one of them, it is only ever saved by UsageCounter.
+    public static final int ROLE = 1;
+    public static final int SUSPENSION_CODE = 1 << 1;
+    public static final int SUSPENSION_END = 1 << 2;
+
     private final long userId;
-    private BotRole role;
-    private int timesUsed;
-    private SuspensionCode suspensionCode;
-    private long suspensionEnd;
+    // Cached copies are shared by every command lane and the scheduler, so changes must be visible to all of them at once
+    private volatile BotRole role;
+    private final AtomicInteger timesUsed;
+    private volatile SuspensionCode suspensionCode;
+    private volatile long suspensionEnd;
+    private int dirtyFields;
 
     public BotUser(long userId){
         this(userId, BotRole.DEFAULT, 0, SuspensionCode.UNSUSPENDED, 0L);
@@ -26,7 +35,7 @@ public class BotUser {
     public BotUser(long userId, BotRole role, int timesUsed, SuspensionCode suspensionCode, long suspensionEnd) {
         this.userId = userId;
         this.role = role;
-        this.timesUsed = timesUsed;
+        this.timesUsed = new AtomicInteger(timesUsed);
         this.suspensionCode = suspensionCode;
         this.suspensionEnd = suspensionEnd;
     }
@@ -41,14 +50,15 @@ public class BotUser {
 
     public void setRole(BotRole role) {
         this.role = role;
+        markDirty(ROLE);
     }
 
     public int getTimesUsed() {
-        return timesUsed;
+        return timesUsed.get();
     }
 
     public void setTimesUsed(int timesUsed) {
-        this.timesUsed = timesUsed;
+        this.timesUsed.set(timesUsed);
     }
 
     public SuspensionCode getSuspensionCode() {
@@ -57,6 +67,7 @@ public class BotUser {
 
     public void setSuspensionCode(SuspensionCode suspensionCode) {
         this.suspensionCode = suspensionCode;
+        markDirty(SUSPENSION_CODE);
     }
 
     public long getSuspensionEnd() {
@@ -65,6 +76,7 @@ public class BotUser {
 
     public void setSuspensionEnd(long suspensionEnd) {
         this.suspensionEnd = suspensionEnd;
+        markDirty(SUSPENSION_END);
     }
 
     /**
@@ -78,7 +90,27 @@ public class BotUser {
     }
 
     public void incrementTimesUsed(){
-        timesUsed++;
+        timesUsed.incrementAndGet();
+    }
+
+    /**
+     * Takes the fields changed since the last save, so only those are written
+     *
+     * @return Changed fields as a combination of the field flags, 0 if nothing changed
+     */
+    public synchronized int takeDirtyFields(){
+        int fields = dirtyFields;
+        dirtyFields = 0;
+        return fields;
+    }
+
+    /**
+     * Marks fields as changed, such as when a save of them failed
+     *
+     * @param fields Combination of the field flags
+     */
+    public synchronized void markDirty(int fields){
+        dirtyFields |= fields;
     }
 
 }
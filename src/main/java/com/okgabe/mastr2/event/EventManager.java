@@ -9,16 +9,32 @@
 package com.okgabe.mastr2.event;
 
 import com.okgabe.mastr2.Mastr;
+import com.okgabe.mastr2.command.ParsedCommand;
 import com.okgabe.mastr2.entity.BotGuild;
 import com.okgabe.mastr2.entity.BotUser;
+import com.okgabe.mastr2.permission.BotRole;
 import net.dv8tion.jda.api.entities.ChannelType;
+import net.dv8tion.jda.api.events.guild.GuildLeaveEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberJoinEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRemoveEvent;
+import net.dv8tion.jda.api.events.guild.member.update.GuildMemberUpdateNicknameEvent;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.events.message.react.MessageReactionAddEvent;
 import net.dv8tion.jda.api.events.user.UserTypingEvent;
+import net.dv8tion.jda.api.events.user.update.UserUpdateDiscriminatorEvent;
+import net.dv8tion.jda.api.events.user.update.UserUpdateNameEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 public class EventManager extends ListenerAdapter {
 
+    private static final Logger logger = LoggerFactory.getLogger(EventManager.class);
+
     private Mastr mastr;
 
     public EventManager(Mastr mastr) {
@@ -30,31 +46,78 @@ public class EventManager extends ListenerAdapter {
         // Ignore bots and Mastr itself
         if(e.getAuthor().isBot()) return;
         if(e.isWebhookMessage()) return;
+        // Nothing is handled before every part of the bot has started, or once it is stopping
+        if(!mastr.getStartup().isReady() || mastr.getShutdownCoordinator().isShuttingDown()) return;
 
-        if(e.isFromType(ChannelType.PRIVATE)){
-            // Check if user is suspended, if so, return
-            BotUser user = mastr.getDatabaseManager().getBotUser(e.getAuthor().getIdLong());
-            if(mastr.getPermissionManager().isBannedUser(user)) return;
+        // Suspended authors are dropped with an in-memory lookup, before anything is parsed or loaded
+        if(mastr.getPermissionManager().isSuspendedUser(e.getAuthor().getIdLong())) return;
 
-            // Pass on the user's message to DM Handler
-            mastr.getDirectMessageHandler().handleMessage(e, user);
+        // Nothing here blocks on the database: cached data completes the futures right away, anything else continues once it is loaded
+        if(e.isFromType(ChannelType.PRIVATE)){
+            CompletableFuture<BotUser> userFuture = mastr.getCacheManager().getBotUserAsync(e.getAuthor().getIdLong());
+            userFuture.thenAcceptAsync(user -> {
+                // Pass on the user's message to DM Handler
+                mastr.getDirectMessageHandler().handleMessage(e, user);
+            }, continuation(userFuture.isDone(), e.getAuthor().getIdLong())).exceptionally(ex -> logFailure(e, ex));
         }
         else{
-            // Check if guild is suspended, if so, return
-            BotGuild guild = mastr.getDatabaseManager().getBotGuild(e.getGuild().getIdLong());
-            if(mastr.getPermissionManager().isBannedGuild(guild)) return;
-            // TODO: Add message caching here
+            if(mastr.getPermissionManager().isSuspendedGuild(e.getGuild().getIdLong())) return;
 
-            // Check if user is suspended, if so, return
-            BotUser user = mastr.getDatabaseManager().getBotUser(e.getAuthor().getIdLong());
-            if(mastr.getPermissionManager().isBannedUser(user)) return;
+            // Cheap checks first: only commands and answers to a ResponseHandler listener need any data from the database
+            boolean awaitingResponse = mastr.getResponseHandler().isListening(e.getChannel().getIdLong(), e.getAuthor().getIdLong());
+            CompletableFuture<ParsedCommand> parsed = awaitingResponse ? CompletableFuture.completedFuture(null) :
+                    mastr.getCommandHandler().parseMessage(e.getMessage(), e.getGuild().getIdLong());
+
+            parsed.thenCompose(command -> {
+                if(!awaitingResponse && command == null) return CompletableFuture.completedFuture(null);
+
+                long guildId = e.getGuild().getIdLong();
+                CompletableFuture<BotGuild> guildFuture = mastr.getCacheManager().getBotGuildAsync(guildId);
+                // A user restored from the cache snapshot may have lost a role since, so it is reloaded before its role is relied on.
+                // Whatever the user answers to a listener may also turn out to be a command.
+                boolean privileged = awaitingResponse || (!command.isMentionOnly() && command.getCommand().getMinimumRole().isAbove(BotRole.DEFAULT));
+                CompletableFuture<BotUser> userFuture = mastr.getCacheManager().getBotUserAsync(e.getAuthor().getIdLong(), privileged);
+
+                return guildFuture.thenCombineAsync(userFuture, (guild, user) -> handleMessage(e, command, user, guild), continuation(guildFuture.isDone() && userFuture.isDone(), guildId))
+                        .thenCompose(handled -> handled);
+            }).exceptionally(ex -> logFailure(e, ex));
+        }
+    }
 
-            // Check if ResponseHandler is listening for this user's message, if so, return
-            if(mastr.getResponseHandler().handleMessage(e.getMessage())) return;
+    /**
+     * Anything loaded from the database completes on the driver's threads, which must not run listeners or commands.
+     * Continuations of loaded data therefore run on the lane of the guild, or of the user in direct messages.
+     *
+     * @param loaded Whether everything needed was cached, so the continuation can run right away
+     * @param key ID of the guild, or of the user for direct messages
+     * @return Executor for the continuation
+     */
+    private Executor continuation(boolean loaded, long key){
+        if(loaded) return Runnable::run;
+        return task -> {
+            if(!mastr.getCommandExecutor().submit(key, task)) throw new RejectedExecutionException("Lane of " + key + " is full");
+        };
+    }
 
-            // Check if user issued a command
-            mastr.getCommandHandler().handleMessage(e, user, guild);
+    private CompletableFuture<Void> handleMessage(MessageReceivedEvent e, ParsedCommand command, BotUser user, BotGuild guild){
+        if(command != null){
+            // Run the command the user issued
+            mastr.getCommandHandler().handleCommand(command, e.getMember(), e.getTextChannel(), e.getMessage(), user, guild);
+            return CompletableFuture.completedFuture(null);
         }
+
+        // Check if ResponseHandler is listening for this user's message, if so, return
+        if(mastr.getResponseHandler().handleMessage(e.getMessage())) return CompletableFuture.completedFuture(null);
+
+        // The listener went away in the meantime, so treat the message like any other
+        return mastr.getCommandHandler().parseMessage(e.getMessage(), e.getGuild().getIdLong()).thenAccept(late -> {
+            if(late != null) mastr.getCommandHandler().handleCommand(late, e.getMember(), e.getTextChannel(), e.getMessage(), user, guild);
+        });
+    }
+
+    private Void logFailure(MessageReceivedEvent e, Throwable ex){
+        logger.error("Failed to handle message " + e.getMessageId() + " from user " + e.getAuthor().getId(), ex);
+        return null;
     }
 
     public void onUserTyping(UserTypingEvent e){
@@ -63,6 +126,39 @@ public class EventManager extends ListenerAdapter {
 
     @Override
     public void onMessageReactionAdd(MessageReactionAddEvent e){
-        mastr.getReactionHandler().handleReaction(e.getReaction(), e.getMessageIdLong(), e.getChannelType(), e.getUser());
+        if(!mastr.getStartup().isReady()) return;
+        mastr.getReactionHandler().handleReaction(e.getReaction(), e.getMessageIdLong(), e.getUserIdLong());
+    }
+
+    // Member events keep the name index current. Only the full memory profile has the GUILD_MEMBERS intent they need,
+    // with the other profiles indexed names expire instead.
+    @Override
+    public void onGuildMemberJoin(GuildMemberJoinEvent e){
+        mastr.getMemberNameIndex().update(e.getMember());
+    }
+
+    @Override
+    public void onGuildMemberRemove(GuildMemberRemoveEvent e){
+        mastr.getMemberNameIndex().remove(e.getGuild().getIdLong(), e.getUser().getIdLong());
+    }
+
+    @Override
+    public void onGuildMemberUpdateNickname(GuildMemberUpdateNicknameEvent e){
+        mastr.getMemberNameIndex().update(e.getMember());
+    }
+
+    @Override
+    public void onUserUpdateName(UserUpdateNameEvent e){
+        mastr.getMemberNameIndex().update(e.getUser());
+    }
+
+    @Override
+    public void onUserUpdateDiscriminator(UserUpdateDiscriminatorEvent e){
+        mastr.getMemberNameIndex().update(e.getUser());
+    }
+
+    @Override
+    public void onGuildLeave(GuildLeaveEvent e){
+        mastr.getMemberNameIndex().removeGuild(e.getGuild().getIdLong());
     }
-}
\ No newline at end of file
+}
@@ -9,70 +9,147 @@
 package com.okgabe.mastr2.event;
 
 import com.okgabe.mastr2.Mastr;
-import net.dv8tion.jda.api.entities.ChannelType;
+import com.okgabe.mastr2.cache.LongObjectMap;
 import net.dv8tion.jda.api.entities.MessageReaction;
-import net.dv8tion.jda.api.entities.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Listens for reactions on specific messages, such as the help command's page buttons.
+ * Listeners are indexed by message ID, so reactions on any other message are dismissed with a single lookup.
+ */
 public class ReactionHandler {
 
-    private Mastr mastr;
-    private List<ReactionListener> guildReactionListeners;
-    private List<ReactionListener> dmReactionListeners;
+    private static final Logger logger = LoggerFactory.getLogger(ReactionHandler.class);
+    private static final ReactionListener[] NO_LISTENERS = new ReactionListener[0];
+
+    private final ScheduledExecutorService scheduler;
+    // Arrays are never modified once stored, writers replace them while holding writeLock
+    private final LongObjectMap<ReactionListener[]> listeners;
+    private final Object writeLock = new Object();
 
     public ReactionHandler(Mastr mastr) {
-        this.mastr = mastr;
-        this.guildReactionListeners = new ArrayList<>();
-        this.dmReactionListeners = new ArrayList<>();
+        this(mastr.getScheduler());
     }
 
-    public void handleReaction(MessageReaction reaction, long messageId, ChannelType channelType, User user){
-        if(channelType == ChannelType.TEXT){
-            for(ReactionListener identity : guildReactionListeners){
-                if(identity.getMessageId() == messageId && user.getIdLong() == identity.getUserId()){
-                    identity.setReaction(reaction);
-                    identity.getHandler().accept(identity);
-                }
-            }
-        }
-        else if(channelType == ChannelType.PRIVATE){
-            for(ReactionListener identity : dmReactionListeners){
-                if(identity.getMessageId() == messageId && user.getIdLong() == identity.getUserId()){
-                    identity.setReaction(reaction);
-                    identity.getHandler().accept(identity);
-                }
+    /**
+     * @param scheduler Scheduler running the timeouts of the listeners
+     */
+    ReactionHandler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+        this.listeners = new LongObjectMap<>();
+    }
+
+    /**
+     * Passes a reaction to every listener registered for the message and user
+     *
+     * @param reaction Reaction that was added
+     * @param messageId ID of the message the reaction was added to
+     * @param userId ID of the user who reacted
+     */
+    public void handleReaction(MessageReaction reaction, long messageId, long userId){
+        ReactionListener[] candidates = listeners.get(messageId);
+        if(candidates == null) return;
+
+        for(ReactionListener identity : candidates){
+            if(identity.getUserId() != userId) continue;
+
+            // Locking on the listener keeps its handler from running at the same time as its timeout
+            synchronized(identity){
+                if(!identity.isActive()) continue;
+                identity.setReaction(reaction);
+                identity.getHandler().accept(identity);
             }
         }
     }
 
     public void register(ReactionListener reactionIdentity){
-        if(reactionIdentity.getChannelType() == ChannelType.PRIVATE){
-            dmReactionListeners.add(reactionIdentity);
-        }
-        else if(reactionIdentity.getChannelType() == ChannelType.TEXT){
-            guildReactionListeners.add(reactionIdentity);
+        synchronized(writeLock){
+            ReactionListener[] current = listeners.get(reactionIdentity.getMessageId());
+            if(current == null) current = NO_LISTENERS;
+
+            ReactionListener[] updated = new ReactionListener[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = reactionIdentity;
+            listeners.put(reactionIdentity.getMessageId(), updated);
         }
 
-        ScheduledFuture<?> timeoutSchedule = mastr.getScheduler().schedule(() -> {
-            reactionIdentity.getTimeoutHandler().accept(reactionIdentity);
-            if(reactionIdentity.getChannelType()==ChannelType.TEXT)
-                guildReactionListeners.remove(reactionIdentity);
-            else if(reactionIdentity.getChannelType()==ChannelType.PRIVATE)
-                dmReactionListeners.remove(reactionIdentity);
+        ScheduledFuture<?> timeoutSchedule = scheduler.schedule(() -> {
+            synchronized(reactionIdentity){
+                if(remove(reactionIdentity)) reactionIdentity.getTimeoutHandler().accept(reactionIdentity);
+            }
         }, reactionIdentity.getTimeout(), TimeUnit.SECONDS);
 
         reactionIdentity.setTimeoutSchedule(timeoutSchedule);
     }
 
     public void unregister(ReactionListener reactionIdentity){
-        reactionIdentity.getTimeoutSchedule().cancel(false);
-        if(reactionIdentity.getChannelType()==ChannelType.TEXT)
-            guildReactionListeners.remove(reactionIdentity);
-        else if(reactionIdentity.getChannelType()==ChannelType.PRIVATE)
-            dmReactionListeners.remove(reactionIdentity);
+        if(reactionIdentity.getTimeoutSchedule() != null) reactionIdentity.getTimeoutSchedule().cancel(false);
+        remove(reactionIdentity);
+    }
+
+    /**
+     * Removes every listener and runs its timeout handler right away, such as when the bot is stopping
+     *
+     * @return Amount of listeners which were timed out
+     */
+    public int timeOutAll(){
+        List<ReactionListener> pending = new ArrayList<>();
+        listeners.forEach((messageId, registered) -> Collections.addAll(pending, registered));
+
+        int timedOut = 0;
+        for(ReactionListener identity : pending){
+            if(identity.getTimeoutSchedule() != null) identity.getTimeoutSchedule().cancel(false);
+
+            synchronized(identity){
+                if(!remove(identity)) continue;
+
+                try{
+                    identity.getTimeoutHandler().accept(identity);
+                    timedOut++;
+                }
+                catch(Exception ex){
+                    logger.warn("Timeout handler of a reaction listener failed", ex);
+                }
+            }
+        }
+
+        return timedOut;
+    }
+
+    private boolean remove(ReactionListener identity){
+        synchronized(writeLock){
+            ReactionListener[] current = listeners.get(identity.getMessageId());
+            if(current == null) return false;
+
+            int index = -1;
+            for(int i = 0; i < current.length; i++){
+                if(current[i] == identity){
+                    index = i;
+                    break;
+                }
+            }
+            if(index == -1) return false;
+
+            if(current.length == 1){
+                listeners.remove(identity.getMessageId());
+            }
+            else{
+                ReactionListener[] updated = new ReactionListener[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, index);
+                System.arraycopy(current, index + 1, updated, index, updated.length - index);
+                listeners.put(identity.getMessageId(), updated);
+            }
+
+            identity.deactivate();
+            return true;
+        }
     }
 }
@@ -28,6 +28,7 @@ public class ReactionListener {
 
     private ScheduledFuture<?> timeoutSchedule;
     private MessageReaction reaction;
+    private volatile boolean active = true;
 
     public ReactionListener(JDA jda, ChannelType channelType, long channelId, long messageId, long userId, long timeout, Consumer<ReactionListener> handler, Consumer<ReactionListener> timeoutHandler) {
         this.jda = jda;
@@ -80,6 +81,17 @@ public class ReactionListener {
         return reaction;
     }
 
+    /**
+     * @return False once the listener has been unregistered or has timed out
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    void deactivate() {
+        active = false;
+    }
+
     public JDA getJda() {
         return jda;
     }
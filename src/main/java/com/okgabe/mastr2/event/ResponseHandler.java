@@ -9,75 +9,171 @@
 package com.okgabe.mastr2.event;
 
 import com.okgabe.mastr2.Mastr;
-import net.dv8tion.jda.api.entities.ChannelType;
+import com.okgabe.mastr2.cache.LongObjectMap;
 import net.dv8tion.jda.api.entities.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Listens for responses in DMs and text channels
  * Useful for games without utilizing the bot's prefix, support systems in DMs, interactive commands, et. cetera.
+ * <p>
+ * Listeners are indexed by their channel and user, so checking a message is a single lookup. If several listeners wait
+ * on the same channel and user, the one registered first receives the message.
  */
 public class ResponseHandler {
 
-    private Mastr mastr;
-    private List<ResponseListener> guildResponseListeners;
-    private List<ResponseListener> dmResponseListeners;
+    private static final Logger logger = LoggerFactory.getLogger(ResponseHandler.class);
+    private static final ResponseListener[] NO_LISTENERS = new ResponseListener[0];
+
+    private final ScheduledExecutorService scheduler;
+    // Arrays are never modified once stored, writers replace them while holding writeLock
+    private final LongObjectMap<ResponseListener[]> listeners;
+    private final Object writeLock = new Object();
 
     public ResponseHandler(Mastr mastr) {
-        this.mastr = mastr;
-        guildResponseListeners = new ArrayList<>();
-        dmResponseListeners = new ArrayList<>();
+        this(mastr.getScheduler());
+    }
+
+    /**
+     * @param scheduler Scheduler running the timeouts of the listeners
+     */
+    ResponseHandler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+        listeners = new LongObjectMap<>();
     }
 
     public boolean handleMessage(Message m){
-        if(m.isFromType(ChannelType.TEXT)){
-            for(ResponseListener identity : guildResponseListeners){
-                if(identity.getUserId() == m.getAuthor().getIdLong() && identity.getChannelId() == m.getChannel().getIdLong()){
-                    identity.setMessage(m);
-                    identity.getHandler().accept(identity);
-                    return true;
-                }
-            }
-        }
-        else if(m.isFromType(ChannelType.PRIVATE)){
-            for(ResponseListener identity : dmResponseListeners){
-                if(identity.getUserId() == m.getAuthor().getIdLong() && identity.getChannelId() == m.getChannel().getIdLong()){
-                    identity.setMessage(m);
-                    identity.getHandler().accept(identity);
-                    return true;
-                }
-            }
+        ResponseListener identity = find(m.getChannel().getIdLong(), m.getAuthor().getIdLong());
+        if(identity == null) return false;
+
+        // Locking on the listener keeps its handler from running at the same time as its timeout
+        synchronized(identity){
+            if(!identity.isActive()) return false;
+            identity.setMessage(m);
+            identity.getHandler().accept(identity);
         }
+        return true;
+    }
 
-        return false;
+    /**
+     * Checks whether a listener is waiting for a message from the given user in the given channel
+     *
+     * @param channelId ID of the channel
+     * @param userId ID of the user
+     * @return True if a listener would handle such a message
+     */
+    public boolean isListening(long channelId, long userId){
+        return find(channelId, userId) != null;
     }
 
     public void register(ResponseListener responseIdentity){
-        if(responseIdentity.getChannelType()==ChannelType.TEXT)
-            guildResponseListeners.add(responseIdentity);
-        else if(responseIdentity.getChannelType()==ChannelType.PRIVATE)
-            dmResponseListeners.add(responseIdentity);
-
-        ScheduledFuture<?> timeoutSchedule = mastr.getScheduler().schedule(() -> {
-            responseIdentity.getTimeoutHandler().accept(responseIdentity);
-            if(responseIdentity.getChannelType()==ChannelType.TEXT)
-                guildResponseListeners.remove(responseIdentity);
-            else if(responseIdentity.getChannelType()==ChannelType.PRIVATE)
-                dmResponseListeners.remove(responseIdentity);
+        long key = key(responseIdentity.getChannelId(), responseIdentity.getUserId());
+        synchronized(writeLock){
+            ResponseListener[] current = listeners.get(key);
+            if(current == null) current = NO_LISTENERS;
+
+            ResponseListener[] updated = new ResponseListener[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = responseIdentity;
+            listeners.put(key, updated);
+        }
+
+        // The timeout handler only runs if the listener wasn't unregistered first
+        ScheduledFuture<?> timeoutSchedule = scheduler.schedule(() -> {
+            synchronized(responseIdentity){
+                if(remove(responseIdentity)) responseIdentity.getTimeoutHandler().accept(responseIdentity);
+            }
         }, responseIdentity.getTimeout(), TimeUnit.SECONDS);
 
         responseIdentity.setTimeoutSchedule(timeoutSchedule);
     }
 
     public void unregister(ResponseListener identity){
-        identity.getTimeoutSchedule().cancel(false);
-        if(identity.getChannelType()==ChannelType.TEXT)
-            guildResponseListeners.remove(identity);
-        else if(identity.getChannelType()==ChannelType.PRIVATE)
-            dmResponseListeners.remove(identity);
+        if(identity.getTimeoutSchedule() != null) identity.getTimeoutSchedule().cancel(false);
+        remove(identity);
+    }
+
+    /**
+     * Removes every listener and runs its timeout handler right away, such as when the bot is stopping
+     *
+     * @return Amount of listeners which were timed out
+     */
+    public int timeOutAll(){
+        List<ResponseListener> pending = new ArrayList<>();
+        listeners.forEach((key, registered) -> Collections.addAll(pending, registered));
+
+        int timedOut = 0;
+        for(ResponseListener identity : pending){
+            if(identity.getTimeoutSchedule() != null) identity.getTimeoutSchedule().cancel(false);
+
+            synchronized(identity){
+                if(!remove(identity)) continue;
+
+                try{
+                    identity.getTimeoutHandler().accept(identity);
+                    timedOut++;
+                }
+                catch(Exception ex){
+                    logger.warn("Timeout handler of a response listener failed", ex);
+                }
+            }
+        }
+
+        return timedOut;
+    }
+
+    private ResponseListener find(long channelId, long userId){
+        ResponseListener[] candidates = listeners.get(key(channelId, userId));
+        if(candidates == null) return null;
+
+        // Different channel and user pairs can share a key, so the IDs are checked as well
+        for(ResponseListener identity : candidates){
+            if(identity.getChannelId() == channelId && identity.getUserId() == userId) return identity;
+        }
+
+        return null;
+    }
+
+    private boolean remove(ResponseListener identity){
+        long key = key(identity.getChannelId(), identity.getUserId());
+        synchronized(writeLock){
+            ResponseListener[] current = listeners.get(key);
+            if(current == null) return false;
+
+            int index = -1;
+            for(int i = 0; i < current.length; i++){
+                if(current[i] == identity){
+                    index = i;
+                    break;
+                }
+            }
+            if(index == -1) return false;
+
+            if(current.length == 1){
+                listeners.remove(key);
+            }
+            else{
+                ResponseListener[] updated = new ResponseListener[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, index);
+                System.arraycopy(current, index + 1, updated, index, updated.length - index);
+                listeners.put(key, updated);
+            }
+
+            identity.deactivate();
+            return true;
+        }
+    }
+
+    private static long key(long channelId, long userId){
+        // Both IDs are snowflakes, so rotating one keeps their timestamp bits from lining up
+        return Long.rotateLeft(channelId, 32) ^ userId;
     }
 }
@@ -24,6 +24,7 @@ public class ResponseListener {
     private Consumer<ResponseListener> timeoutHandler;
     private ScheduledFuture<?> timeoutSchedule;
     private Message message;
+    private volatile boolean active = true;
 
     public ResponseListener(ChannelType channelType, long channelId, long userId, long timeout, Consumer<ResponseListener> handler, Consumer<ResponseListener> timeoutHandler) {
         if(channelType!=ChannelType.PRIVATE && channelType!=ChannelType.TEXT){
@@ -45,6 +46,17 @@ public class ResponseListener {
         this.message = message;
     }
 
+    /**
+     * @return False once the listener has been unregistered or has timed out
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    void deactivate() {
+        active = false;
+    }
+
     public ChannelType getChannelType() {
         return channelType;
     }
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.metrics;
+
+import com.okgabe.mastr2.cache.EntityCache;
+
+/**
+ * Exposes the statistics of an {@link EntityCache}
+ */
+public class CacheStats implements CacheStatsMXBean {
+
+    private final EntityCache<?> cache;
+
+    public CacheStats(EntityCache<?> cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public String getName() {
+        return cache.getName();
+    }
+
+    @Override
+    public int getSize() {
+        return cache.size();
+    }
+
+    @Override
+    public int getMaximumSize() {
+        return cache.getMaximumSize();
+    }
+
+    @Override
+    public long getHits() {
+        return cache.getHits();
+    }
+
+    @Override
+    public long getMisses() {
+        return cache.getMisses();
+    }
+
+    @Override
+    public long getEvictions() {
+        return cache.getEvictions();
+    }
+
+    @Override
+    public double getHitRatio() {
+        return cache.getHitRatio();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and stage timings of a single command, or of every command in a category
+ */
+public class CommandMetrics implements CommandMetricsMXBean {
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final String name;
+    private final AtomicLong invocations = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+    private final LatencyHistogram[] stages;
+
+    public CommandMetrics(String name) {
+        this.name = name;
+        stages = new LatencyHistogram[STAGES.length];
+        for(int i = 0; i < stages.length; i++){
+            stages[i] = new LatencyHistogram();
+        }
+    }
+
+    void record(Stage stage, long nanos){
+        stages[stage.ordinal()].record(nanos);
+    }
+
+    void invoked(){
+        invocations.incrementAndGet();
+    }
+
+    void failed(){
+        errors.incrementAndGet();
+    }
+
+    void rejected(){
+        rejections.incrementAndGet();
+    }
+
+    public LatencyHistogram getHistogram(Stage stage){
+        return stages[stage.ordinal()];
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getInvocations() {
+        return invocations.get();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    @Override
+    public LatencySnapshot getParse() {
+        return getHistogram(Stage.PARSE).snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getDatabase() {
+        return getHistogram(Stage.DATABASE).snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getQueueWait() {
+        return getHistogram(Stage.QUEUE_WAIT).snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getPermission() {
+        return getHistogram(Stage.PERMISSION).snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getExecution() {
+        return getHistogram(Stage.EXECUTION).snapshot();
+    }
+}
@@ -0,0 +1,21 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.metrics;
+
+public interface CommandMetricsMXBean {
+    String getName();
+    long getInvocations();
+    long getErrors();
+    long getRejections();
+    LatencySnapshot getParse();
+    LatencySnapshot getDatabase();
+    LatencySnapshot getQueueWait();
+    LatencySnapshot getPermission();
+    LatencySnapshot getExecution();
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations in nanoseconds.
+ * Each power of two is split into 8 buckets, so reported percentiles are within about 12% of the real value.
+ * Recording only updates atomic counters and never allocates.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param nanos Duration to record, negative durations are counted as 0
+     */
+    public void record(long nanos){
+        if(nanos < 0) nanos = 0;
+        buckets.incrementAndGet(bucketOf(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+
+        long currentMax;
+        while(nanos > (currentMax = max.get())){
+            if(max.compareAndSet(currentMax, nanos)) break;
+        }
+    }
+
+    public long getCount(){
+        return count.get();
+    }
+
+    public long getMax(){
+        return max.get();
+    }
+
+    public double getMean(){
+        long n = count.get();
+        return n == 0 ? 0 : (double)total.get() / n;
+    }
+
+    /**
+     * @param percentile Percentile to get, between 0 and 100
+     * @return Upper bound of the bucket containing the percentile, in nanoseconds (0 if nothing was recorded)
+     */
+    public long getPercentile(double percentile){
+        long n = count.get();
+        if(n == 0) return 0;
+
+        long rank = Math.max(1, (long)Math.ceil(n * percentile / 100.0));
+        long seen = 0;
+        for(int i = 0; i < BUCKET_COUNT; i++){
+            seen += buckets.get(i);
+            if(seen >= rank) return Math.min(upperBoundOf(i), max.get());
+        }
+
+        // Recording raced with this read, so the buckets add up to less than the count
+        return max.get();
+    }
+
+    public LatencySnapshot snapshot(){
+        return new LatencySnapshot(getCount(), getMean(), getPercentile(50), getPercentile(90), getPercentile(99), getMax());
+    }
+
+    static int bucketOf(long value){
+        if(value < SUB_BUCKETS) return (int)value;
+
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        int shift = highestBit - SUB_BUCKET_BITS;
+        int subBucket = (int)(value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int bucket){
+        if(bucket < SUB_BUCKETS) return bucket;
+
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowerBound = (long)(SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+}
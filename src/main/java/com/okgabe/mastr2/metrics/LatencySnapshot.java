@@ -0,0 +1,57 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.metrics;
+
+/**
+ * Point-in-time view of a {@link LatencyHistogram}, with durations in milliseconds
+ */
+public class LatencySnapshot {
+
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final long count;
+    private final double mean;
+    private final double p50;
+    private final double p90;
+    private final double p99;
+    private final double max;
+
+    LatencySnapshot(long count, double meanNanos, long p50Nanos, long p90Nanos, long p99Nanos, long maxNanos) {
+        this.count = count;
+        this.mean = meanNanos / NANOS_PER_MILLI;
+        this.p50 = p50Nanos / NANOS_PER_MILLI;
+        this.p90 = p90Nanos / NANOS_PER_MILLI;
+        this.p99 = p99Nanos / NANOS_PER_MILLI;
+        this.max = maxNanos / NANOS_PER_MILLI;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getP50() {
+        return p50;
+    }
+
+    public double getP90() {
+        return p90;
+    }
+
+    public double getP99() {
+        return p99;
+    }
+
+    public double getMax() {
+        return max;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.metrics;
+
+import com.okgabe.mastr2.cache.EntityCache;
+import com.okgabe.mastr2.command.CommandBase;
+import com.okgabe.mastr2.command.CommandCategory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Keeps the metrics of every command, every command category and the entity caches.
+ * All metrics are created up front when commands are registered, so recording is only a map lookup plus atomic updates.
+ */
+public class MetricsRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricsRegistry.class);
+    private static final String DOMAIN = "com.okgabe.mastr2";
+
+    private final Map<CommandBase, CommandMetrics> byCommand;
+    private final Map<CommandCategory, CommandMetrics> byCategory;
+    private final List<CacheStats> caches;
+
+    /**
+     * @param commands Registered commands
+     * @param caches Caches to report on
+     */
+    public MetricsRegistry(Collection<? extends CommandBase> commands, EntityCache<?>... caches) {
+        Map<CommandBase, CommandMetrics> commandMetrics = new IdentityHashMap<>();
+        for(CommandBase cmd : commands){
+            commandMetrics.put(cmd, new CommandMetrics(cmd.getCommand()));
+        }
+
+        Map<CommandCategory, CommandMetrics> categoryMetrics = new EnumMap<>(CommandCategory.class);
+        for(CommandCategory category : CommandCategory.values()){
+            categoryMetrics.put(category, new CommandMetrics(category.getName()));
+        }
+
+        List<CacheStats> cacheStats = new ArrayList<>();
+        for(EntityCache<?> cache : caches){
+            cacheStats.add(new CacheStats(cache));
+        }
+
+        this.byCommand = Collections.unmodifiableMap(commandMetrics);
+        this.byCategory = Collections.unmodifiableMap(categoryMetrics);
+        this.caches = Collections.unmodifiableList(cacheStats);
+    }
+
+    /**
+     * Records how long a command spent in one stage
+     *
+     * @param cmd Command
+     * @param stage Stage that was timed
+     * @param nanos Time spent in nanoseconds
+     */
+    public void record(CommandBase cmd, Stage stage, long nanos){
+        CommandMetrics metrics = byCommand.get(cmd);
+        if(metrics == null) return;
+
+        metrics.record(stage, nanos);
+        CommandMetrics category = byCategory.get(cmd.getCategory());
+        if(category != null) category.record(stage, nanos);
+    }
+
+    public void invoked(CommandBase cmd){
+        CommandMetrics metrics = byCommand.get(cmd);
+        if(metrics == null) return;
+
+        metrics.invoked();
+        CommandMetrics category = byCategory.get(cmd.getCategory());
+        if(category != null) category.invoked();
+    }
+
+    public void failed(CommandBase cmd){
+        CommandMetrics metrics = byCommand.get(cmd);
+        if(metrics == null) return;
+
+        metrics.failed();
+        CommandMetrics category = byCategory.get(cmd.getCategory());
+        if(category != null) category.failed();
+    }
+
+    /**
+     * Counts a command which couldn't be queued because its lane was full
+     *
+     * @param cmd Command
+     */
+    public void rejected(CommandBase cmd){
+        CommandMetrics metrics = byCommand.get(cmd);
+        if(metrics == null) return;
+
+        metrics.rejected();
+        CommandMetrics category = byCategory.get(cmd.getCategory());
+        if(category != null) category.rejected();
+    }
+
+    public CommandMetrics getMetrics(CommandBase cmd){
+        return byCommand.get(cmd);
+    }
+
+    public CommandMetrics getMetrics(CommandCategory category){
+        return byCategory.get(category);
+    }
+
+    public Collection<CommandMetrics> getCommandMetrics(){
+        return byCommand.values();
+    }
+
+    public List<CacheStats> getCacheStats(){
+        return caches;
+    }
+
+    /**
+     * Registers every command, category and cache with the platform MBean server, so they can be read over JMX
+     */
+    public void registerMBeans(){
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try{
+            for(CommandMetrics metrics : byCommand.values()){
+                register(server, "Command", metrics.getName(), metrics);
+            }
+            for(CommandMetrics metrics : byCategory.values()){
+                register(server, "Category", metrics.getName(), metrics);
+            }
+            for(CacheStats stats : caches){
+                register(server, "Cache", stats.getName(), stats);
+            }
+        }
+        catch(JMException ex){
+            logger.warn("Failed to register metrics with JMX", ex);
+        }
+    }
+
+    private static void register(MBeanServer server, String type, String name, Object bean) throws JMException {
+        ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+        // Replace beans left behind by an earlier registry, such as in tests
+        if(server.isRegistered(objectName)) server.unregisterMBean(objectName);
+        server.registerMBean(bean, objectName);
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.metrics;
+
+/**
+ * Steps a command goes through, each timed separately
+ */
+public enum Stage {
+    /** Matching the prefix and looking up the command */
+    PARSE("Parse"),
+    /** Loading the user and guild, from the end of parsing until the command is handed to the CommandHandler */
+    DATABASE("Database"),
+    /** Waiting in the CommandExecutor's queue */
+    QUEUE_WAIT("Queue wait"),
+    /** Checking the user's role against the command's minimum role */
+    PERMISSION("Permission"),
+    /** Running the command, not counting requests it queues with JDA */
+    EXECUTION("Execution");
+
+    private final String name;
+
+    Stage(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
@@ -13,16 +13,67 @@ import com.okgabe.mastr2.entity.BotGuild;
 import com.okgabe.mastr2.entity.BotUser;
 import com.okgabe.mastr2.util.SuspensionCode;
 import com.okgabe.mastr2.util.TimeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
 
 public class PermissionManager {
+    private static final Logger logger = LoggerFactory.getLogger(PermissionManager.class);
+
     private Mastr mastr;
+    private SuspensionIndex suspendedUsers;
+    private SuspensionIndex suspendedGuilds;
+    private SuspensionExpiry expiry;
 
+    /**
+     * Loads every suspended user and guild into memory, so suspensions can be checked without the database,
+     * and schedules every temporary suspension to be lifted when it ends
+     *
+     * @param mastr Bot instance
+     */
     public PermissionManager(Mastr mastr) {
         this.mastr = mastr;
+        Map<Long, Long> users = mastr.getDatabaseManager().getSuspendedUsers();
+        suspendedUsers = new SuspensionIndex(users);
+        suspendedGuilds = new SuspensionIndex(mastr.getDatabaseManager().getSuspendedGuilds());
+        logger.info("Loaded " + suspendedUsers.size() + " suspended users and " + suspendedGuilds.size() + " suspended guilds");
+
+        expiry = new SuspensionExpiry(mastr.getScheduler(), suspendedUsers, now -> mastr.getDatabaseManager().liftExpiredSuspensions(now), this::lifted);
+        users.forEach(expiry::schedule);
+    }
+
+    // The database is already up to date, only the cached user still needs to know
+    private void lifted(long id, long end){
+        BotUser cached = mastr.getCacheManager().getUserCache().get(id);
+        if(cached != null && cached.getSuspensionEnd() == end && cached.getSuspensionCode() != SuspensionCode.PERMANENT_SUSPENSION){
+            cached.setSuspensionCode(SuspensionCode.UNSUSPENDED);
+            cached.setSuspensionEnd(0L);
+        }
+    }
+
+    /**
+     * Checks if a user is suspended, without loading the user
+     *
+     * @param id User ID
+     * @return True if suspended
+     */
+    public boolean isSuspendedUser(long id){
+        return suspendedUsers.isSuspended(id, TimeUtil.getNow());
+    }
+
+    /**
+     * Checks if a guild is suspended, without loading the guild
+     *
+     * @param id Guild ID
+     * @return True if suspended
+     */
+    public boolean isSuspendedGuild(long id){
+        return suspendedGuilds.isSuspended(id, TimeUtil.getNow());
     }
 
     public boolean isBannedUser(long id){
-        return isBannedUser(mastr.getDatabaseManager().getBotUser(id));
+        return isBannedUser(mastr.getCacheManager().getBotUser(id));
     }
 
     public boolean isBannedUser(BotUser user){
@@ -30,22 +81,14 @@ public class PermissionManager {
             return true;
         }
         else if(user.getSuspensionCode() == SuspensionCode.AUTOMATIC_SUSPENSION || user.getSuspensionCode() == SuspensionCode.TEMPORARY_SUSPENSION){
-            long now = TimeUtil.getNow();
-            long unsuspension = user.getSuspensionEnd();
-
-            if(now >= unsuspension){
-                user.setSuspensionCode(SuspensionCode.UNSUSPENDED);
-                user.setSuspensionEnd(0L);
-                user.set(mastr.getDatabaseManager());
-                return false;
-            }
-            else return true;
+            // Ended suspensions are lifted by SuspensionExpiry, this only reads
+            return TimeUtil.getNow() < user.getSuspensionEnd();
         }
         else return false;
     }
 
     public boolean isBannedGuild(long id){
-        return isBannedGuild(mastr.getDatabaseManager().getBotGuild(id));
+        return isBannedGuild(mastr.getCacheManager().getBotGuild(id));
     }
 
     public boolean isBannedGuild(BotGuild guild){
@@ -53,7 +96,7 @@ public class PermissionManager {
     }
 
     public boolean suspend(long id, SuspensionCode code, long suspensionEnd){
-        return suspend(mastr.getDatabaseManager().getBotUser(id), code, suspensionEnd);
+        return suspend(mastr.getCacheManager().getBotUser(id), code, suspensionEnd);
     }
 
     /**
@@ -63,7 +106,7 @@ public class PermissionManager {
      * @return True if successful, false if already suspended
      */
     public boolean suspend(long id){
-        return suspend(mastr.getDatabaseManager().getBotUser(id), SuspensionCode.PERMANENT_SUSPENSION, 0);
+        return suspend(mastr.getCacheManager().getBotUser(id), SuspensionCode.PERMANENT_SUSPENSION, 0);
     }
 
     /**
@@ -92,6 +135,9 @@ public class PermissionManager {
         user.setSuspensionCode(code);
         user.setSuspensionEnd(suspensionEnd);
         user.set(mastr.getDatabaseManager());
+        long end = code == SuspensionCode.PERMANENT_SUSPENSION ? SuspensionIndex.PERMANENT : suspensionEnd;
+        suspendedUsers.put(user.getUserId(), end);
+        expiry.schedule(user.getUserId(), end);
         return true;
     }
 
@@ -102,7 +148,7 @@ public class PermissionManager {
      * @return True if successful, false if not suspended
      */
     public boolean unsuspend(long id){
-        return unsuspend(mastr.getDatabaseManager().getBotUser(id));
+        return unsuspend(mastr.getCacheManager().getBotUser(id));
     }
 
     /**
@@ -116,6 +162,7 @@ public class PermissionManager {
         user.setSuspensionEnd(0L);
         user.setSuspensionCode(SuspensionCode.UNSUSPENDED);
         user.set(mastr.getDatabaseManager());
+        suspendedUsers.remove(user.getUserId());
         return true;
     }
 }
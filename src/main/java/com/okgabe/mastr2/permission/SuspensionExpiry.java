@@ -0,0 +1,170 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.permission;
+
+import com.okgabe.mastr2.util.TimeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * Lifts temporary suspensions once they end.
+ * Pending expirations are kept ordered by end time, and a single task is scheduled for the earliest one.
+ * When it fires, every suspension which has ended by then is lifted at once.
+ */
+public class SuspensionExpiry {
+
+    private static final Logger logger = LoggerFactory.getLogger(SuspensionExpiry.class);
+    private static final long RETRY_SECONDS = 60;
+
+    private final ScheduledExecutorService scheduler;
+    private final SuspensionIndex index;
+    private final LongConsumer lifter;
+    private final LiftListener listener;
+
+    // Guarded by this
+    private final PriorityQueue<Expiration> pending;
+    private ScheduledFuture<?> wakeUp;
+    private long wakeUpAt;
+
+    /**
+     * @param scheduler Scheduler to wake up on
+     * @param index Index to remove lifted suspensions from
+     * @param lifter Lifts every suspension that ended at or before the given time in the database
+     * @param listener Called for every suspension which was lifted
+     */
+    public SuspensionExpiry(ScheduledExecutorService scheduler, SuspensionIndex index, LongConsumer lifter, LiftListener listener) {
+        this.scheduler = scheduler;
+        this.index = index;
+        this.lifter = lifter;
+        this.listener = listener;
+        this.pending = new PriorityQueue<>();
+        this.wakeUpAt = Long.MAX_VALUE;
+    }
+
+    /**
+     * Schedules a suspension to be lifted. Suspensions which are renewed or lifted by hand in the meantime are left alone.
+     *
+     * @param id User ID
+     * @param end Time the suspension ends in seconds, permanent suspensions are ignored
+     */
+    public synchronized void schedule(long id, long end){
+        if(end == SuspensionIndex.PERMANENT) return;
+
+        pending.add(new Expiration(id, end));
+        Expiration next = pending.peek();
+        if(next.end < wakeUpAt) wakeUpAt(next.end);
+    }
+
+    /**
+     * @return Amount of expirations waiting, including ones which were renewed or lifted since
+     */
+    public synchronized int getPendingCount(){
+        return pending.size();
+    }
+
+    /**
+     * Lifts every pending suspension which has ended by the given time
+     *
+     * @param now Current time in seconds
+     * @return Amount of suspensions lifted
+     */
+    int sweep(long now){
+        List<Expiration> due = new ArrayList<>();
+        synchronized(this){
+            while(!pending.isEmpty() && pending.peek().end <= now){
+                due.add(pending.poll());
+            }
+        }
+        if(due.isEmpty()) return 0;
+
+        try{
+            // One write lifts every ended suspension, including any the queue doesn't know about
+            lifter.accept(now);
+        }
+        catch(RuntimeException ex){
+            synchronized(this){
+                pending.addAll(due);
+            }
+            throw ex;
+        }
+
+        int lifted = 0;
+        for(Expiration expiration : due){
+            if(index.remove(expiration.id, expiration.end)){
+                listener.lifted(expiration.id, expiration.end);
+                lifted++;
+            }
+        }
+
+        return lifted;
+    }
+
+    private void run(){
+        synchronized(this){
+            wakeUp = null;
+            wakeUpAt = Long.MAX_VALUE;
+        }
+
+        try{
+            int lifted = sweep(TimeUtil.getNow());
+            if(lifted > 0) logger.info("Lifted " + lifted + " expired suspensions");
+        }
+        catch(RuntimeException ex){
+            logger.error("Failed to lift expired suspensions, retrying in " + RETRY_SECONDS + " seconds", ex);
+            synchronized(this){
+                wakeUpAt(TimeUtil.getNow() + RETRY_SECONDS);
+            }
+            return;
+        }
+
+        synchronized(this){
+            Expiration next = pending.peek();
+            if(next != null && next.end < wakeUpAt) wakeUpAt(next.end);
+        }
+    }
+
+    // Must hold this
+    private void wakeUpAt(long time){
+        if(wakeUp != null) wakeUp.cancel(false);
+
+        wakeUpAt = time;
+        wakeUp = scheduler.schedule(this::run, Math.max(0, time - TimeUtil.getNow()), TimeUnit.SECONDS);
+    }
+
+    public interface LiftListener {
+        /**
+         * @param id User ID
+         * @param end Time the lifted suspension ended
+         */
+        void lifted(long id, long end);
+    }
+
+    private static final class Expiration implements Comparable<Expiration> {
+        private final long id;
+        private final long end;
+
+        private Expiration(long id, long end) {
+            this.id = id;
+            this.end = end;
+        }
+
+        @Override
+        public int compareTo(Expiration o) {
+            return Long.compare(end, o.end);
+        }
+    }
+}
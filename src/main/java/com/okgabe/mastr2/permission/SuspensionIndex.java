@@ -0,0 +1,146 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.permission;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Compact set of suspended IDs along with when each suspension ends.
+ * IDs are kept in a sorted array which is replaced as a whole on every change, so lookups are a lock-free binary search.
+ * Suspensions are rare and change rarely, which makes copying on write cheap.
+ */
+public final class SuspensionIndex {
+
+    /** Suspension end of suspensions which never end on their own */
+    public static final long PERMANENT = 0L;
+
+    private volatile Snapshot snapshot;
+
+    public SuspensionIndex() {
+        snapshot = new Snapshot(new long[0], new long[0]);
+    }
+
+    /**
+     * @param suspensions Suspension end (in seconds, or {@link #PERMANENT}) by suspended ID
+     */
+    public SuspensionIndex(Map<Long, Long> suspensions) {
+        long[] ids = new long[suspensions.size()];
+        int i = 0;
+        for(long id : suspensions.keySet()){
+            ids[i++] = id;
+        }
+        Arrays.sort(ids);
+
+        long[] ends = new long[ids.length];
+        for(i = 0; i < ids.length; i++){
+            ends[i] = suspensions.get(ids[i]);
+        }
+
+        snapshot = new Snapshot(ids, ends);
+    }
+
+    /**
+     * Checks if an ID is suspended at the given time
+     *
+     * @param id User or guild ID
+     * @param now Current time in seconds
+     * @return True if the ID is suspended and the suspension hasn't ended yet
+     */
+    public boolean isSuspended(long id, long now){
+        Snapshot current = snapshot;
+        int index = Arrays.binarySearch(current.ids, id);
+        if(index < 0) return false;
+
+        long end = current.ends[index];
+        return end == PERMANENT || now < end;
+    }
+
+    /**
+     * Adds or replaces a suspension
+     *
+     * @param id User or guild ID
+     * @param end Time the suspension ends in seconds, or {@link #PERMANENT}
+     */
+    public synchronized void put(long id, long end){
+        Snapshot current = snapshot;
+        int index = Arrays.binarySearch(current.ids, id);
+        if(index >= 0){
+            long[] ends = current.ends.clone();
+            ends[index] = end;
+            snapshot = new Snapshot(current.ids, ends);
+            return;
+        }
+
+        int insertAt = -index - 1;
+        long[] ids = new long[current.ids.length + 1];
+        long[] ends = new long[ids.length];
+        System.arraycopy(current.ids, 0, ids, 0, insertAt);
+        System.arraycopy(current.ends, 0, ends, 0, insertAt);
+        ids[insertAt] = id;
+        ends[insertAt] = end;
+        System.arraycopy(current.ids, insertAt, ids, insertAt + 1, current.ids.length - insertAt);
+        System.arraycopy(current.ends, insertAt, ends, insertAt + 1, current.ends.length - insertAt);
+        snapshot = new Snapshot(ids, ends);
+    }
+
+    /**
+     * @param id User or guild ID
+     * @return True if the ID was in the index
+     */
+    public synchronized boolean remove(long id){
+        Snapshot current = snapshot;
+        int index = Arrays.binarySearch(current.ids, id);
+        if(index < 0) return false;
+
+        removeAt(current, index);
+        return true;
+    }
+
+    /**
+     * Removes a suspension only if it still ends at the given time, so a suspension renewed in the meantime is kept
+     *
+     * @param id User or guild ID
+     * @param end Time the suspension was expected to end
+     * @return True if the suspension was removed
+     */
+    public synchronized boolean remove(long id, long end){
+        Snapshot current = snapshot;
+        int index = Arrays.binarySearch(current.ids, id);
+        if(index < 0 || current.ends[index] != end) return false;
+
+        removeAt(current, index);
+        return true;
+    }
+
+    private void removeAt(Snapshot current, int index){
+        long[] ids = new long[current.ids.length - 1];
+        long[] ends = new long[ids.length];
+        System.arraycopy(current.ids, 0, ids, 0, index);
+        System.arraycopy(current.ends, 0, ends, 0, index);
+        System.arraycopy(current.ids, index + 1, ids, index, ids.length - index);
+        System.arraycopy(current.ends, index + 1, ends, index, ends.length - index);
+        snapshot = new Snapshot(ids, ends);
+    }
+
+    public int size(){
+        return snapshot.ids.length;
+    }
+
+    // IDs and ends are replaced together, so a reader never sees one without the other
+    private static final class Snapshot {
+        private final long[] ids;
+        private final long[] ends;
+
+        private Snapshot(long[] ids, long[] ends) {
+            this.ids = ids;
+            this.ends = ends;
+        }
+    }
+}
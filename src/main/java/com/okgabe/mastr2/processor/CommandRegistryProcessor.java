@@ -0,0 +1,153 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Generates {@code com.okgabe.mastr2.command.CommandRegistry}, which lists every command with a reference to its constructor.
+ * The bot can then register its commands without scanning the classpath or creating them through reflection.
+ * <p>
+ * Every class in the commands package that extends {@code CommandBase} is a command. Commands must be public, top-level,
+ * and have one public constructor which only takes {@code Mastr}; the build fails otherwise.
+ * <p>
+ * This processor is compiled on its own before the rest of the sources, see the compiler executions in pom.xml.
+ */
+@SupportedAnnotationTypes("*")
+public class CommandRegistryProcessor extends AbstractProcessor {
+
+    private static final String COMMAND_PACKAGE = "com.okgabe.mastr2.command.commands";
+    private static final String REGISTRY_PACKAGE = "com.okgabe.mastr2.command";
+    private static final String REGISTRY_NAME = "CommandRegistry";
+
+    private boolean written;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if(written || roundEnv.processingOver()) return false;
+
+        TypeElement base = processingEnv.getElementUtils().getTypeElement(REGISTRY_PACKAGE + ".CommandBase");
+        TypeElement mastr = processingEnv.getElementUtils().getTypeElement("com.okgabe.mastr2.Mastr");
+        if(base == null || mastr == null) return false;
+
+        List<TypeElement> commands = new ArrayList<>();
+        for(TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())){
+            if(isCommand(type, base.asType()) && isValid(type, mastr.asType())) commands.add(type);
+        }
+        if(commands.isEmpty()) return false;
+
+        // Sorted so the generated file, and the order commands are registered in, doesn't depend on the compiler
+        commands.sort(Comparator.comparing(type -> type.getQualifiedName().toString()));
+        try{
+            write(commands);
+            written = true;
+        }
+        catch(IOException ex){
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Failed to write " + REGISTRY_NAME + ": " + ex.getMessage());
+        }
+
+        // Every annotation is left for other processors
+        return false;
+    }
+
+    private boolean isCommand(TypeElement type, TypeMirror base){
+        if(type.getKind() != ElementKind.CLASS || type.getModifiers().contains(Modifier.ABSTRACT)) return false;
+
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        if(!packageName.equals(COMMAND_PACKAGE) && !packageName.startsWith(COMMAND_PACKAGE + ".")) return false;
+
+        return processingEnv.getTypeUtils().isSubtype(type.asType(), base);
+    }
+
+    private boolean isValid(TypeElement type, TypeMirror mastr){
+        if(!type.getModifiers().contains(Modifier.PUBLIC)){
+            error(type, "Commands must be public");
+            return false;
+        }
+
+        List<ExecutableElement> constructors = new ArrayList<>();
+        for(ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())){
+            if(constructor.getModifiers().contains(Modifier.PUBLIC)) constructors.add(constructor);
+        }
+        if(constructors.size() != 1){
+            error(type, "Commands should only have one single public constructor");
+            return false;
+        }
+
+        ExecutableElement constructor = constructors.get(0);
+        if(constructor.getParameters().size() != 1 || !processingEnv.getTypeUtils().isSameType(constructor.getParameters().get(0).asType(), mastr)){
+            error(constructor, "Command constructors should only have Mastr as their parameter");
+            return false;
+        }
+
+        return true;
+    }
+
+    private void write(List<TypeElement> commands) throws IOException {
+        Element[] origins = commands.toArray(new Element[0]);
+        try(Writer writer = processingEnv.getFiler().createSourceFile(REGISTRY_PACKAGE + "." + REGISTRY_NAME, origins).openWriter()){
+            writer.write("package " + REGISTRY_PACKAGE + ";\n\n");
+            writer.write("import com.okgabe.mastr2.Mastr;\n\n");
+            writer.write("import java.util.List;\n");
+            writer.write("import java.util.function.Function;\n\n");
+            writer.write("/**\n * Every command of the bot. Generated by " + getClass().getSimpleName() + ", do not edit.\n */\n");
+            writer.write("@javax.annotation.processing.Generated(\"" + getClass().getName() + "\")\n");
+            writer.write("public final class " + REGISTRY_NAME + " {\n\n");
+
+            writer.write("    /**\n     * Constructors of every command\n     */\n");
+            writer.write("    public static final List<Function<Mastr, CommandBase>> FACTORIES = List.of(\n");
+            writer.write(join(commands, "::new"));
+            writer.write("    );\n\n");
+
+            writer.write("    /**\n     * Classes of every command, in the same order as {@link #FACTORIES}\n     */\n");
+            writer.write("    public static final List<Class<? extends CommandBase>> CLASSES = List.of(\n");
+            writer.write(join(commands, ".class"));
+            writer.write("    );\n\n");
+
+            writer.write("    private " + REGISTRY_NAME + "(){}\n");
+            writer.write("}\n");
+        }
+    }
+
+    private static String join(List<TypeElement> commands, String suffix){
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < commands.size(); i++){
+            builder.append("            ").append(commands.get(i).getQualifiedName()).append(suffix);
+            builder.append(i == commands.size() - 1 ? "\n" : ",\n");
+        }
+
+        return builder.toString();
+    }
+
+    private void error(Element element, String message){
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
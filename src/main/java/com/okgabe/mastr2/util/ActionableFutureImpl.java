@@ -12,28 +12,79 @@ import org.jetbrains.annotations.NotNull;
 
 import java.util.function.Consumer;
 
+/**
+ * Future with a single success and failure callback. The outcome is kept, so a future completed before its callbacks are set,
+ * such as a search answered from memory, still reaches them. Only the first outcome counts.
+ */
 public class ActionableFutureImpl<T> implements ActionableFuture<T> {
 
     private Consumer<? super Throwable> onFailure;
     private Consumer<T> onSuccess;
+    private boolean done;
+    private T result;
+    private Throwable error;
 
     @Override
     public ActionableFutureImpl<T> onError(@NotNull Consumer<? super Throwable> callback) {
-        onFailure = callback;
+        Throwable failed;
+        synchronized(this){
+            onFailure = callback;
+            failed = done ? error : null;
+        }
+
+        if(failed != null) callback.accept(failed);
         return this;
     }
 
     @Override
     public ActionableFutureImpl<T> onSuccess(@NotNull Consumer<T> success) {
-        onSuccess = success;
+        boolean succeeded;
+        T value;
+        synchronized(this){
+            onSuccess = success;
+            succeeded = done && error == null;
+            value = result;
+        }
+
+        if(succeeded) success.accept(value);
         return this;
     }
 
+    /**
+     * @param value Result of the future
+     */
+    public void complete(T value){
+        Consumer<T> callback;
+        synchronized(this){
+            if(done) return;
+            done = true;
+            result = value;
+            callback = onSuccess;
+        }
+
+        if(callback != null) callback.accept(value);
+    }
+
+    /**
+     * @param throwable Reason the future failed
+     */
+    public void fail(Throwable throwable){
+        Consumer<? super Throwable> callback;
+        synchronized(this){
+            if(done) return;
+            done = true;
+            error = throwable;
+            callback = onFailure;
+        }
+
+        if(callback != null) callback.accept(throwable);
+    }
+
     public Consumer<? super Throwable> getOnFailure() {
-        return onFailure;
+        return this::fail;
     }
 
     public Consumer<T> getOnSuccess() {
-        return onSuccess;
+        return this::complete;
     }
 }
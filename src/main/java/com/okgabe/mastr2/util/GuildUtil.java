@@ -9,12 +9,14 @@
 package com.okgabe.mastr2.util;
 
 import com.okgabe.mastr2.Mastr;
+import com.okgabe.mastr2.cache.MemberNameIndex;
 import com.okgabe.mastr2.command.CommandEvent;
 import com.okgabe.mastr2.event.ResponseListener;
 import com.okgabe.mastr2.exceptions.MemberSearchException;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.TextChannel;
 
+import java.util.Collections;
 import java.util.List;
 
 public class GuildUtil {
@@ -27,60 +29,96 @@ public class GuildUtil {
         return retrieveMemberByName(e.getMastr(), e.getMessage().getTextChannel(), e.getAuthor(), search, allowClarification);
     }
 
+    /**
+     * Finds a member by the start of their username or nickname, or by their tag. Searches are answered from the member name index
+     * when it knows every possible match, and sent to the gateway otherwise.
+     *
+     * @param mastr Mastr instance
+     * @param channel Channel the search was made in
+     * @param invoker Member searching
+     * @param search Search
+     * @param allowClarification Whether the invoker may pick from a short list of results
+     * @return Future completed with the member, or failed with a {@link MemberSearchException}
+     */
     public static ActionableFutureImpl<Member> retrieveMemberByName(Mastr mastr, TextChannel channel, Member invoker, String search, boolean allowClarification){
         ActionableFutureImpl<Member> returnFuture = new ActionableFutureImpl<>();
+        MemberNameIndex index = mastr.getMemberNameIndex();
 
-        channel.getGuild().retrieveMembersByPrefix(search, 100).onSuccess(members -> {
-            if(members.size() == 0){ // No results
-                returnFuture.getOnFailure().accept(new MemberSearchException("That search had no results."));
+        List<Member> indexed = index.search(channel.getGuild(), search);
+        if(indexed != null){
+            resolve(mastr, channel, invoker, indexed, allowClarification, returnFuture);
+            return returnFuture;
+        }
+
+        // Tags can't be searched for directly, so the name is searched for and the results are narrowed down to the tag
+        String query = MemberNameIndex.gatewayQuery(search);
+        channel.getGuild().retrieveMembersByPrefix(query, MemberNameIndex.SEARCH_LIMIT).onSuccess(found -> {
+            index.addSearchResult(channel.getGuild(), query, found);
+
+            List<Member> members = found;
+            if(MemberNameIndex.isTag(search)){
+                Member tagged = getMemberByTag(search, found);
+                members = tagged == null ? Collections.emptyList() : Collections.singletonList(tagged);
+            }
+            else if(members.isEmpty()){
+                // Nobody's name starts with the search, but it may be part of the name of someone the bot has seen
+                members = index.searchSubstring(channel.getGuild().getIdLong(), search);
             }
 
-            else if(members.size() > 1){ // More than 1 result
-                if(allowClarification && members.size() < 6){
-                    channel.sendMessage("That search matched multiple results. Please select from the list below:\n" + nameJoin(members, "\n")).queue(clarificationMessage -> {
-                        mastr.getResponseHandler().register(new ResponseListener(channel.getType(), channel.getIdLong(), invoker.getIdLong(), 30L, responseMessage -> {
-                            if(StringUtil.isNumeric(responseMessage.getMessage().getContentRaw())){ // Check if numeric to avoid costly exception throwing
-                                try{
-                                    int selector = Integer.parseInt(responseMessage.getMessage().getContentRaw()) - 1;
-                                    if(selector >= members.size() || selector < 0){
-                                        clarificationMessage.delete().queue();
-                                        returnFuture.getOnFailure().accept(new MemberSearchException("Provided number does not match a specific user"));
-                                    }
-                                    else{
-                                        returnFuture.getOnSuccess().accept(members.get(selector));
-                                    }
-                                }
-                                catch(NumberFormatException ignored){
+            resolve(mastr, channel, invoker, members, allowClarification, returnFuture);
+        }).onError(throwable -> { // Unknown error
+            returnFuture.getOnFailure().accept(new MemberSearchException("An unknown error occurred", throwable));
+        });
+
+        return returnFuture;
+    }
+
+    private static void resolve(Mastr mastr, TextChannel channel, Member invoker, List<Member> members, boolean allowClarification, ActionableFutureImpl<Member> returnFuture){
+        if(members.size() == 0){ // No results
+            returnFuture.getOnFailure().accept(new MemberSearchException("That search had no results."));
+        }
+
+        else if(members.size() > 1){ // More than 1 result
+            if(allowClarification && members.size() < 6){
+                channel.sendMessage("That search matched multiple results. Please select from the list below:\n" + nameJoin(members, "\n")).queue(clarificationMessage -> {
+                    mastr.getResponseHandler().register(new ResponseListener(channel.getType(), channel.getIdLong(), invoker.getIdLong(), 30L, responseMessage -> {
+                        if(StringUtil.isNumeric(responseMessage.getMessage().getContentRaw())){ // Check if numeric to avoid costly exception throwing
+                            try{
+                                int selector = Integer.parseInt(responseMessage.getMessage().getContentRaw()) - 1;
+                                if(selector >= members.size() || selector < 0){
                                     clarificationMessage.delete().queue();
                                     returnFuture.getOnFailure().accept(new MemberSearchException("Provided number does not match a specific user"));
                                 }
-                                mastr.getResponseHandler().unregister(responseMessage);
+                                else{
+                                    returnFuture.getOnSuccess().accept(members.get(selector));
+                                }
                             }
-                            else{
+                            catch(NumberFormatException ignored){
                                 clarificationMessage.delete().queue();
-                                returnFuture.getOnFailure().accept(new MemberSearchException("That search matched multiple results, and no valid follow-up was provided."));
-                                mastr.getResponseHandler().unregister(responseMessage);
+                                returnFuture.getOnFailure().accept(new MemberSearchException("Provided number does not match a specific user"));
                             }
-                        }, timeout -> {
+                            mastr.getResponseHandler().unregister(responseMessage);
+                        }
+                        else{
                             clarificationMessage.delete().queue();
-                            returnFuture.getOnFailure().accept(new MemberSearchException("That search matched multiple results, and no follow-up was provided."));
-                            mastr.getResponseHandler().unregister(timeout);
-                        })); // Cancelling: timeout reached
-                    });
-                }
-                else{
-                    returnFuture.getOnFailure().accept(new MemberSearchException("That search matched multiple results. Please specify the user's ID or 4-digit tag for more precision."));
-                }
+                            returnFuture.getOnFailure().accept(new MemberSearchException("That search matched multiple results, and no valid follow-up was provided."));
+                            mastr.getResponseHandler().unregister(responseMessage);
+                        }
+                    }, timeout -> {
+                        clarificationMessage.delete().queue();
+                        returnFuture.getOnFailure().accept(new MemberSearchException("That search matched multiple results, and no follow-up was provided."));
+                        mastr.getResponseHandler().unregister(timeout);
+                    })); // Cancelling: timeout reached
+                });
             }
-
-            else{ // Only 1 result
-                returnFuture.getOnSuccess().accept(members.get(0));
+            else{
+                returnFuture.getOnFailure().accept(new MemberSearchException("That search matched multiple results. Please specify the user's ID or 4-digit tag for more precision."));
             }
-        }).onError(throwable -> { // Unknown error
-            returnFuture.getOnFailure().accept(new MemberSearchException("An unknown error occurred", throwable));
-        });
+        }
 
-        return returnFuture;
+        else{ // Only 1 result
+            returnFuture.getOnSuccess().accept(members.get(0));
+        }
     }
 
     private static Member getMemberByTag(String tag, List<Member> members){
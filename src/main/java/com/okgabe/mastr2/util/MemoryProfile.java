@@ -0,0 +1,154 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.util;
+
+import com.okgabe.mastr2.command.CommandBase;
+import net.dv8tion.jda.api.requests.GatewayIntent;
+import net.dv8tion.jda.api.sharding.DefaultShardManagerBuilder;
+import net.dv8tion.jda.api.utils.ChunkingFilter;
+import net.dv8tion.jda.api.utils.MemberCachePolicy;
+import net.dv8tion.jda.api.utils.cache.CacheFlag;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import static net.dv8tion.jda.api.requests.GatewayIntent.*;
+
+/**
+ * How much of Discord the shards keep in memory, picked by "memory profile" in the configuration.
+ * Members are looked up through the gateway when needed, so the member cache is only worth its heap on small bots.
+ */
+public enum MemoryProfile {
+    /**
+     * Only what commands need: no members besides the bot itself, and only the emote cache
+     */
+    LEAN("Lean",
+            EnumSet.of(GUILD_MESSAGES, GUILD_MESSAGE_REACTIONS, GUILD_EMOJIS, DIRECT_MESSAGES, DIRECT_MESSAGE_REACTIONS),
+            EnumSet.of(CacheFlag.EMOTE),
+            MemberCachePolicy.NONE, ChunkingFilter.NONE),
+    /**
+     * Members in voice channels and guild owners are cached, like JDA's defaults, without the privileged intents
+     */
+    BALANCED("Balanced",
+            EnumSet.of(GUILD_MESSAGES, GUILD_MESSAGE_REACTIONS, GUILD_EMOJIS, GUILD_VOICE_STATES, DIRECT_MESSAGES, DIRECT_MESSAGE_REACTIONS),
+            EnumSet.of(CacheFlag.EMOTE, CacheFlag.VOICE_STATE),
+            MemberCachePolicy.DEFAULT, ChunkingFilter.NONE),
+    /**
+     * Every member of every guild, with presences. Needs both privileged intents, and a lot of heap on big guilds.
+     */
+    FULL("Full",
+            EnumSet.allOf(GatewayIntent.class),
+            EnumSet.of(CacheFlag.EMOTE, CacheFlag.VOICE_STATE, CacheFlag.ACTIVITY, CacheFlag.CLIENT_STATUS),
+            MemberCachePolicy.ALL, ChunkingFilter.ALL);
+
+    /**
+     * What the bot needs regardless of its commands: messages to read commands from, and the emote cache for {@link EmoteConstants}
+     */
+    private static final Set<GatewayIntent> BASE_INTENTS = EnumSet.of(GUILD_MESSAGES);
+    private static final Set<CacheFlag> BASE_CACHE_FLAGS = EnumSet.of(CacheFlag.EMOTE);
+
+    private final String name;
+    private final Set<GatewayIntent> intents;
+    private final Set<CacheFlag> cacheFlags;
+    private final MemberCachePolicy memberCachePolicy;
+    private final ChunkingFilter chunkingFilter;
+
+    MemoryProfile(String name, Set<GatewayIntent> intents, Set<CacheFlag> cacheFlags, MemberCachePolicy memberCachePolicy, ChunkingFilter chunkingFilter) {
+        this.name = name;
+        this.intents = Collections.unmodifiableSet(intents);
+        this.cacheFlags = Collections.unmodifiableSet(cacheFlags);
+        this.memberCachePolicy = memberCachePolicy;
+        this.chunkingFilter = chunkingFilter;
+    }
+
+    /**
+     * Creates a shard manager builder set up for this profile, without JDA's shutdown hook
+     *
+     * @param token Bot token
+     * @return The builder
+     */
+    public DefaultShardManagerBuilder createBuilder(String token){
+        DefaultShardManagerBuilder builder = DefaultShardManagerBuilder.create(token, intents)
+                // The shards are closed by ShutdownCoordinator once commands are drained, JDA's own hook would close them right away
+                .setEnableShutdownHook(false)
+                .setMemberCachePolicy(memberCachePolicy)
+                .setChunkingFilter(chunkingFilter)
+                .enableCache(cacheFlags);
+
+        EnumSet<CacheFlag> disabled = EnumSet.complementOf(EnumSet.copyOf(cacheFlags));
+        if(!disabled.isEmpty()) builder.disableCache(disabled);
+        return builder;
+    }
+
+    /**
+     * Finds what the bot and the given commands need but this profile doesn't provide
+     *
+     * @param commands Registered commands
+     * @return One description per missing intent or cache flag, empty if everything works under this profile
+     */
+    public List<String> findMissing(Collection<CommandBase> commands){
+        List<String> missing = new ArrayList<>();
+        addMissing(missing, "Mastr", BASE_INTENTS, BASE_CACHE_FLAGS);
+        for(CommandBase cmd : commands){
+            addMissing(missing, "Command " + cmd.getCommand(), cmd.getRequiredIntents(), cmd.getRequiredCacheFlags());
+        }
+
+        return missing;
+    }
+
+    private void addMissing(List<String> missing, String what, Set<GatewayIntent> requiredIntents, Set<CacheFlag> requiredCacheFlags){
+        for(GatewayIntent intent : requiredIntents){
+            if(!intents.contains(intent)) missing.add(what + " needs the " + intent + " intent");
+        }
+        for(CacheFlag flag : requiredCacheFlags){
+            if(!cacheFlags.contains(flag)) missing.add(what + " needs the " + flag + " cache");
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Set<GatewayIntent> getIntents() {
+        return intents;
+    }
+
+    public Set<CacheFlag> getCacheFlags() {
+        return cacheFlags;
+    }
+
+    public MemberCachePolicy getMemberCachePolicy() {
+        return memberCachePolicy;
+    }
+
+    public ChunkingFilter getChunkingFilter() {
+        return chunkingFilter;
+    }
+
+    /**
+     * @param name Name of the profile, ignoring case
+     * @return The profile, or null if there is none with that name
+     */
+    public static MemoryProfile parse(String name){
+        for(MemoryProfile profile : values()){
+            if(profile.getName().equalsIgnoreCase(name)) return profile;
+        }
+
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -12,7 +12,6 @@ import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.User;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.ArrayList;
 import java.util.List;
 
 public class StringUtil {
@@ -58,6 +57,22 @@ public class StringUtil {
         return true;
     }
 
+    /**
+     * Checks whether a string contains another, ignoring case, without creating lowercase copies of either
+     *
+     * @param str String to search in
+     * @param search String to search for
+     * @return True if search is found in str
+     */
+    public static boolean containsIgnoreCase(String str, String search){
+        int last = str.length() - search.length();
+        for(int i = 0; i <= last; i++){
+            if(str.regionMatches(true, i, search, 0, search.length())) return true;
+        }
+
+        return false;
+    }
+
     public static int positionInAlphabet(char c){
         c = Character.toLowerCase(c);
         if(c > 122) return -1;
@@ -109,44 +124,12 @@ public class StringUtil {
      * @param str String to be split
      * @param respectQuotes If true, 'strings' within the string will be respected, meaning spaces may be included in a single argument if it is wrapped with quotes
      * @return List of split arguments
+     * @throws IllegalArgumentException If str is null
+     * @see TokenizedString
      */
     public static List<String> splitBySpaces(@NotNull String str, boolean respectQuotes){
-        ArrayList<String> split = new ArrayList<>();
-        StringBuilder builder = new StringBuilder();
-        boolean inQuote = false;
-        boolean escaped = false;
-
-        for(int i = 0; i < str.length(); i++){
-            char c = str.charAt(i);
-            if(respectQuotes && !escaped && (c == '"')){ // If quote is present
-                inQuote = !inQuote;
-            }
-            else if(c == ' '){ // If space is present
-                if(inQuote) { // If in a quote, append the space
-                    builder.append(' ');
-                }
-                else{ // Else, add the string to the list and delete the string
-                    if(builder.length()>0){ // (ignore if there's a double space or trailing/leading space)
-                        split.add(builder.toString());
-                        builder.delete(0, builder.length());
-                    }
-
-                }
-            }
-            else if(!escaped && c == '\\'){ // If backslash is present
-                escaped = true;
-                continue;
-            }
-            else{ // Else append character
-                builder.append(c);
-            }
-
-            if(escaped) escaped = false;
-        }
-
-        if(builder.length() > 0) split.add(builder.toString()); // Append last string to list
-
-        return split;
+        if(str == null) throw new IllegalArgumentException("Cannot split a null string");
+        return TokenizedString.split(str, 0, respectQuotes).toList();
     }
 
     public static String pad(String s, boolean left, boolean right){
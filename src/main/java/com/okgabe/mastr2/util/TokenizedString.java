@@ -0,0 +1,225 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A string split by spaces, stored as offsets into the original string.
+ * Tokens are only turned into Strings when they are requested, and tokens without quotes or escapes are plain substrings
+ * of the original. Splitting follows the exact rules of {@link StringUtil#splitBySpaces(String, boolean)}.
+ */
+public final class TokenizedString {
+
+    private final String source;
+    private final boolean respectQuotes;
+    private int[] bounds;
+    private boolean[] plain;
+    private int size;
+    private String[] materialized;
+
+    private TokenizedString(String source, boolean respectQuotes) {
+        this.source = source;
+        this.respectQuotes = respectQuotes;
+        this.bounds = new int[16];
+        this.plain = new boolean[8];
+    }
+
+    /**
+     * Splits a string by spaces in a single pass
+     *
+     * @param str String to be split
+     * @param from Index to start splitting from
+     * @param respectQuotes If true, 'strings' within the string will be respected, meaning spaces may be included in a single argument if it is wrapped with quotes
+     * @return Split string
+     */
+    public static TokenizedString split(String str, int from, boolean respectQuotes){
+        TokenizedString tokens = new TokenizedString(str, respectQuotes);
+        int segmentStart = from;
+        int produced = 0; // Characters the current token will contain once quotes and escapes are removed
+        boolean dirty = false;
+        boolean inQuote = false;
+        boolean escaped = false;
+
+        for(int i = from; i < str.length(); i++){
+            char c = str.charAt(i);
+            if(respectQuotes && !escaped && (c == '"')){ // If quote is present
+                inQuote = !inQuote;
+                dirty = true;
+            }
+            else if(c == ' '){ // If space is present
+                if(inQuote){
+                    produced++;
+                }
+                else{ // Ends the current token (ignore if there's a double space or trailing/leading space)
+                    if(produced > 0) tokens.add(segmentStart, i, !dirty);
+                    segmentStart = i + 1;
+                    produced = 0;
+                    dirty = false;
+                }
+            }
+            else if(!escaped && c == '\\'){ // If backslash is present
+                escaped = true;
+                dirty = true;
+                continue;
+            }
+            else{
+                produced++;
+            }
+
+            if(escaped) escaped = false;
+        }
+
+        if(produced > 0) tokens.add(segmentStart, str.length(), !dirty);
+
+        return tokens;
+    }
+
+    private void add(int start, int end, boolean isPlain){
+        if(size == plain.length){
+            bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            plain = Arrays.copyOf(plain, plain.length * 2);
+        }
+
+        bounds[size * 2] = start;
+        bounds[size * 2 + 1] = end;
+        plain[size] = isPlain;
+        size++;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @param index Token index
+     * @return Index of the token's first character in the source string
+     */
+    public int start(int index){
+        checkIndex(index);
+        return bounds[index * 2];
+    }
+
+    /**
+     * @param index Token index
+     * @return Index after the token's last character in the source string
+     */
+    public int end(int index){
+        checkIndex(index);
+        return bounds[index * 2 + 1];
+    }
+
+    /**
+     * @param index Token index
+     * @return True if the token contains no quotes or escapes, meaning it is exactly its region of the source string
+     */
+    public boolean isPlain(int index){
+        checkIndex(index);
+        return plain[index];
+    }
+
+    /**
+     * @param index Token index
+     * @return True if the token was wrapped in quotes, such as "some text". Always false if quotes weren't respected.
+     */
+    public boolean isQuoted(int index){
+        checkIndex(index);
+        int start = bounds[index * 2];
+        int end = bounds[index * 2 + 1];
+        if(!respectQuotes || plain[index] || end - start < 2) return false;
+        if(source.charAt(start) != '"' || source.charAt(end - 1) != '"') return false;
+
+        // The closing quote only counts if it isn't escaped, meaning it follows an even amount of backslashes
+        int backslashes = 0;
+        for(int i = end - 2; i > start && source.charAt(i) == '\\'; i--){
+            backslashes++;
+        }
+        return backslashes % 2 == 0;
+    }
+
+    /**
+     * Gets a token, creating its String on first access
+     *
+     * @param index Token index
+     * @return Token with quotes and escapes removed
+     */
+    public String get(int index){
+        checkIndex(index);
+        if(materialized == null) materialized = new String[size];
+
+        String token = materialized[index];
+        if(token == null){
+            token = plain[index] ? source.substring(bounds[index * 2], bounds[index * 2 + 1]) : unescape(bounds[index * 2], bounds[index * 2 + 1]);
+            materialized[index] = token;
+        }
+
+        return token;
+    }
+
+    /**
+     * @param from Index of the first token to include
+     * @return Tokens from the given index onwards
+     */
+    public String[] toArray(int from){
+        String[] array = new String[Math.max(size - from, 0)];
+        for(int i = 0; i < array.length; i++){
+            array[i] = get(from + i);
+        }
+
+        return array;
+    }
+
+    public List<String> toList(){
+        List<String> list = new ArrayList<>(size);
+        for(int i = 0; i < size; i++){
+            list.add(get(i));
+        }
+
+        return list;
+    }
+
+    // Re-runs the splitting rules over a single token. Tokens always start outside of quotes, so this gives the same result.
+    private String unescape(int start, int end){
+        StringBuilder builder = new StringBuilder(end - start);
+        boolean inQuote = false;
+        boolean escaped = false;
+
+        for(int i = start; i < end; i++){
+            char c = source.charAt(i);
+            if(respectQuotes && !escaped && (c == '"')){
+                inQuote = !inQuote;
+            }
+            else if(!escaped && c == '\\'){
+                escaped = true;
+                continue;
+            }
+            else{
+                builder.append(c);
+            }
+
+            if(escaped) escaped = false;
+        }
+
+        return builder.toString();
+    }
+
+    private void checkIndex(int index){
+        if(index < 0 || index >= size) throw new IndexOutOfBoundsException("Token " + index + " out of bounds for " + size + " tokens");
+    }
+}
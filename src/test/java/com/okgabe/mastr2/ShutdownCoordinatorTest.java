@@ -0,0 +1,103 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShutdownCoordinatorTest {
+
+    private static final List<String> STEPS = List.of("drain commands", "time out listeners", "flush usage counters",
+            "write cache snapshot", "disconnect shards", "stop scheduler", "close storage");
+
+    /**
+     * Creates a coordinator with the same steps as the bot, each of which only records that it ran
+     */
+    private static ShutdownCoordinator recording(List<String> ran, String failing, String hanging, CountDownLatch release){
+        ShutdownCoordinator shutdown = new ShutdownCoordinator(200L);
+        for(String name : STEPS){
+            shutdown.step(name, () -> {
+                ran.add(name);
+                if(name.equals(failing)) throw new IllegalStateException("broken");
+                if(name.equals(hanging)) release.await();
+            });
+        }
+        return shutdown;
+    }
+
+    @Test
+    void runsStepsInOrder() {
+        List<String> ran = new CopyOnWriteArrayList<>();
+        ShutdownCoordinator shutdown = recording(ran, null, null, null);
+
+        assertFalse(shutdown.isShuttingDown());
+        shutdown.shutdown();
+
+        assertTrue(shutdown.isShuttingDown());
+        assertEquals(STEPS, ran);
+    }
+
+    @Test
+    void failingStepDoesNotStopShutdown() {
+        List<String> ran = new CopyOnWriteArrayList<>();
+        recording(ran, "write cache snapshot", null, null).shutdown();
+
+        assertEquals(STEPS, ran, "Steps after the failed one must still run");
+    }
+
+    @Test
+    void hangingStepIsLeftBehind() {
+        List<String> ran = new CopyOnWriteArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+        try{
+            long start = System.nanoTime();
+            recording(ran, null, "disconnect shards", release).shutdown();
+
+            assertEquals(STEPS, ran, "Storage must be closed even if the shards never disconnect");
+            assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+        }
+        finally{
+            release.countDown();
+        }
+    }
+
+    @Test
+    void secondShutdownWaitsForFirst() throws Exception {
+        CountDownLatch draining = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> ran = new CopyOnWriteArrayList<>();
+        ShutdownCoordinator shutdown = new ShutdownCoordinator(5000L)
+                .step("drain commands", () -> {
+                    draining.countDown();
+                    release.await();
+                })
+                .step("close storage", () -> ran.add("close storage"));
+
+        Thread first = new Thread(shutdown::shutdown);
+        first.start();
+        assertTrue(draining.await(5, TimeUnit.SECONDS));
+
+        Thread second = new Thread(shutdown::shutdown);
+        second.start();
+        second.join(200);
+        assertTrue(second.isAlive(), "A second shutdown must wait for the first to finish");
+
+        release.countDown();
+        second.join(5000);
+        first.join(5000);
+        assertFalse(second.isAlive());
+        assertEquals(List.of("close storage"), ran, "Steps must only run once");
+    }
+}
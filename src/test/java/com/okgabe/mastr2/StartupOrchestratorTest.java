@@ -0,0 +1,119 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StartupOrchestratorTest {
+
+    @Test
+    void runsTasksAfterTheirDependencies() throws Exception {
+        List<String> order = new CopyOnWriteArrayList<>();
+        StartupOrchestrator startup = new StartupOrchestrator()
+                .task("a", () -> order.add("a"))
+                .task("b", () -> order.add("b"), "a")
+                .task("c", () -> order.add("c"), "a", "b");
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try{
+            startup.start(executor).get(5, TimeUnit.SECONDS);
+        }
+        finally{
+            executor.shutdown();
+        }
+
+        assertEquals(order, List.of("a", "b", "c"));
+        assertTrue(startup.isReady());
+    }
+
+    @Test
+    void runsIndependentTasksAtOnce() throws Exception {
+        // Each task waits for the other, so this only finishes if both run at the same time
+        CountDownLatch bothRunning = new CountDownLatch(2);
+        StartupOrchestrator.Action action = () -> {
+            bothRunning.countDown();
+            assertTrue(bothRunning.await(5, TimeUnit.SECONDS));
+        };
+        StartupOrchestrator startup = new StartupOrchestrator().task("a", action).task("b", action);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try{
+            startup.start(executor).get(10, TimeUnit.SECONDS);
+        }
+        finally{
+            executor.shutdown();
+        }
+        assertTrue(startup.isReady());
+    }
+
+    @Test
+    void waitsForEvents() throws Exception {
+        StartupOrchestrator startup = new StartupOrchestrator()
+                .event("shard")
+                .task("after shard", () -> {}, "shard");
+
+        CompletableFuture<Void> done = startup.start(Runnable::run);
+        assertFalse(done.isDone());
+        assertEquals(startup.getState(), StartupOrchestrator.State.STARTING);
+
+        startup.complete("shard");
+        done.get(5, TimeUnit.SECONDS);
+        assertTrue(startup.isReady());
+    }
+
+    @Test
+    void failureSkipsDependentTasks() {
+        List<String> ran = new CopyOnWriteArrayList<>();
+        StartupOrchestrator startup = new StartupOrchestrator()
+                .task("broken", () -> {
+                    throw new IllegalStateException("broken");
+                })
+                .task("dependent", () -> ran.add("dependent"), "broken")
+                .task("independent", () -> ran.add("independent"));
+
+        CompletableFuture<Void> done = startup.start(Runnable::run);
+        assertThrows(ExecutionException.class, () -> done.get(5, TimeUnit.SECONDS));
+        assertEquals(ran, List.of("independent"));
+        assertEquals(startup.getState(), StartupOrchestrator.State.FAILED);
+    }
+
+    @Test
+    void failureDoesNotWaitForPendingEvents() {
+        StartupOrchestrator startup = new StartupOrchestrator()
+                .event("shard")
+                .task("login", () -> {
+                    throw new IllegalStateException("bad token");
+                })
+                .task("after shard", () -> {}, "shard");
+
+        // The event is never completed, like a shard which can't log in never becoming ready
+        CompletableFuture<Void> done = startup.start(Runnable::run);
+        assertThrows(ExecutionException.class, () -> done.get(5, TimeUnit.SECONDS));
+        assertEquals(startup.getState(), StartupOrchestrator.State.FAILED);
+    }
+
+    @Test
+    void dependenciesMustExist() {
+        StartupOrchestrator startup = new StartupOrchestrator().task("a", () -> {});
+        assertThrows(IllegalArgumentException.class, () -> startup.task("b", () -> {}, "missing"));
+        assertThrows(IllegalArgumentException.class, () -> startup.task("a", () -> {}));
+        assertThrows(IllegalArgumentException.class, () -> startup.complete("a"), "Tasks can't be completed from outside");
+    }
+}
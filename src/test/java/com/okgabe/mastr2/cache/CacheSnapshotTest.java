@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.cache;
+
+import com.okgabe.mastr2.entity.BotGuild;
+import com.okgabe.mastr2.entity.BotUser;
+import com.okgabe.mastr2.permission.BotRole;
+import com.okgabe.mastr2.util.GuildTier;
+import com.okgabe.mastr2.util.SuspensionCode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheSnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void restoresCaches() throws IOException {
+        Path file = directory.resolve("cache.snapshot");
+        LongObjectMap<String> prefixes = new LongObjectMap<>();
+        prefixes.put(1L, "!");
+        prefixes.put(2L, BotGuild.DEFAULT_PREFIX);
+        EntityCache<BotUser> users = newCache();
+        users.put(10L, new BotUser(10L, BotRole.BOT_STAFF, 5, SuspensionCode.TEMPORARY_SUSPENSION, 1234L));
+        EntityCache<BotGuild> guilds = newCache();
+        guilds.put(1L, new BotGuild(1L, "!", 7, GuildTier.DEFAULT, SuspensionCode.UNSUSPENDED));
+        assertEquals(CacheSnapshot.write(file, prefixes, users, guilds), 4);
+
+        LongObjectMap<String> restoredPrefixes = new LongObjectMap<>();
+        EntityCache<BotUser> restoredUsers = newCache();
+        EntityCache<BotGuild> restoredGuilds = newCache();
+        assertEquals(CacheSnapshot.load(file, restoredPrefixes, restoredUsers, restoredGuilds, 0L), 4);
+
+        assertEquals(restoredPrefixes.get(1L), "!");
+        assertSame(restoredPrefixes.get(2L), BotGuild.DEFAULT_PREFIX);
+        BotUser user = restoredUsers.get(10L);
+        assertEquals(user.getRole(), BotRole.BOT_STAFF);
+        assertEquals(user.getTimesUsed(), 5);
+        assertEquals(user.getSuspensionCode(), SuspensionCode.TEMPORARY_SUSPENSION);
+        assertEquals(user.getSuspensionEnd(), 1234L);
+        BotGuild guild = restoredGuilds.get(1L);
+        assertEquals(guild.getPrefix(), "!");
+        assertEquals(guild.getTimesUsed(), 7);
+        assertTrue(restoredGuilds.takeUnverified(1L), "Restored guild should stay unverified until it is reloaded");
+    }
+
+    @Test
+    void skipsOldEntries() throws IOException {
+        Path file = directory.resolve("cache.snapshot");
+        LongObjectMap<String> prefixes = new LongObjectMap<>();
+        prefixes.put(1L, "!");
+        EntityCache<BotUser> users = newCache();
+        users.put(10L, new BotUser(10L));
+        CacheSnapshot.write(file, prefixes, users, newCache());
+
+        LongObjectMap<String> restoredPrefixes = new LongObjectMap<>();
+        EntityCache<BotUser> restoredUsers = newCache();
+        assertEquals(CacheSnapshot.load(file, restoredPrefixes, restoredUsers, newCache(), System.currentTimeMillis() + 60000L), 0);
+        assertTrue(restoredPrefixes.isEmpty());
+        assertEquals(restoredUsers.size(), 0);
+    }
+
+    @Test
+    void keepsCachedEntries() throws IOException {
+        Path file = directory.resolve("cache.snapshot");
+        EntityCache<BotUser> users = newCache();
+        users.put(10L, new BotUser(10L, BotRole.BOT_STAFF, 0, SuspensionCode.UNSUSPENDED, 0L));
+        CacheSnapshot.write(file, new LongObjectMap<>(), users, newCache());
+
+        EntityCache<BotUser> current = newCache();
+        BotUser fresh = new BotUser(10L);
+        current.put(10L, fresh);
+        assertEquals(CacheSnapshot.load(file, new LongObjectMap<>(), current, newCache(), 0L), 0);
+        assertSame(current.get(10L), fresh, "Snapshot must not replace entities loaded in the meantime");
+    }
+
+    @Test
+    void rejectsDamagedFile() throws IOException {
+        Path file = directory.resolve("cache.snapshot");
+        LongObjectMap<String> prefixes = new LongObjectMap<>();
+        prefixes.put(1L, "!");
+        CacheSnapshot.write(file, prefixes, newCache(), newCache());
+
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)){
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) 0xFF}), 20);
+        }
+
+        assertThrows(IOException.class, () -> CacheSnapshot.load(file, new LongObjectMap<>(), newCache(), newCache(), 0L));
+        assertEquals(CacheSnapshot.load(directory.resolve("missing"), new LongObjectMap<>(), newCache(), newCache(), 0L), 0);
+    }
+
+    private static <V> EntityCache<V> newCache(){
+        return new EntityCache<>("test", 100, 1, TimeUnit.MINUTES);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EntityCacheTest {
+
+    @Test
+    void getAndPut() {
+        EntityCache<String> cache = new EntityCache<>("test", 10, 1, TimeUnit.MINUTES);
+        assertNull(cache.get(1L));
+        cache.put(1L, "one");
+        assertEquals(cache.get(1L), "one");
+        assertEquals(cache.getHits(), 1);
+        assertEquals(cache.getMisses(), 1);
+
+        cache.invalidate(1L);
+        assertNull(cache.get(1L));
+    }
+
+    @Test
+    void putIfAbsent() {
+        EntityCache<String> cache = new EntityCache<>("test", 10, 1, TimeUnit.MINUTES);
+        assertTrue(cache.putIfAbsent(1L, "one"));
+        assertFalse(cache.putIfAbsent(1L, "uno"), "Cached entity must not be replaced");
+        assertEquals(cache.get(1L), "one");
+    }
+
+    @Test
+    void restoredEntriesAreRevalidatedOnce() {
+        List<Long> revalidated = new ArrayList<>();
+        EntityCache<String> cache = new EntityCache<>("test", 10, 1, TimeUnit.MINUTES, revalidated::add);
+        assertTrue(cache.restore(1L, "one", 1000L));
+        cache.put(2L, "two");
+
+        assertEquals(cache.get(1L), "one", "Restored entity should be served right away");
+        assertEquals(cache.get(1L), "one");
+        assertEquals(cache.get(2L), "two");
+        assertEquals(revalidated, List.of(1L));
+
+        assertTrue(cache.restore(3L, "three", 1000L));
+        assertTrue(cache.takeUnverified(3L));
+        assertFalse(cache.takeUnverified(3L), "Restored entity must only be claimed once");
+        cache.get(3L);
+        assertEquals(revalidated, List.of(1L));
+    }
+
+    @Test
+    void unverifiedEntriesAreNotTrusted() {
+        List<Long> revalidated = new ArrayList<>();
+        EntityCache<String> cache = new EntityCache<>("test", 10, 1, TimeUnit.MINUTES, revalidated::add);
+        assertTrue(cache.restore(1L, "one", 1000L));
+        cache.put(2L, "two");
+
+        assertNull(cache.getVerified(1L), "Restored entity must count as a miss until it is reloaded");
+        assertEquals(cache.getVerified(2L), "two");
+        cache.put(1L, "fresh");
+        assertEquals(cache.getVerified(1L), "fresh");
+        assertEquals(revalidated, List.of(), "The caller reloads the entity itself");
+    }
+
+    @Test
+    void expiry() {
+        EntityCache<String> cache = new EntityCache<>("test", 10, 0, TimeUnit.SECONDS);
+        cache.put(1L, "one");
+        assertNull(cache.get(1L));
+        assertEquals(cache.getEvictions(), 1);
+    }
+
+    @Test
+    void sizeBound() {
+        EntityCache<Integer> cache = new EntityCache<>("test", 100, 1, TimeUnit.MINUTES);
+        for(int i = 0; i < 1000; i++){
+            cache.put(i, i);
+        }
+
+        assertTrue(cache.size() <= 100, "Cache grew past its maximum size");
+        assertTrue(cache.getEvictions() >= 900);
+        assertEquals(cache.get(999), 999, "Most recently written entry should not be evicted");
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongObjectMapTest {
+
+    @Test
+    void putGetRemove() {
+        LongObjectMap<String> map = new LongObjectMap<>();
+        assertNull(map.get(0L));
+        assertNull(map.put(0L, "zero"));
+        assertEquals(map.put(0L, "none"), "zero");
+        assertEquals(map.get(0L), "none");
+        assertEquals(map.remove(0L), "none");
+        assertNull(map.get(0L));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    void putIfAbsent() {
+        LongObjectMap<String> map = new LongObjectMap<>();
+        assertNull(map.putIfAbsent(1L, "one"));
+        assertEquals(map.putIfAbsent(1L, "other"), "one");
+        assertEquals(map.get(1L), "one");
+        assertEquals(map.size(), 1);
+    }
+
+    @Test
+    void matchesHashMap() {
+        LongObjectMap<Long> map = new LongObjectMap<>(4);
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(5);
+
+        for(int i = 0; i < 100000; i++){
+            // Small key range so removals hit existing entries and probe sequences get shifted
+            long key = 700000000000000000L + random.nextInt(5000);
+            if(random.nextInt(3) == 0){
+                assertEquals(map.remove(key), expected.remove(key));
+            }
+            else{
+                assertEquals(map.put(key, (long)i), expected.put(key, (long)i));
+            }
+        }
+
+        assertEquals(map.size(), expected.size());
+        for(Map.Entry<Long, Long> entry : expected.entrySet()){
+            assertEquals(map.get(entry.getKey()), entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MemberNameIndexTest {
+
+    private static final long GUILD = 1L;
+
+    private static List<Long> ids(List<MemberNameIndex.Entry> entries){
+        if(entries == null) return null;
+
+        List<Long> ids = new ArrayList<>();
+        for(MemberNameIndex.Entry entry : entries){
+            ids.add(entry.id);
+        }
+        return ids;
+    }
+
+    private static MemberNameIndex createIndex(AtomicLong clock){
+        MemberNameIndex index = new MemberNameIndex(1, TimeUnit.MINUTES, 100, clock::get);
+        index.put(GUILD, 10L, "John", null, "0001", null);
+        index.put(GUILD, 11L, "Johnny", "Boss", "0002", null);
+        index.put(GUILD, 12L, "Jane", "Johanna", "0003", null);
+        index.put(GUILD, 13L, "John", null, "0004", null);
+        return index;
+    }
+
+    @Test
+    void uncoveredSearchesMiss() {
+        MemberNameIndex index = createIndex(new AtomicLong());
+        assertNull(index.find(GUILD, "john"), "Members outside a covered prefix may be unknown");
+        assertNull(index.find(2L, "john"));
+
+        index.cover(GUILD, "jo");
+        assertEquals(List.of(10L, 13L, 11L), ids(index.find(GUILD, "JOHN")));
+        assertEquals(List.of(12L), ids(index.find(GUILD, "joha")), "Nicknames are searched too");
+        assertNull(index.find(GUILD, "j"));
+    }
+
+    @Test
+    void tagsMatchExactly() {
+        MemberNameIndex index = createIndex(new AtomicLong());
+        index.cover(GUILD, "");
+
+        assertEquals(List.of(13L), ids(index.find(GUILD, "john#0004")));
+        assertEquals(List.of(11L), ids(index.find(GUILD, "Boss#0002")));
+        assertEquals(List.of(), ids(index.find(GUILD, "john#0002")));
+        assertEquals(List.of(), ids(index.find(GUILD, "joh#0001")), "Tags must not match by prefix");
+
+        assertTrue(MemberNameIndex.isTag("Some One#1234"));
+        assertEquals("Some One", MemberNameIndex.gatewayQuery("Some One#1234"));
+        assertFalse(MemberNameIndex.isTag("#1234"));
+        assertFalse(MemberNameIndex.isTag("name#12345"));
+    }
+
+    @Test
+    void substringSearch() {
+        MemberNameIndex index = createIndex(new AtomicLong());
+        assertEquals(List.of(11L), ids(index.findSubstring(GUILD, "oss")));
+        assertEquals(List.of(), ids(index.findSubstring(GUILD, "xyz")));
+    }
+
+    @Test
+    void renamesAreReindexed() {
+        MemberNameIndex index = createIndex(new AtomicLong());
+        index.cover(GUILD, "");
+
+        index.put(GUILD, 11L, "Johnny", null, "0002", null);
+        assertEquals(List.of(), ids(index.find(GUILD, "boss")), "Old nickname must be gone");
+        index.remove(GUILD, 10L);
+        assertEquals(List.of(13L, 11L), ids(index.find(GUILD, "john")));
+    }
+
+    @Test
+    void coverageAndMembersExpire() {
+        AtomicLong clock = new AtomicLong();
+        MemberNameIndex index = createIndex(clock);
+        index.cover(GUILD, "");
+        assertEquals(4, index.size());
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        assertEquals(4, ids(index.find(GUILD, "jo")).size());
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(31));
+        assertNull(index.find(GUILD, "jo"));
+
+        index.cleanUp();
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    void fullGuildStartsOver() {
+        MemberNameIndex index = new MemberNameIndex(1, TimeUnit.MINUTES, 2, () -> 0L);
+        index.put(GUILD, 1L, "a", null, "0001", null);
+        index.put(GUILD, 2L, "b", null, "0001", null);
+        index.cover(GUILD, "");
+        index.put(GUILD, 3L, "c", null, "0001", null);
+
+        assertEquals(1, index.size());
+        assertNull(index.find(GUILD, "c"), "Coverage must not survive clearing the guild");
+    }
+}
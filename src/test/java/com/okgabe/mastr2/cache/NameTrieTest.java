@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NameTrieTest {
+
+    private static List<Long> withPrefix(NameTrie trie, String prefix){
+        List<Long> ids = new ArrayList<>();
+        trie.forEachWithPrefix(prefix, id -> {
+            ids.add(id);
+            return true;
+        });
+        return ids;
+    }
+
+    @Test
+    void addAndFindByPrefix() {
+        NameTrie trie = new NameTrie();
+        assertTrue(trie.add("john", 1L));
+        assertTrue(trie.add("johnny", 2L));
+        assertTrue(trie.add("jane", 3L));
+        assertTrue(trie.add("john", 4L));
+        assertFalse(trie.add("john", 1L), "The same ID must only be stored once per name");
+
+        assertEquals(List.of(1L, 4L, 2L), withPrefix(trie, "john"));
+        assertEquals(4, withPrefix(trie, "j").size());
+        assertEquals(4, withPrefix(trie, "").size());
+        assertEquals(List.of(), withPrefix(trie, "joe"));
+        assertEquals(List.of(), withPrefix(trie, "johnnyboy"));
+        assertEquals(4, trie.size());
+    }
+
+    @Test
+    void removePrunesBranches() {
+        NameTrie trie = new NameTrie();
+        trie.add("alice", 1L);
+        trie.add("alicia", 2L);
+
+        assertTrue(trie.remove("alice", 1L));
+        assertFalse(trie.remove("alice", 1L));
+        assertFalse(trie.remove("bob", 1L));
+        assertEquals(List.of(2L), withPrefix(trie, "ali"));
+        assertEquals(List.of(), withPrefix(trie, "alice"));
+
+        assertTrue(trie.remove("alicia", 2L));
+        assertTrue(trie.isEmpty());
+    }
+
+    @Test
+    void visitorStopsEarly() {
+        NameTrie trie = new NameTrie();
+        for(long i = 0; i < 50; i++){
+            trie.add("user" + i, i);
+        }
+
+        List<Long> ids = new ArrayList<>();
+        trie.forEachWithPrefix("user", id -> {
+            ids.add(id);
+            return ids.size() < 10;
+        });
+        assertEquals(10, ids.size());
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.command;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AliasIndexTest {
+
+    @Test
+    void get() {
+        TestCommand help = new TestCommand("help", "h", "cmd");
+        TestCommand ping = new TestCommand("ping", "hey");
+        AliasIndex index = new AliasIndex(List.of(help, ping));
+
+        assertEquals(index.size(), 5);
+        assertSame(index.get("help"), help);
+        assertSame(index.get("HeLp"), help);
+        assertSame(index.get("cmd"), help);
+        assertSame(index.get("hey"), ping);
+        assertNull(index.get("he"));
+        assertNull(index.get(""));
+        assertSame(index.get("mas ping 5", 4, 8), ping);
+        assertSame(index.get(TestCommand.class), ping);
+    }
+
+    @Test
+    void duplicates() {
+        assertThrows(IllegalStateException.class, () -> new AliasIndex(List.of(new TestCommand("help"), new TestCommand("ping", "HELP"))));
+    }
+
+    private static class TestCommand extends CommandBase {
+        TestCommand(String command, String... aliases) {
+            super(null);
+            this.command = command;
+            this.aliases = aliases;
+        }
+
+        @Override
+        public boolean called(CommandEvent e) {
+            return true;
+        }
+
+        @Override
+        public void execute(CommandEvent e) {
+
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.command;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandExecutorTest {
+
+    @Test
+    void ordersTasksOfSameKey() throws InterruptedException {
+        CommandExecutor executor = new CommandExecutor(4, 1000);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        for(int i = 0; i < 500; i++){
+            int task = i;
+            assertTrue(executor.submit(123456789L, () -> order.add(task)));
+        }
+
+        assertTrue(executor.shutdown(5, TimeUnit.SECONDS));
+        for(int i = 0; i < 500; i++){
+            assertEquals(order.get(i), i);
+        }
+    }
+
+    @Test
+    void rejectsWhenFull() throws InterruptedException {
+        CommandExecutor executor = new CommandExecutor(1, 1);
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+
+        assertTrue(executor.submit(1L, () -> {
+            started.countDown();
+            try{
+                blocker.await();
+            }
+            catch(InterruptedException ignored){}
+        }));
+        started.await();
+
+        assertTrue(executor.submit(1L, () -> {}));
+        assertFalse(executor.submit(1L, () -> {}), "Task should be rejected once the queue is full");
+
+        blocker.countDown();
+        assertTrue(executor.shutdown(5, TimeUnit.SECONDS));
+        assertFalse(executor.submit(1L, () -> {}), "Task should be rejected after shutdown");
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.command;
+
+import com.okgabe.mastr2.Mastr;
+import com.okgabe.mastr2.util.ReflectionUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandRegistryTest {
+
+    @Test
+    void matchesClasspathScan() {
+        Set<Class<? extends CommandBase>> scanned = new HashSet<>();
+        for(Class<? extends CommandBase> c : ReflectionUtil.getClasses("com.okgabe.mastr2.command.commands")){
+            if(!c.isAnonymousClass() && !c.isMemberClass()) scanned.add(c);
+        }
+
+        assertEquals(new HashSet<>(CommandRegistry.CLASSES), scanned, "Generated registry is missing commands or lists too many");
+        assertEquals(CommandRegistry.CLASSES.size(), CommandRegistry.FACTORIES.size());
+    }
+
+    @Test
+    void factoriesCreateListedCommands() {
+        for(int i = 0; i < CommandRegistry.FACTORIES.size(); i++){
+            Function<Mastr, CommandBase> factory = CommandRegistry.FACTORIES.get(i);
+            // Commands only use the bot instance once they run, so none is needed to create them
+            assertSame(factory.apply(null).getClass(), CommandRegistry.CLASSES.get(i));
+        }
+    }
+}
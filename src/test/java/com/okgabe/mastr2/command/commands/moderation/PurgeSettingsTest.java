@@ -0,0 +1,119 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.command.commands.moderation;
+
+import com.okgabe.mastr2.command.CommandEvent;
+import com.okgabe.mastr2.command.commands.moderation.PurgeCommand.PurgeSettings;
+import com.okgabe.mastr2.util.TokenizedString;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.User;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.PatternSyntaxException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PurgeSettingsTest {
+
+    // Only what the filters read is answered, anything else fails the test
+    private static Message message(long authorId, boolean bot, String content, boolean attachment){
+        User author = (User) Proxy.newProxyInstance(User.class.getClassLoader(), new Class[] {User.class}, (proxy, method, args) -> {
+            switch(method.getName()){
+                case "getIdLong": return authorId;
+                case "isBot": return bot;
+                default: throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        Message.Attachment file = (Message.Attachment) Proxy.newProxyInstance(Message.class.getClassLoader(), new Class[] {Message.Attachment.class}, (proxy, method, args) -> {
+            if(method.getName().equals("isImage")) return true;
+            throw new UnsupportedOperationException(method.getName());
+        });
+
+        return (Message) Proxy.newProxyInstance(Message.class.getClassLoader(), new Class[] {Message.class}, (proxy, method, args) -> {
+            switch(method.getName()){
+                case "getAuthor": return author;
+                case "getContentRaw": return content;
+                case "getEmbeds": return Collections.emptyList();
+                case "getAttachments": return attachment ? List.of(file) : Collections.emptyList();
+                default: throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    // Arguments go through the same tokenizer as real messages, so quotes are stripped before the settings see them
+    private static PurgeSettings settings(String args){
+        return new PurgeSettings(new CommandEvent(null, null, null, null, null, null, TokenizedString.split("purge " + args, 0, true), 1));
+    }
+
+    private static Predicate<Message> compile(String args){
+        return settings(args).compile();
+    }
+
+    @Test
+    void parse() {
+        PurgeSettings settings = settings("250 bots <@!123456789012345678> \"hello there\" to:https://discord.com/channels/1/2/765432109876543210");
+        assertEquals(250, settings.getAmount());
+        assertTrue(settings.isBots());
+        assertEquals(List.of(123456789012345678L), settings.getUserIds());
+        assertEquals("hello there", settings.getQuote());
+        assertEquals(765432109876543210L, settings.getUpTo());
+
+        assertEquals(765432109876543210L, settings("5 upto:765432109876543210").getUpTo());
+        assertEquals(0, settings("99999999999").getAmount(), "Amounts which don't fit in an int must be ignored");
+        assertTrue(settings("10").clearEverything());
+        assertFalse(settings("10 text").clearEverything());
+    }
+
+    @Test
+    void quotedKeywordsAreQuotes() {
+        PurgeSettings settings = settings("10 \"users\"");
+        assertEquals("users", settings.getQuote());
+        assertFalse(settings.isUsers());
+        assertEquals("word", settings("10 \"word\"").getQuote());
+        assertNull(settings("10 word").getQuote());
+    }
+
+    @Test
+    void everythingMatchesWithoutFilters() {
+        assertTrue(compile("10").test(message(1L, true, "", false)));
+        assertTrue(compile("10 users bots").test(message(1L, false, "hi", false)));
+    }
+
+    @Test
+    void authorAndContentFiltersCombine() {
+        Message userLink = message(1L, false, "look at https://example.com", false);
+        Message botLink = message(2L, true, "https://example.com", false);
+        Message userText = message(3L, false, "just words", false);
+
+        Predicate<Message> botLinks = compile("10 bots links");
+        assertFalse(botLinks.test(userLink));
+        assertTrue(botLinks.test(botLink));
+
+        Predicate<Message> mentioned = compile("10 <@3>");
+        assertTrue(mentioned.test(userText));
+        assertFalse(mentioned.test(userLink));
+
+        Predicate<Message> linksOrImages = compile("10 links images");
+        assertTrue(linksOrImages.test(userLink));
+        assertTrue(linksOrImages.test(message(3L, false, "", true)));
+        assertFalse(linksOrImages.test(userText));
+    }
+
+    @Test
+    void quoteAndRegex() {
+        assertTrue(compile("10 \"WORDS\"").test(message(1L, false, "just words", false)));
+        assertFalse(compile("10 \"other\"").test(message(1L, false, "just words", false)));
+        assertTrue(compile("10 `^j.st`").test(message(1L, false, "just words", false)));
+        assertThrows(PatternSyntaxException.class, () -> compile("10 `[`"));
+    }
+}
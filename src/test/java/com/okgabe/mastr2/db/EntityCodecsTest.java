@@ -0,0 +1,95 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.db;
+
+import com.okgabe.mastr2.entity.BotGuild;
+import com.okgabe.mastr2.entity.BotUser;
+import com.okgabe.mastr2.entity.EntityAdaptor;
+import com.okgabe.mastr2.permission.BotRole;
+import com.okgabe.mastr2.util.GuildTier;
+import com.okgabe.mastr2.util.SuspensionCode;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EntityCodecsTest {
+
+    @Test
+    void userMatchesAdaptor() {
+        BotUser user = new BotUser(123456789012345678L, BotRole.BOT_STAFF, 42, SuspensionCode.TEMPORARY_SUSPENSION, 1600000000L);
+        BsonDocument encoded = encode(EntityCodecs.REGISTRY.get(BotUser.class), user);
+        assertEquals(encoded, toBson(EntityAdaptor.fromBotUser(user)), "Codec must write the same document as EntityAdaptor");
+
+        BotUser decoded = decode(EntityCodecs.REGISTRY.get(BotUser.class), toBson(EntityAdaptor.fromBotUser(user)));
+        assertEquals(decoded.getUserId(), user.getUserId());
+        assertEquals(decoded.getRole(), user.getRole());
+        assertEquals(decoded.getTimesUsed(), user.getTimesUsed());
+        assertEquals(decoded.getSuspensionCode(), user.getSuspensionCode());
+        assertEquals(decoded.getSuspensionEnd(), user.getSuspensionEnd());
+    }
+
+    @Test
+    void guildMatchesAdaptor() {
+        BotGuild guild = new BotGuild(876543210987654321L, "!", 1337, GuildTier.PREMIUM_GUILD, SuspensionCode.UNSUSPENDED);
+        BsonDocument encoded = encode(EntityCodecs.REGISTRY.get(BotGuild.class), guild);
+        assertEquals(encoded, toBson(EntityAdaptor.fromBotGuild(guild)), "Codec must write the same document as EntityAdaptor");
+
+        // Counters grown through $inc may be stored as longs
+        encoded.put("timesUsed", new BsonInt64(1337L));
+        encoded.put("unknownField", new BsonString("ignored"));
+        BotGuild decoded = decode(EntityCodecs.REGISTRY.get(BotGuild.class), encoded);
+        assertEquals(decoded.getGuildId(), guild.getGuildId());
+        assertEquals(decoded.getPrefix(), guild.getPrefix());
+        assertEquals(decoded.getTimesUsed(), guild.getTimesUsed());
+        assertEquals(decoded.getGuildTier(), guild.getGuildTier());
+        assertEquals(decoded.getSuspensionCode(), guild.getSuspensionCode());
+    }
+
+    @Test
+    void projections() {
+        BsonDocument prefixOnly = new BsonDocument("_id", new BsonInt64(5L)).append("prefix", new BsonString("?"));
+        GuildPrefix prefix = decode(EntityCodecs.REGISTRY.get(GuildPrefix.class), prefixOnly);
+        assertEquals(prefix.id, 5L);
+        assertEquals(prefix.prefix, "?");
+
+        BotUser user = new BotUser(7L, BotRole.DEFAULT, 3, SuspensionCode.PERMANENT_SUSPENSION, 0L);
+        Suspension suspension = decode(EntityCodecs.REGISTRY.get(Suspension.class), toBson(EntityAdaptor.fromBotUser(user)));
+        assertEquals(suspension.id, 7L);
+        assertEquals(suspension.code, SuspensionCode.PERMANENT_SUSPENSION);
+        assertEquals(suspension.end, 0L);
+
+        // Guilds have no suspension end
+        Suspension guild = decode(EntityCodecs.REGISTRY.get(Suspension.class), toBson(EntityAdaptor.fromBotGuild(new BotGuild(9L))));
+        assertEquals(guild.id, 9L);
+        assertEquals(guild.end, 0L);
+    }
+
+    private static <T> BsonDocument encode(Codec<T> codec, T value){
+        BsonDocument document = new BsonDocument();
+        codec.encode(new BsonDocumentWriter(document), value, EncoderContext.builder().build());
+        return document;
+    }
+
+    private static <T> T decode(Codec<T> codec, BsonDocument document){
+        return codec.decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+    }
+
+    private static BsonDocument toBson(Document document){
+        return document.toBsonDocument(BsonDocument.class, EntityCodecs.REGISTRY);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.db;
+
+import com.okgabe.mastr2.entity.BotGuild;
+import com.okgabe.mastr2.entity.BotUser;
+import com.okgabe.mastr2.permission.BotRole;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileDatabaseManagerTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void keepsEntitiesAcrossRestarts() throws IOException {
+        Path file = directory.resolve("mastr.db");
+        DatabaseManager db = new FileDatabaseManager(file, null);
+        BotUser user = db.getBotUser(1L);
+        user.setRole(BotRole.BOT_STAFF);
+        db.setBotUser(user);
+        BotGuild guild = db.getBotGuild(2L);
+        guild.setPrefix("!");
+        db.setBotGuild(guild);
+        db.incrementTimesUsed(Map.of(1L, 5), Map.of(2L, 7));
+        db.close();
+
+        db = new FileDatabaseManager(file, null);
+        assertEquals(db.getBotUser(1L, false).getRole(), BotRole.BOT_STAFF);
+        assertEquals(db.getBotUser(1L, false).getTimesUsed(), 5);
+        assertEquals(db.getGuildPrefix(2L, false), "!");
+        assertEquals(db.getBotGuild(2L, false).getTimesUsed(), 7);
+        db.close();
+    }
+
+    @Test
+    void ignoresIncompleteRecord() throws IOException {
+        Path file = directory.resolve("mastr.db");
+        DatabaseManager db = new FileDatabaseManager(file, null);
+        db.getBotUser(1L);
+        db.getBotUser(2L);
+        db.close();
+
+        // Damage the last record, as if the bot stopped while writing it
+        LogStore store = new LogStore(file);
+        long end = store.getUsedBytes();
+        store.close();
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)){
+            channel.write(ByteBuffer.wrap(new byte[] {1, 2, 3}), end - 3);
+        }
+
+        db = new FileDatabaseManager(file, null);
+        assertEquals(db.getBotUser(1L, false).getUserId(), 1L);
+        assertEquals(db.getBotUser(2L, false).getRole(), BotRole.UNKNOWN, "Damaged record must be skipped");
+        db.getBotUser(3L);
+        db.close();
+
+        db = new FileDatabaseManager(file, null);
+        assertEquals(db.getBotUser(3L, false).getUserId(), 3L, "Records after a damaged one must be readable");
+        db.close();
+    }
+
+    @Test
+    void compacts() throws IOException {
+        Path file = directory.resolve("mastr.db");
+        DatabaseManager db = new FileDatabaseManager(file, null);
+        for(long id = 0; id < 10; id++){
+            db.getBotUser(id);
+        }
+        // Each increment appends a record, several megabytes in total
+        for(int i = 0; i < 100_000; i++){
+            db.incrementTimesUsed(Map.of((long) (i % 10), 1), Map.of());
+        }
+        db.close();
+
+        LogStore store = new LogStore(file);
+        assertTrue(store.getUsedBytes() < 4 << 20, "Replaced records should have been compacted away");
+        store.close();
+
+        db = new FileDatabaseManager(file, null);
+        for(long id = 0; id < 10; id++){
+            assertEquals(db.getBotUser(id, false).getTimesUsed(), 10_000);
+        }
+        db.close();
+    }
+}
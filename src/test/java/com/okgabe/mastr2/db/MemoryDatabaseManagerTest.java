@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.db;
+
+import com.okgabe.mastr2.entity.BotGuild;
+import com.okgabe.mastr2.entity.BotUser;
+import com.okgabe.mastr2.permission.BotRole;
+import com.okgabe.mastr2.permission.SuspensionIndex;
+import com.okgabe.mastr2.util.SuspensionCode;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MemoryDatabaseManagerTest {
+
+    @Test
+    void getOrCreate() {
+        DatabaseManager db = new MemoryDatabaseManager(null);
+        assertEquals(db.getBotUser(1L, false).getRole(), BotRole.UNKNOWN);
+        assertNull(db.getBotGuild(2L, false));
+        assertNull(db.getGuildPrefix(2L, false));
+
+        assertEquals(db.getBotUser(1L).getRole(), BotRole.DEFAULT);
+        assertEquals(db.getGuildPrefix(2L), BotGuild.DEFAULT_PREFIX);
+        assertEquals(db.getBotGuild(2L, false).getGuildId(), 2L);
+        assertThrows(IllegalStateException.class, () -> db.createBotUser(1L));
+    }
+
+    @Test
+    void createOnlyReportsNewGuilds() {
+        DatabaseManager db = new MemoryDatabaseManager(null);
+        db.getBotGuild(2L);
+
+        List<BotGuild> created = db.createBotGuildsAsync(new long[] {1L, 2L, 3L}).join();
+        assertEquals(created.size(), 2, "Guilds which already existed must not be reported as created");
+        assertEquals(created.get(0).getGuildId(), 1L);
+        assertEquals(created.get(1).getGuildId(), 3L);
+    }
+
+    @Test
+    void savesOnlyChangedFields() {
+        DatabaseManager db = new MemoryDatabaseManager(null);
+        BotUser first = db.getBotUser(1L);
+        BotUser second = db.getBotUser(1L);
+        assertNotSame(first, second, "Stored users must not be handed out");
+
+        first.setRole(BotRole.BOT_STAFF);
+        second.setSuspensionCode(SuspensionCode.PERMANENT_SUSPENSION);
+        db.setBotUser(first);
+        db.setBotUser(second);
+        db.incrementTimesUsed(Map.of(1L, 3), Map.of());
+
+        BotUser stored = db.getBotUser(1L);
+        assertEquals(stored.getRole(), BotRole.BOT_STAFF, "Saving another field must not undo the role");
+        assertEquals(stored.getSuspensionCode(), SuspensionCode.PERMANENT_SUSPENSION);
+        assertEquals(stored.getTimesUsed(), 3);
+
+        // Users which don't exist aren't created by saving them
+        BotUser missing = new BotUser(5L);
+        missing.setRole(BotRole.BOT_STAFF);
+        db.setBotUser(missing);
+        assertEquals(db.getBotUser(5L, false).getRole(), BotRole.UNKNOWN);
+    }
+
+    @Test
+    void suspensions() {
+        DatabaseManager db = new MemoryDatabaseManager(null);
+        suspend(db, 1L, SuspensionCode.TEMPORARY_SUSPENSION, 100L);
+        suspend(db, 2L, SuspensionCode.PERMANENT_SUSPENSION, 0L);
+        suspend(db, 3L, SuspensionCode.AUTOMATIC_SUSPENSION, 300L);
+        db.getBotUser(4L);
+
+        assertEquals(db.getSuspendedUsers(), Map.of(1L, 100L, 2L, SuspensionIndex.PERMANENT, 3L, 300L));
+        assertEquals(db.liftExpiredSuspensions(200L), 1);
+        assertEquals(db.getBotUser(1L).getSuspensionCode(), SuspensionCode.UNSUSPENDED);
+        assertEquals(db.getSuspendedUsers().keySet(), Map.of(2L, 0L, 3L, 0L).keySet());
+    }
+
+    private static void suspend(DatabaseManager db, long id, SuspensionCode code, long end){
+        BotUser user = db.getBotUser(id);
+        user.setSuspensionCode(code);
+        user.setSuspensionEnd(end);
+        db.setBotUser(user);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.db;
+
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscription;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PublisherFuturesTest {
+
+    @Test
+    void first() throws Exception {
+        assertEquals(PublisherFutures.first(publisher(Arrays.asList(1, 2, 3))).get(), 1);
+        assertNull(PublisherFutures.first(publisher(Collections.emptyList())).get());
+    }
+
+    @Test
+    void all() throws Exception {
+        assertEquals(PublisherFutures.all(publisher(Arrays.asList(1, 2, 3))).get(), Arrays.asList(1, 2, 3));
+    }
+
+    @Test
+    void error() {
+        Publisher<Integer> failing = subscriber -> subscriber.onError(new IllegalStateException());
+        assertThrows(ExecutionException.class, () -> PublisherFutures.first(failing).get());
+    }
+
+    // Synchronous publisher which respects demand and cancellation
+    private static <T> Publisher<T> publisher(List<T> items){
+        return subscriber -> subscriber.onSubscribe(new Subscription() {
+            private int index;
+            private boolean cancelled;
+
+            @Override
+            public void request(long n) {
+                for(long i = 0; i < n && index < items.size() && !cancelled; i++){
+                    subscriber.onNext(items.get(index++));
+                }
+                if(index == items.size() && !cancelled){
+                    cancelled = true;
+                    subscriber.onComplete();
+                }
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+            }
+        });
+    }
+}
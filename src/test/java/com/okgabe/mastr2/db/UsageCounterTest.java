@@ -0,0 +1,120 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UsageCounterTest {
+
+    /**
+     * Memory database whose guild writes fail a given amount of times, or only apply to some guilds
+     */
+    private static class FailingDatabaseManager extends MemoryDatabaseManager {
+        private int failures;
+        private long rejectedGuild;
+
+        private FailingDatabaseManager() {
+            super(null);
+        }
+
+        @Override
+        public Map<Long, Integer> incrementGuildTimesUsed(Map<Long, Integer> increments){
+            if(failures > 0){
+                failures--;
+                throw new IllegalStateException("Connection lost");
+            }
+            if(rejectedGuild != 0 && increments.containsKey(rejectedGuild)){
+                long rejected = rejectedGuild;
+                rejectedGuild = 0;
+                super.incrementGuildTimesUsed(Map.of(2L, increments.get(2L)));
+                return Map.of(rejected, increments.get(rejected));
+            }
+
+            return super.incrementGuildTimesUsed(increments);
+        }
+    }
+
+    @Test
+    void flushWritesAndClears() {
+        DatabaseManager db = new MemoryDatabaseManager(null);
+        db.getBotUser(1L);
+        db.getBotGuild(2L);
+        UsageCounter counter = new UsageCounter(() -> db);
+
+        counter.incrementUser(1L);
+        counter.incrementUser(1L);
+        counter.incrementGuild(2L);
+        counter.flush();
+        counter.flush();
+
+        assertEquals(2, db.getBotUser(1L).getTimesUsed());
+        assertEquals(1, db.getBotGuild(2L).getTimesUsed());
+        assertEquals(0, counter.pending());
+    }
+
+    @Test
+    void flushWaitsForDatabase() {
+        DatabaseManager db = new MemoryDatabaseManager(null);
+        db.getBotUser(1L);
+        AtomicReference<DatabaseManager> started = new AtomicReference<>();
+        UsageCounter counter = new UsageCounter(started::get);
+
+        counter.incrementUser(1L);
+        counter.flush();
+        assertEquals(1, counter.pending(), "Increments must be kept until the storage has started");
+
+        started.set(db);
+        counter.flush();
+        assertEquals(1, db.getBotUser(1L).getTimesUsed());
+        assertEquals(0, counter.pending());
+    }
+
+    @Test
+    void failedCollectionIsRetriedAlone() {
+        FailingDatabaseManager db = new FailingDatabaseManager();
+        db.getBotUser(1L);
+        db.getBotGuild(2L);
+        db.failures = 1;
+        UsageCounter counter = new UsageCounter(() -> db);
+
+        counter.incrementUser(1L);
+        counter.incrementGuild(2L);
+        counter.flush();
+        assertEquals(1, db.getBotUser(1L).getTimesUsed());
+        assertEquals(0, db.getBotGuild(2L).getTimesUsed());
+        assertEquals(1, counter.pending(), "Only the guild increments should be waiting");
+
+        counter.flush();
+        assertEquals(1, db.getBotUser(1L).getTimesUsed(), "User increments must not be applied twice");
+        assertEquals(1, db.getBotGuild(2L).getTimesUsed());
+    }
+
+    @Test
+    void onlyUnappliedIncrementsAreRetried() {
+        FailingDatabaseManager db = new FailingDatabaseManager();
+        db.getBotGuild(2L);
+        db.getBotGuild(3L);
+        db.rejectedGuild = 3L;
+        UsageCounter counter = new UsageCounter(() -> db);
+
+        counter.incrementGuild(2L);
+        counter.incrementGuild(3L);
+        counter.flush();
+        counter.flush();
+
+        assertEquals(1, db.getBotGuild(2L).getTimesUsed(), "Applied increments must not be retried");
+        assertEquals(1, db.getBotGuild(3L).getTimesUsed());
+        assertEquals(0, counter.pending());
+    }
+}
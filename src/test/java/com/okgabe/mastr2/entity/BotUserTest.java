@@ -0,0 +1,37 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.entity;
+
+import com.okgabe.mastr2.permission.BotRole;
+import com.okgabe.mastr2.util.SuspensionCode;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BotUserTest {
+
+    @Test
+    void dirtyFields() {
+        BotUser user = new BotUser(1L);
+        assertEquals(user.takeDirtyFields(), 0, "New users have nothing to save");
+
+        user.setRole(BotRole.BOT_STAFF);
+        user.setSuspensionEnd(100L);
+        user.incrementTimesUsed();
+        assertEquals(user.takeDirtyFields(), BotUser.ROLE | BotUser.SUSPENSION_END);
+        assertEquals(user.takeDirtyFields(), 0, "Taking fields clears them");
+
+        user.setSuspensionCode(SuspensionCode.TEMPORARY_SUSPENSION);
+        int taken = user.takeDirtyFields();
+        // A failed save puts the fields back, along with anything changed in the meantime
+        user.setRole(BotRole.DEFAULT);
+        user.markDirty(taken);
+        assertEquals(user.takeDirtyFields(), BotUser.ROLE | BotUser.SUSPENSION_CODE);
+    }
+}
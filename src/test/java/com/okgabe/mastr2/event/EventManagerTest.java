@@ -0,0 +1,195 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.event;
+
+import com.okgabe.mastr2.Mastr;
+import com.okgabe.mastr2.ShutdownCoordinator;
+import com.okgabe.mastr2.StartupOrchestrator;
+import com.okgabe.mastr2.cache.CacheManager;
+import com.okgabe.mastr2.command.CommandHandler;
+import com.okgabe.mastr2.db.DatabaseManager;
+import com.okgabe.mastr2.db.MemoryDatabaseManager;
+import com.okgabe.mastr2.permission.BotRole;
+import com.okgabe.mastr2.permission.PermissionManager;
+import net.dv8tion.jda.api.entities.ChannelType;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.TextChannel;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import org.hjson.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventManagerTest {
+
+    private static final long USER = 10L;
+    private static final long GUILD = 20L;
+    private static final long CHANNEL = 30L;
+
+    /**
+     * Bot made of the parts a guild message goes through, with in-memory storage and nothing connected to Discord
+     */
+    private static class TestMastr extends Mastr {
+        private final ManualScheduler scheduler = new ManualScheduler();
+        private final StartupOrchestrator startup = new StartupOrchestrator();
+        private DatabaseManager databaseManager;
+        private CacheManager cacheManager;
+        private PermissionManager permissionManager;
+        private CommandHandler commandHandler;
+        private ResponseHandler responseHandler;
+        private ShutdownCoordinator shutdownCoordinator;
+
+        private TestMastr() {
+            // No snapshot file, so nothing is read from or written to the disk
+            super(new JsonObject().add("cache snapshot file", ""));
+            cacheManager = new CacheManager(this);
+            databaseManager = new MemoryDatabaseManager(cacheManager);
+            permissionManager = new PermissionManager(this);
+            commandHandler = new CommandHandler(this);
+            commandHandler.setSelfUser("1");
+            responseHandler = new ResponseHandler(scheduler);
+            shutdownCoordinator = new ShutdownCoordinator(this);
+            startup.start(Runnable::run);
+        }
+
+        @Override
+        public ScheduledExecutorService getScheduler() {
+            return scheduler;
+        }
+
+        @Override
+        public StartupOrchestrator getStartup() {
+            return startup;
+        }
+
+        @Override
+        public DatabaseManager getDatabaseManager() {
+            return databaseManager;
+        }
+
+        @Override
+        public CacheManager getCacheManager() {
+            return cacheManager;
+        }
+
+        @Override
+        public PermissionManager getPermissionManager() {
+            return permissionManager;
+        }
+
+        @Override
+        public CommandHandler getCommandHandler() {
+            return commandHandler;
+        }
+
+        @Override
+        public ResponseHandler getResponseHandler() {
+            return responseHandler;
+        }
+
+        @Override
+        public ShutdownCoordinator getShutdownCoordinator() {
+            return shutdownCoordinator;
+        }
+    }
+
+    private TestMastr mastr;
+    private EventManager eventManager;
+
+    @BeforeEach
+    void startBot() {
+        mastr = new TestMastr();
+        eventManager = new EventManager(mastr);
+    }
+
+    @AfterEach
+    void stopScheduler() {
+        mastr.scheduler.shutdownNow();
+    }
+
+    // A message by a person in a guild text channel, anything not needed to handle it fails the test
+    private static MessageReceivedEvent guildMessage(String content){
+        Guild guild = (Guild) Proxy.newProxyInstance(Guild.class.getClassLoader(), new Class[] {Guild.class}, (proxy, method, args) -> {
+            if(method.getName().equals("getIdLong")) return GUILD;
+            throw new UnsupportedOperationException(method.getName());
+        });
+        TextChannel channel = (TextChannel) Proxy.newProxyInstance(TextChannel.class.getClassLoader(), new Class[] {TextChannel.class}, (proxy, method, args) -> {
+            switch(method.getName()){
+                case "getIdLong": return CHANNEL;
+                case "getType": return ChannelType.TEXT;
+                case "getGuild": return guild;
+                default: throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        User author = (User) Proxy.newProxyInstance(User.class.getClassLoader(), new Class[] {User.class}, (proxy, method, args) -> {
+            switch(method.getName()){
+                case "getIdLong": return USER;
+                case "isBot": return false;
+                default: throw new UnsupportedOperationException(method.getName());
+            }
+        });
+
+        Message message = (Message) Proxy.newProxyInstance(Message.class.getClassLoader(), new Class[] {Message.class}, (proxy, method, args) -> {
+            switch(method.getName()){
+                case "getAuthor": return author;
+                case "getChannel": return channel;
+                case "getGuild": return guild;
+                case "getContentRaw": return content;
+                case "isWebhookMessage": return false;
+                case "isFromType": return args[0] == ChannelType.TEXT;
+                case "getChannelType": return ChannelType.TEXT;
+                default: throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        return new MessageReceivedEvent(null, 0L, message);
+    }
+
+    private void assertNoRecords(String reason){
+        assertEquals(BotRole.UNKNOWN, mastr.databaseManager.getBotUser(USER, false).getRole(), reason);
+        assertNull(mastr.databaseManager.getBotGuild(GUILD, false), reason);
+        assertNull(mastr.cacheManager.getUserCache().get(USER), reason);
+        assertNull(mastr.cacheManager.getGuildCache().get(GUILD), reason);
+    }
+
+    @Test
+    void plainMessageCreatesNoRecords() {
+        eventManager.onMessageReceived(guildMessage("hello everyone"));
+        assertNoRecords("A message which isn't a command must not create the user or the guild");
+
+        // The prefix was looked up, so the message really was parsed
+        assertNotNull(mastr.cacheManager.getPrefix(GUILD));
+    }
+
+    @Test
+    void unknownCommandCreatesNoRecords() {
+        eventManager.onMessageReceived(guildMessage("masnotacommand"));
+        assertNoRecords("A prefix without a known command must not create the user or the guild");
+    }
+
+    @Test
+    void answerToListenerLoadsRecords() {
+        List<ResponseListener> answered = new ArrayList<>();
+        mastr.responseHandler.register(new ResponseListener(ChannelType.TEXT, CHANNEL, USER, 60, answered::add, listener -> {}));
+
+        eventManager.onMessageReceived(guildMessage("hello everyone"));
+
+        assertEquals(1, answered.size());
+        assertEquals(BotRole.DEFAULT, mastr.databaseManager.getBotUser(USER, false).getRole());
+        assertNotNull(mastr.databaseManager.getBotGuild(GUILD, false));
+    }
+}
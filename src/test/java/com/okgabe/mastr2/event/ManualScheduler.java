@@ -0,0 +1,42 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduler which keeps scheduled tasks instead of running them, so tests decide when a timeout fires
+ */
+class ManualScheduler extends ScheduledThreadPoolExecutor {
+
+    private final List<Runnable> tasks = new ArrayList<>();
+
+    ManualScheduler() {
+        super(1);
+    }
+
+    @Override
+    public synchronized ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit){
+        tasks.add(command);
+        // Never runs, it only gives the caller something to cancel
+        return super.schedule(() -> {}, 1, TimeUnit.DAYS);
+    }
+
+    synchronized Runnable task(int index){
+        return tasks.get(index);
+    }
+
+    synchronized int taskCount(){
+        return tasks.size();
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.event;
+
+import net.dv8tion.jda.api.entities.ChannelType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReactionHandlerTest {
+
+    private static final long MESSAGE = 10L;
+
+    private final ManualScheduler scheduler = new ManualScheduler();
+    private final ReactionHandler handler = new ReactionHandler(scheduler);
+
+    @AfterEach
+    void stopScheduler() {
+        scheduler.shutdownNow();
+    }
+
+    private static ReactionListener listener(long messageId, long userId, Consumer<ReactionListener> handler, Consumer<ReactionListener> timeoutHandler){
+        return new ReactionListener(null, ChannelType.TEXT, 1L, messageId, userId, 60, handler, timeoutHandler);
+    }
+
+    @Test
+    void everyListenerOfTheUserReceivesReactions() {
+        List<String> handled = new ArrayList<>();
+        handler.register(listener(MESSAGE, 1L, l -> handled.add("first"), l -> {}));
+        handler.register(listener(MESSAGE, 2L, l -> handled.add("other user"), l -> {}));
+        ReactionListener second = listener(MESSAGE, 1L, l -> handled.add("second"), l -> {});
+        handler.register(second);
+        handler.register(listener(MESSAGE + 1, 1L, l -> handled.add("other message"), l -> {}));
+
+        handler.handleReaction(null, MESSAGE, 1L);
+        assertEquals(List.of("first", "second"), handled);
+
+        handled.clear();
+        handler.unregister(second);
+        handler.handleReaction(null, MESSAGE, 1L);
+        handler.handleReaction(null, MESSAGE, 3L);
+        handler.handleReaction(null, MESSAGE + 2, 1L);
+        assertEquals(List.of("first"), handled);
+        assertFalse(second.isActive());
+        assertTrue(second.getTimeoutSchedule().isCancelled());
+    }
+
+    @Test
+    void timeoutWaitsForRunningHandler() throws Exception {
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch handling = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ReactionListener listener = listener(MESSAGE, 1L, l -> {
+            handling.countDown();
+            try{
+                release.await(5, TimeUnit.SECONDS);
+            }
+            catch(InterruptedException ex){
+                Thread.currentThread().interrupt();
+            }
+            events.add("handled");
+        }, l -> events.add("timed out"));
+        handler.register(listener);
+
+        Thread reaction = new Thread(() -> handler.handleReaction(null, MESSAGE, 1L));
+        reaction.start();
+        assertTrue(handling.await(5, TimeUnit.SECONDS));
+
+        Thread timer = new Thread(scheduler.task(0));
+        timer.start();
+        // The timeout has to wait on the listener's lock while its handler runs
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while(timer.getState() != Thread.State.BLOCKED && timer.isAlive() && System.nanoTime() < deadline){
+            Thread.onSpinWait();
+        }
+        assertEquals(Thread.State.BLOCKED, timer.getState());
+        assertEquals(List.of(), events);
+
+        release.countDown();
+        reaction.join();
+        timer.join();
+        assertEquals(List.of("handled", "timed out"), events);
+
+        handler.handleReaction(null, MESSAGE, 1L);
+        assertEquals(List.of("handled", "timed out"), events, "Listeners which timed out must not receive reactions");
+    }
+
+    @Test
+    void unregisterRacingTimeout() throws Exception {
+        for(int i = 0; i < 500; i++){
+            AtomicInteger timedOut = new AtomicInteger();
+            ReactionListener listener = listener(MESSAGE + i, 1L, l -> {}, l -> timedOut.incrementAndGet());
+            handler.register(listener);
+            Runnable timeout = scheduler.task(i);
+
+            CountDownLatch start = new CountDownLatch(1);
+            Thread timer = new Thread(() -> {
+                try{
+                    start.await();
+                }
+                catch(InterruptedException ex){
+                    return;
+                }
+                timeout.run();
+            });
+            timer.start();
+            start.countDown();
+            handler.unregister(listener);
+            timer.join();
+
+            assertTrue(timedOut.get() <= 1, "A listener must time out at most once");
+            assertFalse(listener.isActive());
+        }
+    }
+
+    @Test
+    void timeOutAll() {
+        AtomicInteger timedOut = new AtomicInteger();
+        AtomicInteger handled = new AtomicInteger();
+        handler.register(listener(MESSAGE, 1L, l -> handled.incrementAndGet(), l -> timedOut.incrementAndGet()));
+        handler.register(listener(MESSAGE, 2L, l -> handled.incrementAndGet(), l -> {
+            throw new IllegalStateException("broken");
+        }));
+        handler.register(listener(MESSAGE + 1, 1L, l -> handled.incrementAndGet(), l -> timedOut.incrementAndGet()));
+
+        assertEquals(2, handler.timeOutAll(), "Failing timeout handlers must not stop the others");
+        assertEquals(2, timedOut.get());
+        assertEquals(0, handler.timeOutAll());
+
+        handler.handleReaction(null, MESSAGE, 1L);
+        handler.handleReaction(null, MESSAGE + 1, 1L);
+        for(int i = 0; i < scheduler.taskCount(); i++){
+            scheduler.task(i).run();
+        }
+        assertEquals(0, handled.get());
+        assertEquals(2, timedOut.get(), "Listeners which were timed out must not time out again");
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.event;
+
+import net.dv8tion.jda.api.entities.ChannelType;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.MessageChannel;
+import net.dv8tion.jda.api.entities.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseHandlerTest {
+
+    private final ManualScheduler scheduler = new ManualScheduler();
+    private final ResponseHandler handler = new ResponseHandler(scheduler);
+
+    @AfterEach
+    void stopScheduler() {
+        scheduler.shutdownNow();
+    }
+
+    // Only the IDs are answered, anything else fails the test
+    private static Message message(long channelId, long userId){
+        MessageChannel channel = (MessageChannel) Proxy.newProxyInstance(MessageChannel.class.getClassLoader(), new Class[] {MessageChannel.class}, (proxy, method, args) -> {
+            if(method.getName().equals("getIdLong")) return channelId;
+            throw new UnsupportedOperationException(method.getName());
+        });
+        User author = (User) Proxy.newProxyInstance(User.class.getClassLoader(), new Class[] {User.class}, (proxy, method, args) -> {
+            if(method.getName().equals("getIdLong")) return userId;
+            throw new UnsupportedOperationException(method.getName());
+        });
+
+        return (Message) Proxy.newProxyInstance(Message.class.getClassLoader(), new Class[] {Message.class}, (proxy, method, args) -> {
+            switch(method.getName()){
+                case "getChannel": return channel;
+                case "getAuthor": return author;
+                default: throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static ResponseListener listener(long channelId, long userId, Consumer<ResponseListener> handler, Consumer<ResponseListener> timeoutHandler){
+        return new ResponseListener(ChannelType.TEXT, channelId, userId, 60, handler, timeoutHandler);
+    }
+
+    @Test
+    void registerFindUnregister() {
+        List<ResponseListener> handled = new ArrayList<>();
+        ResponseListener first = listener(1L, 2L, handled::add, l -> fail("Must not time out"));
+        ResponseListener second = listener(1L, 2L, handled::add, l -> fail("Must not time out"));
+        handler.register(first);
+        handler.register(second);
+
+        assertTrue(handler.isListening(1L, 2L));
+        assertFalse(handler.isListening(1L, 3L));
+        assertFalse(handler.handleMessage(message(2L, 2L)));
+
+        assertTrue(handler.handleMessage(message(1L, 2L)));
+        assertEquals(List.of(first), handled, "The listener registered first must receive the message");
+        assertNotNull(first.getMessage());
+
+        handler.unregister(first);
+        assertTrue(handler.handleMessage(message(1L, 2L)));
+        assertEquals(List.of(first, second), handled);
+
+        handler.unregister(second);
+        assertFalse(handler.isListening(1L, 2L));
+        assertFalse(handler.handleMessage(message(1L, 2L)));
+        assertTrue(first.getTimeoutSchedule().isCancelled());
+    }
+
+    @Test
+    void collidingKeysAreToldApart() {
+        // Both pairs map to the same key, rotateLeft(1, 32) ^ 0 == rotateLeft(0, 32) ^ (1 << 32)
+        long otherUser = 1L << 32;
+        List<ResponseListener> handled = new ArrayList<>();
+        ResponseListener a = listener(1L, 0L, handled::add, l -> {});
+        ResponseListener b = listener(0L, otherUser, handled::add, l -> {});
+        handler.register(a);
+        handler.register(b);
+
+        assertTrue(handler.isListening(1L, 0L));
+        assertTrue(handler.isListening(0L, otherUser));
+        assertFalse(handler.isListening(1L, otherUser));
+
+        assertTrue(handler.handleMessage(message(0L, otherUser)));
+        assertEquals(List.of(b), handled, "The message must go to the listener of its own channel and user");
+
+        handler.unregister(b);
+        assertFalse(handler.isListening(0L, otherUser));
+        assertTrue(handler.isListening(1L, 0L), "Removing one listener must leave the other one with the same key");
+    }
+
+    @Test
+    void timeoutAfterUnregisterDoesNothing() {
+        AtomicInteger timedOut = new AtomicInteger();
+        ResponseListener listener = listener(1L, 2L, l -> {}, l -> timedOut.incrementAndGet());
+        handler.register(listener);
+
+        handler.unregister(listener);
+        scheduler.task(0).run();
+        assertEquals(0, timedOut.get());
+    }
+
+    @Test
+    void timeoutRemovesListener() {
+        AtomicInteger timedOut = new AtomicInteger();
+        ResponseListener listener = listener(1L, 2L, l -> fail("Must not receive messages after timing out"), l -> timedOut.incrementAndGet());
+        handler.register(listener);
+
+        scheduler.task(0).run();
+        assertEquals(1, timedOut.get());
+        assertFalse(handler.handleMessage(message(1L, 2L)));
+
+        handler.unregister(listener);
+        scheduler.task(0).run();
+        assertEquals(1, timedOut.get(), "A timeout must only be handled once");
+    }
+
+    @Test
+    void timeoutWaitsForRunningHandler() throws Exception {
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch handling = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ResponseListener listener = listener(1L, 2L, l -> {
+            handling.countDown();
+            try{
+                release.await(5, TimeUnit.SECONDS);
+            }
+            catch(InterruptedException ex){
+                Thread.currentThread().interrupt();
+            }
+            events.add("handled");
+        }, l -> events.add("timed out"));
+        handler.register(listener);
+
+        Thread response = new Thread(() -> handler.handleMessage(message(1L, 2L)));
+        response.start();
+        assertTrue(handling.await(5, TimeUnit.SECONDS));
+
+        Thread timer = new Thread(scheduler.task(0));
+        timer.start();
+        // The timeout has to wait on the listener's lock while its handler runs
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while(timer.getState() != Thread.State.BLOCKED && timer.isAlive() && System.nanoTime() < deadline){
+            Thread.onSpinWait();
+        }
+        assertEquals(Thread.State.BLOCKED, timer.getState());
+        assertEquals(List.of(), events);
+
+        release.countDown();
+        response.join();
+        timer.join();
+        assertEquals(List.of("handled", "timed out"), events);
+        assertFalse(listener.isActive());
+        assertFalse(handler.handleMessage(message(1L, 2L)), "Listeners which timed out must not receive messages");
+    }
+
+    @Test
+    void unregisterRacingTimeout() throws Exception {
+        for(int i = 0; i < 500; i++){
+            AtomicInteger timedOut = new AtomicInteger();
+            ResponseListener listener = listener(1L, i, l -> {}, l -> timedOut.incrementAndGet());
+            handler.register(listener);
+            Runnable timeout = scheduler.task(i);
+
+            CountDownLatch start = new CountDownLatch(1);
+            Thread timer = new Thread(() -> {
+                try{
+                    start.await();
+                }
+                catch(InterruptedException ex){
+                    return;
+                }
+                timeout.run();
+            });
+            timer.start();
+            start.countDown();
+            handler.unregister(listener);
+            timer.join();
+
+            assertTrue(timedOut.get() <= 1, "A listener must time out at most once");
+            assertFalse(handler.isListening(1L, i));
+        }
+    }
+
+    @Test
+    void timeOutAll() {
+        AtomicInteger timedOut = new AtomicInteger();
+        handler.register(listener(1L, 2L, l -> {}, l -> timedOut.incrementAndGet()));
+        handler.register(listener(1L, 3L, l -> {}, l -> {
+            throw new IllegalStateException("broken");
+        }));
+        handler.register(listener(4L, 2L, l -> {}, l -> timedOut.incrementAndGet()));
+
+        assertEquals(2, handler.timeOutAll(), "Failing timeout handlers must not stop the others");
+        assertEquals(2, timedOut.get());
+        assertFalse(handler.isListening(1L, 2L));
+        assertFalse(handler.isListening(4L, 2L));
+
+        for(int i = 0; i < scheduler.taskCount(); i++){
+            scheduler.task(i).run();
+        }
+        assertEquals(2, timedOut.get(), "Listeners which were timed out must not time out again");
+    }
+}
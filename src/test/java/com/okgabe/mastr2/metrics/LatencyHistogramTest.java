@@ -0,0 +1,49 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void buckets() {
+        long previousBound = -1;
+        for(int i = 0; i < 400; i++){
+            long bound = LatencyHistogram.upperBoundOf(i);
+            assertTrue(bound > previousBound, "Bucket bounds must increase");
+            assertEquals(LatencyHistogram.bucketOf(bound), i);
+            assertEquals(LatencyHistogram.bucketOf(previousBound + 1), i);
+            previousBound = bound;
+        }
+    }
+
+    @Test
+    void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(histogram.getPercentile(50), 0);
+
+        for(int i = 1; i <= 1000; i++){
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(histogram.getCount(), 1000);
+        assertEquals(histogram.getMax(), 1_000_000);
+        assertEquals(histogram.getMean(), 500_500, 0.001);
+        assertWithin(histogram.getPercentile(50), 500_000);
+        assertWithin(histogram.getPercentile(99), 990_000);
+        assertEquals(histogram.getPercentile(100), 1_000_000);
+    }
+
+    private static void assertWithin(long actual, long expected){
+        assertTrue(actual >= expected && actual <= expected * 1.125, actual + " is not within bucket precision of " + expected);
+    }
+}
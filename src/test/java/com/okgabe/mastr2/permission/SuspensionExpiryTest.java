@@ -0,0 +1,97 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.permission;
+
+import com.okgabe.mastr2.util.TimeUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SuspensionExpiryTest {
+
+    @Test
+    void liftsEndedSuspensionsInOneWrite() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        long later = TimeUtil.getNow() + 1000;
+        SuspensionIndex index = new SuspensionIndex();
+        AtomicInteger writes = new AtomicInteger();
+        List<Long> lifted = Collections.synchronizedList(new ArrayList<>());
+        SuspensionExpiry expiry = new SuspensionExpiry(scheduler, index, now -> writes.incrementAndGet(), (id, end) -> lifted.add(id));
+
+        for(long id = 1; id <= 3; id++){
+            index.put(id, later + id);
+            expiry.schedule(id, later + id);
+        }
+        index.put(4L, SuspensionIndex.PERMANENT);
+        expiry.schedule(4L, SuspensionIndex.PERMANENT);
+
+        // Renewed after being scheduled, so the old expiration must not lift it
+        index.put(2L, later + 5000);
+
+        assertEquals(expiry.sweep(later), 0);
+        assertEquals(writes.get(), 0, "Nothing ended yet, so nothing should be written");
+
+        assertEquals(expiry.sweep(later + 3), 2);
+        assertEquals(writes.get(), 1);
+        assertEquals(lifted, List.of(1L, 3L));
+        assertFalse(index.isSuspended(1L, later));
+        assertTrue(index.isSuspended(2L, later + 3));
+        assertTrue(index.isSuspended(4L, later + 3));
+        assertEquals(expiry.getPendingCount(), 0);
+
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void wakesUpAtDeadline() throws InterruptedException {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        SuspensionIndex index = new SuspensionIndex();
+        CountDownLatch lifted = new CountDownLatch(2);
+        SuspensionExpiry expiry = new SuspensionExpiry(scheduler, index, now -> {}, (id, end) -> lifted.countDown());
+
+        long now = TimeUtil.getNow();
+        index.put(1L, now + 1);
+        expiry.schedule(1L, now + 1);
+        index.put(2L, now - 10);
+        expiry.schedule(2L, now - 10);
+
+        assertTrue(lifted.await(5, TimeUnit.SECONDS), "Suspensions should be lifted without being checked");
+        assertEquals(index.size(), 0);
+
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void retriesFailedWrite() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        long later = TimeUtil.getNow() + 1000;
+        SuspensionIndex index = new SuspensionIndex();
+        SuspensionExpiry expiry = new SuspensionExpiry(scheduler, index, now -> {
+            throw new IllegalStateException("Database unavailable");
+        }, (id, end) -> {});
+
+        index.put(1L, later);
+        expiry.schedule(1L, later);
+
+        assertThrows(IllegalStateException.class, () -> expiry.sweep(later));
+        assertEquals(expiry.getPendingCount(), 1, "Expiration should be kept for the next attempt");
+        assertTrue(index.isSuspended(1L, later - 1));
+
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.permission;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SuspensionIndexTest {
+
+    @Test
+    void expiry() {
+        Map<Long, Long> loaded = new HashMap<>();
+        loaded.put(30L, SuspensionIndex.PERMANENT);
+        loaded.put(10L, 1000L);
+        SuspensionIndex index = new SuspensionIndex(loaded);
+
+        assertEquals(index.size(), 2);
+        assertTrue(index.isSuspended(10L, 999L));
+        assertFalse(index.isSuspended(10L, 1000L), "Suspension should end at its end time");
+        assertTrue(index.isSuspended(30L, Long.MAX_VALUE), "Permanent suspensions never end");
+        assertFalse(index.isSuspended(20L, 0L));
+    }
+
+    @Test
+    void putAndRemove() {
+        SuspensionIndex index = new SuspensionIndex();
+        for(long id = 100; id > 0; id -= 2){
+            index.put(id, SuspensionIndex.PERMANENT);
+        }
+        assertEquals(index.size(), 50);
+
+        index.put(50L, 500L);
+        assertEquals(index.size(), 50, "Replacing a suspension shouldn't add an entry");
+        assertFalse(index.isSuspended(50L, 500L));
+
+        for(long id = 1; id <= 100; id++){
+            assertEquals(index.isSuspended(id, 0L), id % 2 == 0, "Wrong state for " + id);
+        }
+
+        assertTrue(index.remove(2L));
+        assertTrue(index.remove(100L));
+        assertFalse(index.remove(3L));
+        assertFalse(index.isSuspended(2L, 0L));
+        assertFalse(index.isSuspended(100L, 0L));
+        assertTrue(index.isSuspended(4L, 0L));
+        assertEquals(index.size(), 48);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.util;
+
+import com.okgabe.mastr2.Mastr;
+import com.okgabe.mastr2.command.CommandBase;
+import com.okgabe.mastr2.command.CommandEvent;
+import com.okgabe.mastr2.command.CommandRegistry;
+import net.dv8tion.jda.api.requests.GatewayIntent;
+import net.dv8tion.jda.api.utils.cache.CacheFlag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MemoryProfileTest {
+
+    private static List<CommandBase> createCommands(){
+        List<CommandBase> commands = new ArrayList<>();
+        for(Function<Mastr, CommandBase> factory : CommandRegistry.FACTORIES){
+            commands.add(factory.apply(null));
+        }
+
+        return commands;
+    }
+
+    @Test
+    void everyCommandWorksUnderEveryProfile() {
+        List<CommandBase> commands = createCommands();
+        for(MemoryProfile profile : MemoryProfile.values()){
+            assertEquals(List.of(), profile.findMissing(commands), profile.getName());
+        }
+    }
+
+    @Test
+    void cacheFlagsHaveTheirIntents() {
+        for(MemoryProfile profile : MemoryProfile.values()){
+            for(CacheFlag flag : profile.getCacheFlags()){
+                GatewayIntent intent = flag.getRequiredIntent();
+                if(intent != null) assertTrue(profile.getIntents().contains(intent), profile + " caches " + flag + " without " + intent);
+            }
+        }
+    }
+
+    @Test
+    void reportsMissingRequirements() {
+        CommandBase presence = new CommandBase(null) {
+            {
+                this.command = "presence";
+                this.requiredIntents = EnumSet.of(GatewayIntent.GUILD_PRESENCES);
+                this.requiredCacheFlags = EnumSet.of(CacheFlag.ACTIVITY);
+            }
+
+            @Override
+            public boolean called(CommandEvent e) {
+                return true;
+            }
+
+            @Override
+            public void execute(CommandEvent e) {}
+        };
+
+        assertEquals(2, MemoryProfile.LEAN.findMissing(List.of(presence)).size());
+        assertEquals(List.of(), MemoryProfile.FULL.findMissing(List.of(presence)));
+    }
+
+    @Test
+    void parse() {
+        assertSame(MemoryProfile.LEAN, MemoryProfile.parse("lean"));
+        assertSame(MemoryProfile.BALANCED, MemoryProfile.parse("Balanced"));
+        assertSame(MemoryProfile.FULL, MemoryProfile.parse("FULL"));
+        assertNull(MemoryProfile.parse("huge"));
+    }
+}
@@ -114,4 +114,12 @@ class StringUtilTest {
 
         assertThrows(IllegalArgumentException.class, () -> StringUtil.splitBySpaces(null, true));
     }
-}
\ No newline at end of file
+
+    @Test
+    void containsIgnoreCase() {
+        assertTrue(StringUtil.containsIgnoreCase("Hello World", "o w"));
+        assertTrue(StringUtil.containsIgnoreCase("Hello", ""));
+        assertFalse(StringUtil.containsIgnoreCase("Hello", "hello!"));
+        assertFalse(StringUtil.containsIgnoreCase("", "a"));
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2020 Gabriel Keller
+ * This work is licensed under a Creative Commons
+ * Attribution-NonCommercial-ShareAlike 4.0 International License.
+ * A copy of this license can be found at
+ * https://creativecommons.org/licenses/by-nc-sa/4.0/legalcode.
+ */
+
+package com.okgabe.mastr2.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenizedStringTest {
+
+    @Test
+    void offsets() {
+        TokenizedString tokens = TokenizedString.split("mas ping  \"two words\" x", 3, true);
+        assertEquals(tokens.size(), 3);
+        assertTrue(tokens.isPlain(0));
+        assertEquals(tokens.start(0), 4);
+        assertEquals(tokens.end(0), 8);
+        assertEquals(tokens.get(0), "ping");
+        assertFalse(tokens.isPlain(1));
+        assertEquals(tokens.get(1), "two words");
+        assertArrayEquals(tokens.toArray(1), new String[]{"two words", "x"});
+    }
+
+    @Test
+    void quotedTokens() {
+        TokenizedString tokens = TokenizedString.split("\"two words\" plain \"one\" half\"quoted\" \"escaped\\\"", 0, true);
+        assertTrue(tokens.isQuoted(0));
+        assertFalse(tokens.isQuoted(1));
+        assertTrue(tokens.isQuoted(2));
+        assertFalse(tokens.isQuoted(3), "Only tokens wrapped in quotes as a whole count as quoted");
+        assertFalse(tokens.isQuoted(4), "An escaped quote doesn't close the token");
+        assertFalse(TokenizedString.split("\"a\"", 0, false).isQuoted(0));
+    }
+
+    @Test
+    void emptyTokens() {
+        assertTrue(TokenizedString.split("   ", 0, true).isEmpty());
+        assertTrue(TokenizedString.split("mas", 3, true).isEmpty());
+        assertEquals(TokenizedString.split("\"\" a", 0, true).size(), 1);
+        assertEquals(TokenizedString.split("a", 0, true).toArray(1).length, 0);
+    }
+}